@@ -0,0 +1,66 @@
+/**
+ * Per-transfer congestion state shared by the congestion control algorithms
+ */
+public abstract class AbstractCongestionController implements CongestionController {
+    public static final double INITIAL_WINDOW    = 2;
+    public static final double MINIMUM_WINDOW    = 1;
+    // Class fields
+    protected double congestionWindow = INITIAL_WINDOW; // segments allowed in flight
+    protected double slowStartThreshold = RdtProtocol.WINDOW_SIZE; // window at which slow start ends
+    protected long smoothedRttNanos = 0; // smoothed round trip time used for pacing
+    protected int recoverySeq = 0; // losses below this sequence belong to a congestion event already handled
+    protected int segmentSize = RdtProtocol.DEFAULT_SEGMENT_SIZE; // bytes per segment of the transfer
+
+    /**
+     * Method to fold a round trip time sample into the smoothed round trip time
+     * @param rttNanos  long
+     */
+    protected void updateSmoothedRtt(long rttNanos) {
+        if (rttNanos <= 0) return;
+        smoothedRttNanos = (smoothedRttNanos == 0) ? rttNanos : (7 * smoothedRttNanos + rttNanos) / 8;
+    }
+
+    /**
+     * Method to check if a loss starts a new congestion event. Only one reduction is made per window of data.
+     * @param lostSeq   int
+     * @param nextSeq   int
+     * @return          boolean
+     */
+    protected boolean isNewCongestionEvent(int lostSeq, int nextSeq) {
+        if (lostSeq < recoverySeq) return false;
+        recoverySeq = nextSeq;
+        return true;
+    }
+
+    @Override
+    public void onTimeout() {
+        slowStartThreshold = Math.max(congestionWindow / 2, INITIAL_WINDOW);
+        congestionWindow = MINIMUM_WINDOW;
+    }
+
+    @Override
+    public int getCongestionWindow() {
+        return (int) Math.max(MINIMUM_WINDOW, congestionWindow);
+    }
+
+    @Override
+    public int getSlowStartThreshold() {
+        return (int) slowStartThreshold;
+    }
+
+    @Override
+    public void setSegmentSize(int segmentSize) {
+        this.segmentSize = segmentSize;
+    }
+
+    @Override
+    public long getPacingRate() {
+        if (smoothedRttNanos == 0) return 0;
+        return (long) (congestionWindow * segmentSize * 1_000_000_000L / smoothedRttNanos);
+    }
+
+    @Override
+    public String toString() {
+        return "cwnd=" + getCongestionWindow() + " ssthresh=" + getSlowStartThreshold() + " pacing=" + getPacingRate() + "B/s";
+    }
+}
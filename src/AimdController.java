@@ -0,0 +1,24 @@
+/**
+ * Loss based congestion control: slow start followed by additive increase, multiplicative decrease on loss
+ */
+public class AimdController extends AbstractCongestionController {
+    public static final double DECREASE_FACTOR = 0.5;
+
+    @Override
+    public void onAcknowledgement(int ackedSegments, long rttNanos) {
+        updateSmoothedRtt(rttNanos);
+        if (congestionWindow < slowStartThreshold) {
+            congestionWindow += ackedSegments;
+        } else {
+            congestionWindow += (double) ackedSegments / congestionWindow;
+        }
+        congestionWindow = Math.min(congestionWindow, RdtProtocol.WINDOW_SIZE);
+    }
+
+    @Override
+    public void onLoss(int lostSeq, int nextSeq) {
+        if (!isNewCongestionEvent(lostSeq, nextSeq)) return;
+        slowStartThreshold = Math.max(congestionWindow * DECREASE_FACTOR, INITIAL_WINDOW);
+        congestionWindow = slowStartThreshold;
+    }
+}
@@ -0,0 +1,357 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.zip.Deflater;
+
+/**
+ * Compression stage of the Sender between the file and its segmentation. The file is cut into blocks of
+ * Receiver.BUFFER_SIZE segments and every block becomes one frame of the wire image: a 4-byte header (top bit set
+ * when the block is deflated, the frame length in the other 31 bits) followed by the deflated or the stored block.
+ * Blocks are read from the mapping of the file and compressed one at a time, just ahead of the segment being sent,
+ * into a ring of RING_SEGMENTS segments, so the first segment leaves as soon as its block is compressed and the
+ * wire image never goes to the disk. A segment that has left the ring is encoded again from the blocks under it.
+ * Blocks that do not shrink are stored, and every such block doubles the number of following blocks that are
+ * stored without trying, so an incompressible file costs almost no CPU. The digest of the file is computed as the
+ * blocks are read.
+ * The length of the wire image is only known once the last block is compressed, so the session announces the
+ * length it has with every block stored. The last segment of the wire image is the only short one, which tells
+ * the receivers where it ends: an image that would end on a segment boundary gets an empty frame appended.
+ */
+public class BlockCompressor implements SegmentSource {
+    public static final String NONE         = "none";
+    public static final String DEFLATE      = "deflate";
+    public static final int FRAME_HEADER_SIZE = 4;
+    public static final int DEFLATED        = 0x8000_0000; // header bit of a deflated frame
+    public static final int MAXIMUM_SKIP    = 64; // blocks stored without trying after a run of blocks that did not shrink
+    public static final int MINIMUM_SAVING  = 16; // a block is only deflated when it saves at least 1/16 of its size
+    public static final int RING_SEGMENTS   = 2 * RdtProtocol.WINDOW_SIZE; // segments of the wire image kept: a window, the block being repaired and a frame ahead
+    // Class fields
+    private String name; // name of the file, for the log
+    private MappedFileSource source; // mapping of the file
+    private Deflater deflater = new Deflater(Deflater.BEST_SPEED); // codec reused for every block
+    private MessageDigest fileDigest = RdtProtocol.fileDigest(); // digest of the file as it is read
+    private int segmentSize; // bytes per segment, of the file and of the wire image
+    private int blockSize; // bytes of the file per block
+    private int blockCount; // blocks of the file
+    private long bound; // length of the wire image with every block stored and an empty frame, announced before it is known
+    private int[] frameOffsets; // offset of every frame in the wire image, unsigned
+    private BitSet deflatedBlocks = new BitSet(); // blocks sent deflated, so a block is encoded again the same way
+    private int frames = 0; // frames compressed so far, the empty one at the end included
+    private long produced = 0; // bytes of the wire image compressed so far
+    private long wireLength = -1; // length of the wire image, -1 until the last block is compressed
+    private byte[] block; // bytes of the file in the block being encoded
+    private byte[] frame; // frame being encoded
+    private ByteBuffer[] ring = new ByteBuffer[RING_SEGMENTS]; // segments of the wire image, indexed by seq % RING_SEGMENTS
+    private ByteBuffer rebuilt; // segment encoded again after it left the ring
+    private int skip = 0; // blocks left to store without trying
+    private int skipInterval = 1; // blocks stored without trying after the next block that does not shrink
+    private int storedBlocks = 0; // blocks sent as they are
+
+    /**
+     * Constructor for this class
+     * @param file          File not empty
+     * @param segmentSize   int bytes per segment
+     * @throws IOException
+     */
+    public BlockCompressor(File file, int segmentSize) throws IOException {
+        this.name = file.getName();
+        this.source = new MappedFileSource(file, segmentSize);
+        this.segmentSize = segmentSize;
+        this.blockSize = Receiver.BUFFER_SIZE * segmentSize;
+        this.blockCount = (int) ((this.source.length() + this.blockSize - 1) / this.blockSize);
+        this.bound = boundOf(this.source.length(), segmentSize);
+        this.frameOffsets = new int[this.blockCount + 1];
+        this.block = new byte[this.blockSize];
+        this.frame = new byte[FRAME_HEADER_SIZE + this.blockSize];
+        for (int index = 0; index < RING_SEGMENTS; index++) {
+            this.ring[index] = ByteBuffer.allocate(segmentSize);
+        }
+        this.rebuilt = ByteBuffer.allocate(segmentSize);
+    }
+
+    /**
+     * Method to find the length announced for the wire image of a file: every block stored, and an empty frame
+     * @param length        long bytes of the file
+     * @param segmentSize   int bytes per segment
+     * @return              long bytes
+     */
+    public static long boundOf(long length, int segmentSize) {
+        long blockSize = (long) Receiver.BUFFER_SIZE * segmentSize;
+        return length + FRAME_HEADER_SIZE * ((length + blockSize - 1) / blockSize + 1);
+    }
+
+    /**
+     * Getter for the length the data segments announce, that of the wire image with every block stored
+     * @return  long bytes
+     */
+    public long length() {
+        return this.bound;
+    }
+
+    /**
+     * Method to return the number of segments of the wire image, as many as the announced length needs until the
+     * last block has been compressed
+     * @return  int
+     */
+    public int segmentCount() {
+        long length = (this.wireLength < 0) ? this.bound : this.wireLength;
+        return (int) ((length + this.segmentSize - 1) / this.segmentSize);
+    }
+
+    /**
+     * Method to compress the blocks up to the first byte of the given segment, and return the number of segments
+     * of the wire image as far as it is known then
+     * @param seq   int
+     * @return      int
+     */
+    public int reach(int seq) {
+        this.produce((long) (seq - 1) * this.segmentSize + 1);
+        return this.segmentCount();
+    }
+
+    /**
+     * Method to return the payload of a segment of the wire image, compressing the blocks it needs first. One byte
+     * past it is compressed too, so the segment count is exact once the last segment has been asked for.
+     * The view is reused, so it is only valid until the segment is asked for again.
+     * @param seq   int sequence number, starting at 1
+     * @return      ByteBuffer with the segment bytes remaining; shorter than the segment size for the last segment
+     */
+    public ByteBuffer payload(int seq) {
+        long start = (long) (seq - 1) * this.segmentSize;
+        this.produce(start + this.segmentSize + 1);
+        int size = (int) Math.max(0, Math.min(this.segmentSize, this.produced - start));
+        int newestSeq = (int) ((this.produced - 1) / this.segmentSize) + 1;
+        if (seq <= newestSeq - RING_SEGMENTS) return this.rebuild(start, size);
+        ByteBuffer view = this.ring[seq % RING_SEGMENTS];
+        view.limit(size).position(0);
+        return view;
+    }
+
+    /**
+     * Method to drop the segments below the given sequence: nothing to do, the ring is overwritten in place
+     * @param seq   int first sequence still in use
+     */
+    public void release(int seq) {
+    }
+
+    /**
+     * Getter for the number of regions of the file mapped so far, a region mapped again included
+     * @return  int
+     */
+    public int getMappedRegions() {
+        return this.source.getMappedRegions();
+    }
+
+    /**
+     * Method to start loading the file ahead of the blocks being compressed
+     */
+    public void startPrefetch() {
+        this.source.startPrefetch();
+    }
+
+    /**
+     * Method to tell the prefetch task which segment is being sent: nothing to do, the blocks being compressed
+     * drive it through the file
+     * @param seq   int
+     */
+    public void advancePrefetch(int seq) {
+    }
+
+    /**
+     * Method to end the prefetch task
+     */
+    public void stopPrefetch() {
+        this.source.stopPrefetch();
+    }
+
+    /**
+     * Getter for the digest of the file, compressing the blocks that are left
+     * @return  byte[]
+     */
+    public byte[] getDigest() {
+        this.produce(Long.MAX_VALUE);
+        return this.fileDigest.digest();
+    }
+
+    /**
+     * Getter for the length of the wire image, compressing the blocks that are left
+     * @return  long bytes
+     */
+    public long getWireLength() {
+        this.produce(Long.MAX_VALUE);
+        return this.wireLength;
+    }
+
+    /**
+     * Method to compress the next blocks in order until the wire image holds the given number of bytes, or ends
+     * @param target    long bytes
+     */
+    private void produce(long target) {
+        while (this.wireLength < 0 && this.produced < target) {
+            int index = this.frames++;
+            this.frameOffsets[index] = (int) this.produced;
+            int size = this.read(index);
+            this.fileDigest.update(this.block, 0, size);
+            this.append(this.compress(index, size));
+            this.source.release((index + 1) * Receiver.BUFFER_SIZE + 1);
+            if (this.frames < this.blockCount) continue;
+            if (this.produced % this.segmentSize == 0) { // the last segment has to be short
+                this.frameOffsets[this.frames++] = (int) this.produced;
+                Arrays.fill(this.frame, 0, FRAME_HEADER_SIZE, (byte) 0);
+                this.append(FRAME_HEADER_SIZE);
+            }
+            this.wireLength = this.produced;
+            System.out.println(">> Compressed " + this.name + ": " + this.deflatedBlocks.cardinality() + " blocks deflated, "
+                + this.storedBlocks + " stored, " + this.source.length() + " -> " + this.wireLength + " bytes");
+        }
+    }
+
+    /**
+     * Method to copy a block of the file out of its mapping
+     * @param index int block
+     * @return      int bytes in the block
+     */
+    private int read(int index) {
+        int first = index * Receiver.BUFFER_SIZE + 1;
+        int last = Math.min(first + Receiver.BUFFER_SIZE - 1, this.source.segmentCount());
+        this.source.advancePrefetch(last);
+        int size = 0;
+        for (int seq = first; seq <= last; seq++) {
+            ByteBuffer payload = this.source.payload(seq);
+            int length = payload.remaining();
+            payload.get(this.block, size, length);
+            size += length;
+        }
+        return size;
+    }
+
+    /**
+     * Method to encode a block as a frame the first time, deflated if that saves enough, stored otherwise
+     * @param index int block
+     * @param size  int bytes in the block
+     * @return      int bytes of the frame
+     */
+    private int compress(int index, int size) {
+        if (this.skip > 0) {
+            this.skip--;
+        } else {
+            int length = this.deflate(size);
+            if (length > 0) {
+                this.skipInterval = 1;
+                this.deflatedBlocks.set(index);
+                return length;
+            }
+            this.skip = this.skipInterval;
+            this.skipInterval = Math.min(2 * this.skipInterval, MAXIMUM_SKIP);
+        }
+        this.storedBlocks++;
+        return this.store(size);
+    }
+
+    /**
+     * Method to deflate the block into the frame
+     * @param size  int bytes in the block
+     * @return      int bytes of the frame, 0 if the block does not shrink enough
+     */
+    private int deflate(int size) {
+        this.deflater.reset();
+        this.deflater.setInput(this.block, 0, size);
+        this.deflater.finish();
+        int limit = size - size / MINIMUM_SAVING;
+        int deflated = 0;
+        while (!this.deflater.finished() && deflated < limit) {
+            deflated += this.deflater.deflate(this.frame, FRAME_HEADER_SIZE + deflated, limit - deflated);
+        }
+        if (!this.deflater.finished() || deflated >= limit) return 0;
+        ByteBuffer.wrap(this.frame).putInt(DEFLATED | deflated);
+        return FRAME_HEADER_SIZE + deflated;
+    }
+
+    /**
+     * Method to store the block in the frame as it is
+     * @param size  int bytes in the block
+     * @return      int bytes of the frame
+     */
+    private int store(int size) {
+        ByteBuffer.wrap(this.frame).putInt(size);
+        System.arraycopy(this.block, 0, this.frame, FRAME_HEADER_SIZE, size);
+        return FRAME_HEADER_SIZE + size;
+    }
+
+    /**
+     * Method to append the frame to the wire image, segment by segment into the ring
+     * @param length    int bytes of the frame
+     */
+    private void append(int length) {
+        int offset = 0;
+        while (offset < length) {
+            int seq = (int) (this.produced / this.segmentSize) + 1;
+            int start = (int) (this.produced % this.segmentSize);
+            int count = Math.min(length - offset, this.segmentSize - start);
+            System.arraycopy(this.frame, offset, this.ring[seq % RING_SEGMENTS].array(), start, count);
+            offset += count;
+            this.produced += count;
+        }
+    }
+
+    /**
+     * Method to encode a segment again after it left the ring, from the frames that overlap it. Every block is
+     * encoded the way it was the first time, and deflating the same bytes at the same level gives the same frame.
+     * @param start long offset of the segment in the wire image
+     * @param size  int bytes in the segment
+     * @return      ByteBuffer with the segment bytes remaining, valid until the next rebuild
+     */
+    private ByteBuffer rebuild(long start, int size) {
+        long end = start + size;
+        int index = this.frameAt(start);
+        while (index < this.frames && Integer.toUnsignedLong(this.frameOffsets[index]) < end) {
+            long offset = Integer.toUnsignedLong(this.frameOffsets[index]);
+            int length;
+            if (index == this.blockCount) {
+                Arrays.fill(this.frame, 0, FRAME_HEADER_SIZE, (byte) 0);
+                length = FRAME_HEADER_SIZE;
+            } else {
+                int bytes = this.read(index);
+                length = this.deflatedBlocks.get(index) ? this.deflate(bytes) : this.store(bytes);
+            }
+            long from = Math.max(start, offset);
+            long to = Math.min(end, offset + length);
+            System.arraycopy(this.frame, (int) (from - offset), this.rebuilt.array(), (int) (from - start), (int) (to - from));
+            index++;
+        }
+        this.rebuilt.limit(size).position(0);
+        return this.rebuilt;
+    }
+
+    /**
+     * Method to find the frame that holds a byte of the wire image compressed so far
+     * @param offset    long
+     * @return          int frame index
+     */
+    private int frameAt(long offset) {
+        int low = 0;
+        int high = this.frames - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (Integer.toUnsignedLong(this.frameOffsets[middle]) <= offset) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Method to close the mapping of the file and release the codec
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        this.source.close();
+        this.deflater.end();
+    }
+}
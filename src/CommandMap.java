@@ -33,6 +33,7 @@ public class CommandMap {
         public static final String RIGHT   = "Turn Right";
         public static final String CLICK   = "Capture";
         public static final String SENDER  = "sender";
+        public static final String RECEIVER = "receiver";
         public static final String FORWARD = "Move Forward";
         public static final String STANDBY = "Standby";
     }
@@ -0,0 +1,64 @@
+/**
+ * Interface for the congestion control algorithms that decide how many segments the Sender may have in flight.
+ * A new controller is created for every transfer, so each one carries the congestion window, the slow start
+ * threshold and the pacing rate of exactly one transfer.
+ */
+public interface CongestionController {
+    String AIMD  = "aimd";
+    String DELAY = "delay";
+
+    /**
+     * Method called when a cumulative acknowledgement releases segments from the window
+     * @param ackedSegments number of segments newly acknowledged
+     * @param rttNanos      round trip time sample in nanoseconds, or 0 if the sample is ambiguous
+     */
+    void onAcknowledgement(int ackedSegments, long rttNanos);
+
+    /**
+     * Method called when the receiver reports a missing segment
+     * @param lostSeq   sequence number reported missing
+     * @param nextSeq   next sequence number the sender will send
+     */
+    void onLoss(int lostSeq, int nextSeq);
+
+    /**
+     * Method called when the retransmission timer expires without the window moving
+     */
+    void onTimeout();
+
+    /**
+     * Getter for the congestion window
+     * @return  int number of segments allowed in flight
+     */
+    int getCongestionWindow();
+
+    /**
+     * Getter for the slow start threshold
+     * @return  int
+     */
+    int getSlowStartThreshold();
+
+    /**
+     * Setter for the number of bytes per segment, which turns the window into a pacing rate
+     * @param segmentSize   int
+     */
+    void setSegmentSize(int segmentSize);
+
+    /**
+     * Getter for the pacing rate
+     * @return  long bytes per second, or 0 while no round trip time is known
+     */
+    long getPacingRate();
+
+    /**
+     * Method to create the congestion controller selected by name
+     * @param name  String "aimd" or "delay"
+     * @return      CongestionController
+     */
+    static CongestionController create(String name) {
+        if (DELAY.equalsIgnoreCase(name)) {
+            return new DelayBasedController();
+        }
+        return new AimdController();
+    }
+}
@@ -0,0 +1,145 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Receive stage of a compressed session. The segments of the wire image are spooled to a FileSink at their
+ * offsets like any other transfer, and every frame is inflated into the output file as soon as the in-order
+ * part of the spool covers it. The output is written in order, so its digest is computed as it is written.
+ * Draining runs as a task of the disk stage, behind the writes of the spool it reads, and so does everything
+ * else but the constructor: the event loop never reads the spool or writes the output.
+ * The spool is deleted when the session closes. It is a scratch file and never forced to the disk; the output file is.
+ */
+public class DecompressingSink implements AutoCloseable {
+    public static final int CHUNK_SIZE = 64 * 1024; // bytes inflated per write to the output file
+    // Class fields
+    private FileSink spool; // wire image as it arrives
+    private File spoolFile; // file behind the spool
+    private RandomAccessFile file; // output file
+    private FileChannel channel; // channel used for the sequential writes of the output file
+    private Inflater inflater = new Inflater(); // codec reset for every deflated frame
+    private ByteBuffer frameHeader = ByteBuffer.allocate(BlockCompressor.FRAME_HEADER_SIZE); // header of the next frame
+    private byte[] frame = new byte[CHUNK_SIZE]; // body of the frame being decoded, grown to the largest frame
+    private byte[] chunk = new byte[CHUNK_SIZE]; // inflated bytes on their way to the output file
+    private long consumed = 0; // bytes of the wire image already decoded
+    private long written = 0; // bytes written to the output file
+    private MessageDigest fileDigest = RdtProtocol.fileDigest(); // digest of the output file so far
+
+    /**
+     * Constructor for this class
+     * @param spool     FileSink of the wire image
+     * @param spoolFile File behind the spool
+     * @param output    File that receives the decompressed file
+     * @throws IOException
+     */
+    public DecompressingSink(FileSink spool, File spoolFile, File output) throws IOException {
+        this.spool = spool;
+        this.spoolFile = spoolFile;
+        this.file = new RandomAccessFile(output, "rw");
+        this.channel = this.file.getChannel();
+        this.file.setLength(0);
+    }
+
+    /**
+     * Method to decode every complete frame of the wire image received in order
+     * @param available long bytes at the start of the wire image that have arrived
+     * @throws IOException
+     */
+    public void drain(long available) throws IOException {
+        while (this.consumed + BlockCompressor.FRAME_HEADER_SIZE <= available) {
+            this.frameHeader.clear();
+            this.spool.read(this.consumed, this.frameHeader);
+            int header = this.frameHeader.getInt(0);
+            int length = header & ~BlockCompressor.DEFLATED;
+            long end = this.consumed + BlockCompressor.FRAME_HEADER_SIZE + length;
+            if (end > this.spool.length()) throw new IOException("Frame of " + length + " bytes runs past the end of the wire image");
+            if (end > available) return;
+            if (this.frame.length < length) this.frame = new byte[length];
+            this.spool.read(this.consumed + BlockCompressor.FRAME_HEADER_SIZE, ByteBuffer.wrap(this.frame, 0, length));
+            if ((header & BlockCompressor.DEFLATED) != 0) {
+                this.inflate(length);
+            } else {
+                this.write(this.frame, length);
+            }
+            this.consumed = end;
+        }
+    }
+
+    /**
+     * Method to inflate a deflated frame into the output file
+     * @param length    int bytes of the frame body
+     * @throws IOException
+     */
+    private void inflate(int length) throws IOException {
+        this.inflater.reset();
+        this.inflater.setInput(this.frame, 0, length);
+        try {
+            while (!this.inflater.finished()) {
+                int inflated = this.inflater.inflate(this.chunk);
+                if (inflated == 0 && (this.inflater.needsInput() || this.inflater.needsDictionary())) {
+                    throw new IOException("Truncated deflated frame at wire offset " + this.consumed);
+                }
+                this.write(this.chunk, inflated);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt deflated frame at wire offset " + this.consumed, e);
+        }
+    }
+
+    /**
+     * Method to append bytes to the output file
+     * @param bytes     byte[]
+     * @param length    int
+     * @throws IOException
+     */
+    private void write(byte[] bytes, int length) throws IOException {
+        this.fileDigest.update(bytes, 0, length);
+        ByteBuffer source = ByteBuffer.wrap(bytes, 0, length);
+        while (source.hasRemaining()) {
+            this.written += this.channel.write(source, this.written);
+        }
+    }
+
+    /**
+     * Getter for the digest of everything written to the output file
+     * @return  byte[]
+     */
+    public byte[] getDigest() {
+        return this.fileDigest.digest();
+    }
+
+    /**
+     * Method to close the spool through the disk stage, then force and close the output file and delete the spool.
+     * The inflater is released there too, behind the last drain.
+     * @param onClosed  Runnable called once both files are closed, on the disk stage; may be null
+     * @throws IOException
+     */
+    public void close(Runnable onClosed) throws IOException {
+        this.spool.close(() -> {
+            this.inflater.end();
+            try {
+                if (!WriteBehind.NONE.equals(WriteBehind.DURABILITY)) this.channel.force(false);
+                this.channel.truncate(this.written);
+                this.file.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            this.spoolFile.delete();
+            if (onClosed != null) onClosed.run();
+        });
+    }
+
+    /**
+     * Method to close the output file and the spool, and delete the spool
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        this.close(null);
+    }
+}
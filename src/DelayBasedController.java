@@ -0,0 +1,47 @@
+/**
+ * Delay based congestion control in the style of TCP Vegas. Once per round trip the expected throughput
+ * (window / base RTT) is compared with the actual throughput (window / current RTT); the difference is the
+ * number of segments queued in the network and the window is grown or shrunk to keep it between ALPHA and BETA.
+ */
+public class DelayBasedController extends AbstractCongestionController {
+    public static final double ALPHA           = 2; // fewer queued segments than this: grow the window
+    public static final double BETA            = 4; // more queued segments than this: shrink the window
+    public static final double GAMMA           = 1; // queued segments that end slow start
+    public static final double DECREASE_FACTOR = 0.75;
+    // Class fields
+    private long baseRttNanos = Long.MAX_VALUE; // lowest round trip time seen, the propagation delay
+    private long roundMinRttNanos = Long.MAX_VALUE; // lowest round trip time seen in the current round
+    private long roundStartNanos = 0; // time at which the current round started
+
+    @Override
+    public void onAcknowledgement(int ackedSegments, long rttNanos) {
+        updateSmoothedRtt(rttNanos);
+        if (rttNanos <= 0) return;
+        baseRttNanos = Math.min(baseRttNanos, rttNanos);
+        roundMinRttNanos = Math.min(roundMinRttNanos, rttNanos);
+        long now = System.nanoTime();
+        if (roundStartNanos == 0) roundStartNanos = now;
+        if (now - roundStartNanos < smoothedRttNanos) return;
+        double queued = congestionWindow * (roundMinRttNanos - baseRttNanos) / roundMinRttNanos;
+        if (congestionWindow < slowStartThreshold && queued < GAMMA) {
+            congestionWindow *= 2;
+        } else {
+            if (congestionWindow < slowStartThreshold) slowStartThreshold = congestionWindow;
+            if (queued < ALPHA) {
+                congestionWindow += 1;
+            } else if (queued > BETA) {
+                congestionWindow = Math.max(MINIMUM_WINDOW, congestionWindow - 1);
+            }
+        }
+        congestionWindow = Math.min(congestionWindow, RdtProtocol.WINDOW_SIZE);
+        roundStartNanos = now;
+        roundMinRttNanos = Long.MAX_VALUE;
+    }
+
+    @Override
+    public void onLoss(int lostSeq, int nextSeq) {
+        if (!isNewCongestionEvent(lostSeq, nextSeq)) return;
+        slowStartThreshold = Math.max(congestionWindow * DECREASE_FACTOR, INITIAL_WINDOW);
+        congestionWindow = slowStartThreshold;
+    }
+}
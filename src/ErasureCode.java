@@ -0,0 +1,79 @@
+/**
+ * Interface for the erasure codes that protect every block of BUFFER_SIZE data segments with repair segments.
+ * A block is a set of k equally long shards (short segments are padded with zeros); the code computes m repair
+ * shards, and any k of the k + m shards are enough to rebuild the missing data shards at the receiver.
+ */
+public interface ErasureCode {
+    String NONE         = "none";
+    String XOR          = "xor";
+    String REED_SOLOMON = "rs";
+    byte XOR_TYPE          = 1; // code type carried in the repair header
+    byte REED_SOLOMON_TYPE = 2;
+
+    /**
+     * Getter for the code type carried in the repair header
+     * @return  byte
+     */
+    byte getType();
+
+    /**
+     * Getter for the number of data segments per block
+     * @return  int k
+     */
+    int getDataSegments();
+
+    /**
+     * Getter for the number of repair segments per block
+     * @return  int m
+     */
+    int getRepairSegments();
+
+    /**
+     * Method to compute the repair shards of a block
+     * @param data      byte[][] k data shards
+     * @param repairs   byte[][] m repair shards, overwritten
+     * @param length    int bytes per shard
+     */
+    void encode(byte[][] data, byte[][] repairs, int length);
+
+    /**
+     * Method to rebuild the missing data shards of a block in place
+     * @param shards    byte[][] k data shards followed by m repair shards
+     * @param present   boolean[] set for every shard that was received
+     * @param length    int bytes per shard
+     * @return          boolean false if too few shards were received to rebuild the block
+     */
+    boolean decode(byte[][] shards, boolean[] present, int length);
+
+    /**
+     * Method to create the erasure code selected by name
+     * @param name      String "none", "xor" or "rs"
+     * @param k         int data segments per block
+     * @param m         int repair segments per block, ignored by "xor" which always sends one
+     * @return          ErasureCode, or null when no repair segments are sent
+     */
+    static ErasureCode create(String name, int k, int m) {
+        if (XOR.equalsIgnoreCase(name)) {
+            return new XorCode(k);
+        } else if (REED_SOLOMON.equalsIgnoreCase(name)) {
+            return new ReedSolomonCode(k, m);
+        }
+        return null;
+    }
+
+    /**
+     * Method to create the erasure code described by a repair header
+     * @param type  byte
+     * @param k     int
+     * @param m     int
+     * @return      ErasureCode, or null for an unknown type
+     */
+    static ErasureCode forType(byte type, int k, int m) {
+        if (type == XOR_TYPE) {
+            return new XorCode(k);
+        } else if (type == REED_SOLOMON_TYPE) {
+            return new ReedSolomonCode(k, m);
+        }
+        return null;
+    }
+}
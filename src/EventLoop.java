@@ -0,0 +1,328 @@
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.StandardProtocolFamily;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+/**
+ * Single threaded, selector based event loop that drives the transport.
+ * Any number of datagram channels and multicast memberships can be registered with one loop; it dispatches
+ * receive and send readiness to their handlers and runs the protocol timers (retransmission and NAK deadlines)
+ * on the same thread, so the protocol state touched from the loop needs no further locking.
+ */
+public class EventLoop implements Runnable {
+    public static final int SOCKET_BUFFER = Integer.getInteger("rdt.sockbuf", 0); // bytes of SO_SNDBUF and SO_RCVBUF, 0 to size them from the bandwidth-delay product
+    public static EventLoop eventLoop = null; // static object of the same class
+    // Class fields
+    private Selector selector; // selector watching every registered channel
+    private PriorityQueue<Timer> timers = new PriorityQueue<>(); // pending timers ordered by deadline
+    private Queue<Runnable> tasks = new ConcurrentLinkedQueue<>(); // tasks handed over by other threads
+    private Thread loopThread; // thread running the loop
+    private Consumer<SelectionKey> dispatcher = this::dispatch; // hands every ready key to its handler without an iterator over the selected keys
+
+    /**
+     * Interface implemented by the modules that own a registered channel
+     */
+    public interface Handler {
+        /**
+         * Method called when the channel has datagrams to read
+         * @param key   SelectionKey
+         * @throws IOException
+         */
+        void onReadable(SelectionKey key) throws IOException;
+
+        /**
+         * Method called when a channel that asked for OP_WRITE can send again
+         * @param key   SelectionKey
+         * @throws IOException
+         */
+        default void onWritable(SelectionKey key) throws IOException {}
+    }
+
+    /**
+     * A task that runs on the loop thread once its deadline has passed
+     */
+    public static class Timer implements Comparable<Timer> {
+        private long deadline; // System.nanoTime() at which the task runs
+        private Runnable task; // task to run
+        private boolean cancelled = false; // set when the timer should not fire any more
+
+        private Timer(long deadline, Runnable task) {
+            this.deadline = deadline;
+            this.task = task;
+        }
+
+        /**
+         * Getter for the deadline
+         * @return  long
+         */
+        public long getDeadline() {
+            return this.deadline;
+        }
+
+        /**
+         * Method to stop the timer from firing
+         */
+        public void cancel() {
+            this.cancelled = true;
+        }
+
+        @Override
+        public int compareTo(Timer other) {
+            return Long.compare(this.deadline, other.deadline);
+        }
+    }
+
+    /**
+     * Constructor for this class
+     * @throws IOException
+     */
+    public EventLoop() throws IOException {
+        this.selector = Selector.open();
+    }
+
+    /**
+     * Method to return the shared event loop, starting it on first use
+     * @return  EventLoop
+     */
+    public static synchronized EventLoop fetchInstance() {
+        if (eventLoop == null) {
+            try {
+                eventLoop = new EventLoop();
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to open selector", e);
+            }
+            ThreadPoolManager.startStage("event-loop", eventLoop);
+        }
+        return eventLoop;
+    }
+
+    /**
+     * Method to open a non-blocking datagram channel bound to a port and joined to a multicast group.
+     * Several channels can bind the same port, so many memberships can share one loop.
+     * @param group String multicast IP
+     * @param port  int
+     * @return      DatagramChannel
+     * @throws IOException
+     */
+    public static DatagramChannel openMulticastChannel(String group, int port) throws IOException {
+        InetAddress groupAddress = InetAddress.getByName(group);
+        DatagramChannel channel = DatagramChannel.open(StandardProtocolFamily.INET);
+        channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        channel.bind(new InetSocketAddress(port));
+        channel.join(groupAddress, networkInterfaceFor(groupAddress, port));
+        channel.configureBlocking(false);
+        int bytes = setBufferSize(channel, StandardSocketOptions.SO_RCVBUF, RdtProtocol.WINDOW_SIZE * (RdtProtocol.FIXED_HEADER_SIZE + RdtProtocol.REPAIR_HEADER_SIZE + RdtProtocol.DATAGRAM_LENGTH));
+        System.out.println(">> Receive buffer of " + group + ":" + port + ": " + bytes + " bytes");
+        return channel;
+    }
+
+    /**
+     * Method to size the send or receive buffer of a channel. The buffer has to hold the bandwidth-delay product
+     * of the traffic through it, so that a window of datagrams that arrives while the reader is busy, or that
+     * a writer hands over at once, is queued instead of dropped; the caller passes that product, and
+     * -Drdt.sockbuf=<bytes> overrides it. The kernel caps the size (net.core.rmem_max and wmem_max), so the size
+     * it took is read back.
+     * @param channel   DatagramChannel
+     * @param option    SocketOption SO_SNDBUF or SO_RCVBUF
+     * @param bytes     int bandwidth-delay product in bytes
+     * @return          int size of the buffer the kernel reports
+     * @throws IOException
+     */
+    public static int setBufferSize(DatagramChannel channel, SocketOption<Integer> option, int bytes) throws IOException {
+        int requested = (SOCKET_BUFFER > 0) ? SOCKET_BUFFER : bytes;
+        channel.setOption(option, requested);
+        int size = channel.getOption(option);
+        if (size < requested) System.out.println("[!!!] " + option.name() + " capped at " + size + " bytes by the kernel, " + requested + " requested");
+        return size;
+    }
+
+    /**
+     * Method to find the MTU of the interface that datagrams to the group leave from. Java cannot set the
+     * don't-fragment bit, so this is the bound path MTU probing never exceeds: larger datagrams would be
+     * fragmented by this host before they reach the path.
+     * @param group String multicast IP
+     * @param port  int
+     * @return      int MTU in bytes, the Ethernet MTU if the interface does not report one
+     */
+    public static int maximumTransmissionUnit(String group, int port) {
+        try {
+            NetworkInterface networkInterface = networkInterfaceFor(InetAddress.getByName(group), port);
+            int mtu = (networkInterface == null) ? -1 : networkInterface.getMTU();
+            return (mtu > 0) ? mtu : RdtProtocol.ETHERNET_MTU;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return RdtProtocol.ETHERNET_MTU;
+        }
+    }
+
+    /**
+     * Method to find the interface that datagrams to the group leave from, so that the membership is
+     * taken on the same interface the senders on this host use. It can be forced with -Drdt.interface=<name>.
+     * @param group InetAddress
+     * @param port  int
+     * @return      NetworkInterface
+     * @throws IOException
+     */
+    private static NetworkInterface networkInterfaceFor(InetAddress group, int port) throws IOException {
+        String name = System.getProperty("rdt.interface");
+        if (name != null) return NetworkInterface.getByName(name);
+        try (DatagramSocket probe = new DatagramSocket()) {
+            probe.connect(group, port);
+            NetworkInterface networkInterface = NetworkInterface.getByInetAddress(probe.getLocalAddress());
+            if (networkInterface != null) return networkInterface;
+        }
+        return NetworkInterface.getByInetAddress(InetAddress.getLoopbackAddress());
+    }
+
+    /**
+     * Method to register a channel with the loop for read readiness
+     * @param channel   DatagramChannel non-blocking channel
+     * @param handler   Handler
+     */
+    public void register(DatagramChannel channel, Handler handler) {
+        this.execute(() -> {
+            try {
+                channel.register(this.selector, SelectionKey.OP_READ, handler);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    /**
+     * Method to add or remove interest in send readiness for a registered channel. Must be called on the loop thread.
+     * @param channel   DatagramChannel
+     * @param writable  boolean
+     */
+    public void setWriteInterest(DatagramChannel channel, boolean writable) {
+        SelectionKey key = channel.keyFor(this.selector);
+        if (key == null || !key.isValid()) return;
+        int ops = writable ? (key.interestOps() | SelectionKey.OP_WRITE) : (key.interestOps() & ~SelectionKey.OP_WRITE);
+        key.interestOps(ops);
+    }
+
+    /**
+     * Method to run a task on the loop thread
+     * @param task  Runnable
+     */
+    public void execute(Runnable task) {
+        if (this.inEventLoop()) {
+            task.run();
+            return;
+        }
+        this.tasks.add(task);
+        this.selector.wakeup();
+    }
+
+    /**
+     * Method to run a task on the loop thread once a deadline has passed. Must be called on the loop thread.
+     * @param deadline  long System.nanoTime() at which the task runs
+     * @param task      Runnable
+     * @return          Timer that can be cancelled
+     */
+    public Timer schedule(long deadline, Runnable task) {
+        Timer timer = new Timer(deadline, task);
+        this.timers.add(timer);
+        return timer;
+    }
+
+    /**
+     * Method to check if the caller is running on the loop thread
+     * @return  boolean
+     */
+    public boolean inEventLoop() {
+        return Thread.currentThread() == this.loopThread;
+    }
+
+    /**
+     * Method to run the loop: wait for readiness or the next timer, then dispatch both
+     */
+    @Override
+    public void run() {
+        this.loopThread = Thread.currentThread();
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                this.selector.select(this.dispatcher, this.timeUntilNextTimer());
+                this.runExpiredTimers();
+                this.runTasks();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Method to hand a ready key to its handler
+     * @param key   SelectionKey
+     */
+    private void dispatch(SelectionKey key) {
+        Handler handler = (Handler) key.attachment();
+        try {
+            if (key.isValid() && key.isReadable()) handler.onReadable(key);
+            if (key.isValid() && key.isWritable()) handler.onWritable(key);
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (RuntimeException e) {
+            System.out.println("[!!!] Event loop handler failed: " + e);
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Method to compute how long the selector may block
+     * @return  long milliseconds, 0 to block until a channel is ready
+     */
+    private long timeUntilNextTimer() {
+        if (!this.tasks.isEmpty()) return 1;
+        Timer next = this.timers.peek();
+        if (next == null) return 0;
+        long remainingMillis = (next.deadline - System.nanoTime() + 999_999) / 1_000_000;
+        return Math.max(1, remainingMillis);
+    }
+
+    /**
+     * Method to run every timer whose deadline has passed
+     */
+    private void runExpiredTimers() {
+        long now = System.nanoTime();
+        while (!this.timers.isEmpty() && this.timers.peek().deadline - now <= 0) {
+            Timer timer = this.timers.poll();
+            if (!timer.cancelled) this.runSafely(timer.task);
+        }
+    }
+
+    /**
+     * Method to run the tasks handed over by other threads
+     */
+    private void runTasks() {
+        Runnable task;
+        while ((task = this.tasks.poll()) != null) {
+            this.runSafely(task);
+        }
+    }
+
+    /**
+     * Method to run a timer or a handed-over task, logging what it throws so that one failing callback cannot
+     * end the loop thread and stop every session of the process
+     * @param task  Runnable
+     */
+    private void runSafely(Runnable task) {
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            System.out.println("[!!!] Event loop task failed: " + e);
+            e.printStackTrace();
+        }
+    }
+}
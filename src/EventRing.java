@@ -0,0 +1,243 @@
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Single-producer single-consumer ring of typed control events, the only path from the event loop to a
+ * SendSession. The event loop publishes every acknowledgement, selective acknowledgement, FIN-ACK and answer
+ * in arrival order, and the session thread drains them in the same order, so the sender's state is only ever
+ * touched by its own thread and no monitor is taken on the ACK path. Variable-length parts of an event (hole
+ * or resume ranges) are copied into a second ring of ints, since the receive buffer is reused right after.
+ * Timers do not queue: they raise signal bits that are collected with the next drain. The consumer parks when
+ * there is nothing to do and the producer unparks it only when it is parked, so no wakeup is lost and an ACK
+ * costs no system call while the session is busy.
+ * Both positions only grow; a slot is the position masked by the capacity. Fields are plain arrays, made
+ * visible by the volatile write of the tail and read after the volatile read of it.
+ */
+public class EventRing {
+    public static final byte ACK        = 1; // cumulative acknowledgement: first = ack, second = timestamp echo, third = receive window
+    public static final byte SACK       = 2; // selective acknowledgement: first = ack, third = receive window, ranges = hole offset and length
+    public static final byte FIN_ACK    = 3; // acknowledgement of the FIN
+    public static final byte PROBE_ACK  = 4; // path MTU probe answer: first = segment size, second = timestamp echo
+    public static final byte OPEN_ACK   = 5; // OPEN answer: first = segment size, second = timestamp echo, third = window << 8 | features, ranges = missing sequences
+    public static final int CAPACITY        = 1024; // events, a power of two
+    public static final int RANGE_CAPACITY  = 16 * 1024; // ints of range data, a power of two
+    // Class fields
+    private byte[] types = new byte[CAPACITY]; // type of the event in every slot
+    private byte[] roverIds = new byte[CAPACITY]; // rover the event came from
+    private int[] firsts = new int[CAPACITY]; // first field of the event
+    private int[] seconds = new int[CAPACITY]; // second field of the event
+    private int[] thirds = new int[CAPACITY]; // third field of the event
+    private int[] rangeCounts = new int[CAPACITY]; // ranges of the event
+    private long[] rangePositions = new long[CAPACITY]; // position of the first range of the event in the range ring
+    private int[] ranges = new int[RANGE_CAPACITY]; // start and length of every range, two ints each
+    private AtomicLong head = new AtomicLong(); // next event to consume, written by the consumer
+    private AtomicLong tail = new AtomicLong(); // next event to publish, written by the producer
+    private AtomicLong rangeHead = new AtomicLong(); // first range int still in use, written by the consumer
+    private long rangeTail = 0; // next free range int, producer only
+    private int pendingRanges = 0; // ranges added for the event being published, producer only
+    private AtomicInteger signals = new AtomicInteger(); // signal bits raised since the last drain
+    private volatile Thread consumer; // thread parked in await, null while it runs
+    private long dropped = 0; // events lost because the ring was full, producer only
+    private long position; // event the consumer is positioned on
+
+    /**
+     * Method to add a range to the event about to be published. Called by the producer before publish.
+     * @param start     int
+     * @param length    int
+     * @return          boolean false when the range ring is full and the range was left out
+     */
+    public boolean addRange(int start, int length) {
+        long next = this.rangeTail + 2L * (this.pendingRanges + 1);
+        if (next - this.rangeHead.get() > RANGE_CAPACITY) return false;
+        int index = (int) ((this.rangeTail + 2L * this.pendingRanges) & (RANGE_CAPACITY - 1));
+        this.ranges[index] = start;
+        this.ranges[index + 1] = length;
+        this.pendingRanges++;
+        return true;
+    }
+
+    /**
+     * Method to drop the ranges added for an event that is not going to be published after all, so that they
+     * are not attached to the next event. Called by the producer.
+     */
+    public void discardRanges() {
+        this.pendingRanges = 0;
+    }
+
+    /**
+     * Method to publish an event with the ranges added since the last one, and wake the consumer if it is parked.
+     * An event that does not fit is dropped: every event type is repeated by its sender.
+     * @param type      byte
+     * @param roverId   byte
+     * @param first     int
+     * @param second    int
+     * @param third     int
+     * @return          boolean false if the ring was full
+     */
+    public boolean publish(byte type, byte roverId, int first, int second, int third) {
+        long position = this.tail.get();
+        if (position - this.head.get() == CAPACITY) {
+            this.pendingRanges = 0;
+            this.dropped++;
+            return false;
+        }
+        int slot = (int) (position & (CAPACITY - 1));
+        this.types[slot] = type;
+        this.roverIds[slot] = roverId;
+        this.firsts[slot] = first;
+        this.seconds[slot] = second;
+        this.thirds[slot] = third;
+        this.rangeCounts[slot] = this.pendingRanges;
+        this.rangePositions[slot] = this.rangeTail;
+        this.rangeTail += 2L * this.pendingRanges;
+        this.pendingRanges = 0;
+        this.tail.set(position + 1); // volatile write, so the read of the parked consumer in wake cannot move ahead of it
+        this.wake();
+        return true;
+    }
+
+    /**
+     * Method to raise signal bits, such as an expired timer, and wake the consumer if it is parked
+     * @param bits  int
+     */
+    public void signal(int bits) {
+        this.signals.getAndUpdate(current -> current | bits);
+        this.wake();
+    }
+
+    /**
+     * Method to unpark the consumer if it is parked
+     */
+    private void wake() {
+        Thread parked = this.consumer;
+        if (parked != null) LockSupport.unpark(parked);
+    }
+
+    /**
+     * Method to collect the signal bits raised since the last call. Called by the consumer.
+     * @return  int
+     */
+    public int takeSignals() {
+        return (this.signals.get() == 0) ? 0 : this.signals.getAndSet(0);
+    }
+
+    /**
+     * Method to position the consumer on the next event. The previous event must have been released.
+     * @return  boolean false if there is none
+     */
+    public boolean poll() {
+        this.position = this.head.get();
+        return this.position != this.tail.get();
+    }
+
+    /**
+     * Method to hand the slot of the current event and its ranges back to the producer
+     */
+    public void release() {
+        int slot = (int) (this.position & (CAPACITY - 1));
+        this.rangeHead.lazySet(this.rangePositions[slot] + 2L * this.rangeCounts[slot]);
+        this.head.lazySet(this.position + 1);
+    }
+
+    /**
+     * Method to park the consumer until an event is published, a signal is raised or the deadline passes.
+     * The consumer announces itself before it checks the ring one last time, so an event published in between
+     * either is seen by that check or unparks it.
+     * @param deadline  long System.nanoTime() to wake up at, 0 for none
+     */
+    public void await(long deadline) {
+        this.consumer = Thread.currentThread();
+        if (this.head.get() == this.tail.get() && this.signals.get() == 0) {
+            if (deadline == 0) {
+                LockSupport.park(this);
+            } else {
+                LockSupport.parkNanos(this, deadline - System.nanoTime());
+            }
+        }
+        this.consumer = null;
+    }
+
+    /**
+     * Getter for the type of the current event
+     * @return  byte
+     */
+    public byte getType() {
+        return this.types[(int) (this.position & (CAPACITY - 1))];
+    }
+
+    /**
+     * Getter for the rover the current event came from
+     * @return  byte
+     */
+    public byte getRoverId() {
+        return this.roverIds[(int) (this.position & (CAPACITY - 1))];
+    }
+
+    /**
+     * Getter for the first field of the current event
+     * @return  int
+     */
+    public int getFirst() {
+        return this.firsts[(int) (this.position & (CAPACITY - 1))];
+    }
+
+    /**
+     * Getter for the second field of the current event
+     * @return  int
+     */
+    public int getSecond() {
+        return this.seconds[(int) (this.position & (CAPACITY - 1))];
+    }
+
+    /**
+     * Getter for the third field of the current event
+     * @return  int
+     */
+    public int getThird() {
+        return this.thirds[(int) (this.position & (CAPACITY - 1))];
+    }
+
+    /**
+     * Getter for the number of ranges of the current event
+     * @return  int
+     */
+    public int getRangeCount() {
+        return this.rangeCounts[(int) (this.position & (CAPACITY - 1))];
+    }
+
+    /**
+     * Getter for the start of a range of the current event
+     * @param index int
+     * @return      int
+     */
+    public int getRangeStart(int index) {
+        return this.ranges[this.rangeIndex(index)];
+    }
+
+    /**
+     * Getter for the length of a range of the current event
+     * @param index int
+     * @return      int
+     */
+    public int getRangeLength(int index) {
+        return this.ranges[this.rangeIndex(index) + 1];
+    }
+
+    /**
+     * Method to find a range of the current event in the range ring
+     * @param index int
+     * @return      int
+     */
+    private int rangeIndex(int index) {
+        return (int) ((this.rangePositions[(int) (this.position & (CAPACITY - 1))] + 2L * index) & (RANGE_CAPACITY - 1));
+    }
+
+    /**
+     * Getter for the number of events dropped because the ring was full
+     * @return  long
+     */
+    public long getDropped() {
+        return this.dropped;
+    }
+}
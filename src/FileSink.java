@@ -0,0 +1,253 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Receive sink that writes every segment to its offset in the output file. The segment is handed to the disk
+ * stage (WriteBehind) and reaches the file shortly after it arrives; until then reads of its bytes are served
+ * from the queued buffer, so no reader sees a segment it wrote missing from the file. Reading back, like
+ * writing, is done by tasks of the disk stage, which queue behind the writes of the bytes they read.
+ * The file is preallocated to the size announced by the sender and trimmed to it when the transfer ends,
+ * so the padding of the last segment never reaches the disk.
+ */
+public class FileSink implements AutoCloseable {
+    // Class fields
+    private RandomAccessFile file; // output file
+    private FileChannel channel; // channel used for positional writes
+    private long length; // announced length of the file in bytes
+    private int segmentSize; // bytes of the file carried by every segment but the last
+    private WriteBehind writeBehind = WriteBehind.fetchInstance(); // disk stage, null when segments are written on the event loop
+    private WriteBehind.Entry[] pending; // queued writes that have not reached the file, indexed by sequence
+    private int pendingCount = 0; // queued writes that have not reached the file
+    private int blockWrites = 0; // writes since the file was last forced, disk stage only
+    private boolean durable = true; // cleared for scratch files that are never forced
+
+    /**
+     * Constructor for this class
+     * @param file          File
+     * @param length        long announced length of the file
+     * @param segmentSize   int bytes per segment
+     * @throws IOException
+     */
+    public FileSink(File file, long length, int segmentSize) throws IOException {
+        this.file = new RandomAccessFile(file, "rw");
+        this.channel = this.file.getChannel();
+        this.length = length;
+        this.segmentSize = segmentSize;
+        this.pending = new WriteBehind.Entry[Math.max(1, WriteBehind.POOL_SIZE)];
+        this.file.setLength(length);
+        if (this.writeBehind != null) this.writeBehind.attach();
+    }
+
+    /**
+     * Getter for the announced length
+     * @return  long
+     */
+    public long length() {
+        return this.length;
+    }
+
+    /**
+     * Setter for the durability of the file: a scratch file, such as the spool of a compressed session, is
+     * never forced to the disk
+     * @param durable   boolean
+     */
+    public void setDurable(boolean durable) {
+        this.durable = durable;
+    }
+
+    /**
+     * Method to write the payload of a segment at its offset in the file. The payload is copied into a buffer of
+     * the disk stage and written from there. When the stage has no buffer or queue slot left, or the slot of the
+     * sequence is still taken by an older write, the segment is refused instead of written on the event loop:
+     * the caller drops it and it is repaired like a lost one, while the shrunken receive window slows the sender.
+     * Without a disk stage the segment is written right away.
+     * @param seq       int sequence number, starting at 1
+     * @param payload   ByteBuffer whose remaining bytes are the segment payload
+     * @return          boolean false when the segment was refused
+     * @throws IOException
+     */
+    public boolean write(int seq, ByteBuffer payload) throws IOException {
+        long position = (long) (seq - 1) * this.segmentSize;
+        if (position >= this.length) return true;
+        int size = (int) Math.min(payload.remaining(), this.length - position);
+        payload.limit(payload.position() + size);
+        if (this.writeBehind == null) {
+            this.writeNow(seq, payload);
+            return true;
+        }
+        synchronized(this) {
+            int slot = seq % this.pending.length;
+            if (this.pending[slot] != null) return false;
+            this.pending[slot] = this.writeBehind.write(this, seq, payload);
+            if (this.pending[slot] == null) return false;
+            this.pendingCount++;
+            return true;
+        }
+    }
+
+    /**
+     * Method to write the payload of a segment at its offset in the file on the calling thread: the disk stage
+     * for the segments it rebuilds, or the event loop when there is no disk stage
+     * @param seq       int sequence number, starting at 1
+     * @param payload   ByteBuffer whose remaining bytes are the segment payload, consumed
+     * @throws IOException
+     */
+    public void writeNow(int seq, ByteBuffer payload) throws IOException {
+        long position = (long) (seq - 1) * this.segmentSize;
+        if (position >= this.length) return;
+        payload.limit(payload.position() + (int) Math.min(payload.remaining(), this.length - position));
+        while (payload.hasRemaining()) {
+            position += this.channel.write(payload, position);
+        }
+    }
+
+    /**
+     * Method to write a queued segment to the file. Called by the disk stage, which forces the file after every
+     * block of segments in the block durability mode.
+     * @param entry WriteBehind.Entry
+     * @throws IOException
+     */
+    public void complete(WriteBehind.Entry entry) throws IOException {
+        int seq = WriteBehind.seqOf(entry);
+        ByteBuffer payload = WriteBehind.payloadOf(entry);
+        long position = (long) (seq - 1) * this.segmentSize;
+        try {
+            while (payload.hasRemaining()) {
+                position += this.channel.write(payload, position);
+            }
+        } finally {
+            synchronized(this) {
+                int slot = seq % this.pending.length;
+                if (this.pending[slot] == entry) {
+                    this.pending[slot] = null;
+                    this.pendingCount--;
+                }
+            }
+        }
+        if (WriteBehind.BLOCK.equals(WriteBehind.DURABILITY) && ++this.blockWrites >= Receiver.BUFFER_SIZE) this.forceIfDurable();
+    }
+
+    /**
+     * Method to read back the payload of a segment that has already been written, so that lost segments of its
+     * block can be rebuilt. Bytes past the end of the file are left as they are in the target.
+     * @param seq       int sequence number, starting at 1
+     * @param target    ByteBuffer with room for one segment
+     * @throws IOException
+     */
+    public void read(int seq, ByteBuffer target) throws IOException {
+        this.read((long) (seq - 1) * this.segmentSize, target);
+    }
+
+    /**
+     * Method to read back bytes that have already been written, starting at any position in the file. Segments
+     * still queued for the disk are copied over what the file holds; the monitor is held meanwhile, so none of
+     * them can leave the queue between the read of the file and the copy.
+     * @param position  long
+     * @param target    ByteBuffer filled up to its limit or the end of the file
+     * @throws IOException
+     */
+    public void read(long position, ByteBuffer target) throws IOException {
+        if (this.pendingCount == 0) { // the reads of the disk stage come after every write queued for their bytes
+            this.readFile(position, target);
+            return;
+        }
+        synchronized(this) {
+            int start = target.position();
+            this.readFile(position, target);
+            long end = position + (target.position() - start);
+            for (long seq = position / this.segmentSize + 1; (seq - 1) * this.segmentSize < end; seq++) {
+                WriteBehind.Entry entry = this.pending[(int) (seq % this.pending.length)];
+                if (entry == null || WriteBehind.seqOf(entry) != seq) continue;
+                long segmentStart = (seq - 1) * this.segmentSize;
+                long from = Math.max(segmentStart, position);
+                long to = Math.min(segmentStart + this.segmentSize, end);
+                WriteBehind.copy(entry, (int) (from - segmentStart), target, start + (int) (from - position), (int) (to - from));
+            }
+        }
+    }
+
+    /**
+     * Method to read bytes from the file itself
+     * @param position  long
+     * @param target    ByteBuffer filled up to its limit or the end of the file
+     * @throws IOException
+     */
+    private void readFile(long position, ByteBuffer target) throws IOException {
+        while (target.hasRemaining() && position < this.length) {
+            int read = this.channel.read(target, position);
+            if (read < 0) break;
+            position += read;
+        }
+    }
+
+    /**
+     * Method to force everything written so far to the disk, so that a checkpoint never claims a segment the
+     * disk does not hold. Called on the disk stage, behind every queued write.
+     * @throws IOException
+     */
+    public void force() throws IOException {
+        this.channel.force(false);
+        this.blockWrites = 0;
+    }
+
+    /**
+     * Method to force the file to the disk unless it is a scratch file
+     * @throws IOException
+     */
+    public void forceIfDurable() throws IOException {
+        if (this.durable) this.force();
+    }
+
+    /**
+     * Method to run a task on the disk stage once every write queued before it has reached the file, or right
+     * away when there is no disk stage
+     * @param task  WriteBehind.Task
+     * @throws IOException
+     */
+    public void execute(WriteBehind.Task task) throws IOException {
+        if (this.writeBehind == null) {
+            task.run();
+        } else {
+            this.writeBehind.execute(this, task, false);
+        }
+    }
+
+    /**
+     * Method to trim the file to the announced length and close it once every queued write has reached it.
+     * In the block mode the file is forced first, in the fin mode it is forced with the other files closed
+     * around the same time (group commit), in the none mode it is not forced.
+     * @param onClosed  Runnable called on the disk stage once the file is closed, may be null
+     * @throws IOException
+     */
+    public void close(Runnable onClosed) throws IOException {
+        WriteBehind.Task task = () -> {
+            try {
+                if (this.writeBehind == null ? !WriteBehind.NONE.equals(WriteBehind.DURABILITY) : WriteBehind.BLOCK.equals(WriteBehind.DURABILITY)) {
+                    this.forceIfDurable();
+                }
+                this.channel.truncate(this.length);
+                this.file.close();
+            } finally {
+                if (onClosed != null) onClosed.run();
+            }
+        };
+        if (this.writeBehind == null) {
+            task.run();
+        } else {
+            this.writeBehind.detach();
+            this.writeBehind.execute(this, task, true);
+        }
+    }
+
+    /**
+     * Method to trim the file to the announced length and close it once every queued write has reached it
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        this.close(null);
+    }
+}
@@ -0,0 +1,124 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of latencies in microseconds, laid out like an HDR histogram: values below SUB_BUCKETS
+ * have a bucket each, and every power of two above that is split into SUB_BUCKETS linear buckets, so every value
+ * is kept within 1/SUB_BUCKETS (about 3%) of its magnitude from a microsecond up to MAXIMUM_MICROS. Recording a
+ * value is one shift to find the bucket and one atomic increment, so the sessions and the event loop record
+ * into the same histogram without a lock; readers copy the buckets and may miss the values recorded meanwhile.
+ */
+public class LatencyHistogram {
+    public static final int SUB_BUCKET_BITS = 5; // linear buckets per power of two, as a power of two
+    public static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    public static final int MAXIMUM_MAGNITUDE = 36; // highest power of two recorded, about 19 hours in microseconds
+    public static final long MAXIMUM_MICROS = (1L << (MAXIMUM_MAGNITUDE + 1)) - 1; // larger values are recorded as this one
+    public static final int BUCKETS = (MAXIMUM_MAGNITUDE - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+    // Class fields
+    private AtomicLongArray counts = new AtomicLongArray(BUCKETS); // values recorded in every bucket
+    private AtomicLong count = new AtomicLong(); // values recorded
+    private AtomicLong total = new AtomicLong(); // sum of the values recorded, in microseconds
+    private AtomicLong maximum = new AtomicLong(); // largest value recorded, in microseconds
+
+    /**
+     * Method to record a latency
+     * @param nanos long, ignored when not positive
+     */
+    public void record(long nanos) {
+        if (nanos <= 0) return;
+        long micros = Math.min(MAXIMUM_MICROS, Math.max(1, nanos / 1_000));
+        this.counts.incrementAndGet(bucketOf(micros));
+        this.count.incrementAndGet();
+        this.total.addAndGet(micros);
+        if (micros > this.maximum.get()) this.maximum.accumulateAndGet(micros, Math::max);
+    }
+
+    /**
+     * Method to find the bucket of a value
+     * @param micros    long between 1 and MAXIMUM_MICROS
+     * @return          int
+     */
+    public static int bucketOf(long micros) {
+        if (micros < SUB_BUCKETS) return (int) micros;
+        int shift = 63 - Long.numberOfLeadingZeros(micros) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) (micros >>> shift) - SUB_BUCKETS;
+    }
+
+    /**
+     * Method to find the largest value a bucket holds
+     * @param bucket    int
+     * @return          long microseconds
+     */
+    public static long highestValueOf(int bucket) {
+        if (bucket < SUB_BUCKETS) return bucket;
+        int shift = bucket / SUB_BUCKETS - 1;
+        return (((long) (bucket % SUB_BUCKETS + SUB_BUCKETS) + 1) << shift) - 1;
+    }
+
+    /**
+     * Getter for the number of values recorded
+     * @return  long
+     */
+    public long getCount() {
+        return this.count.get();
+    }
+
+    /**
+     * Getter for the mean of the values recorded
+     * @return  long microseconds, 0 when none has been recorded
+     */
+    public long getMean() {
+        long count = this.count.get();
+        return (count == 0) ? 0 : this.total.get() / count;
+    }
+
+    /**
+     * Getter for the largest value recorded
+     * @return  long microseconds
+     */
+    public long getMaximum() {
+        return this.maximum.get();
+    }
+
+    /**
+     * Method to find the value below which the given share of the recorded values lie
+     * @param percentile    double between 0 and 100
+     * @return              long microseconds, the highest value of its bucket; 0 when none has been recorded
+     */
+    public long getPercentile(double percentile) {
+        return percentileOf(this.copyCounts(), percentile);
+    }
+
+    /**
+     * Method to copy the bucket counts, for a snapshot
+     * @return  long[]
+     */
+    public long[] copyCounts() {
+        long[] copy = new long[BUCKETS];
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            copy[bucket] = this.counts.get(bucket);
+        }
+        return copy;
+    }
+
+    /**
+     * Method to find a percentile in copied bucket counts
+     * @param counts        long[] bucket counts
+     * @param percentile    double between 0 and 100
+     * @return              long microseconds, 0 when the counts are empty
+     */
+    public static long percentileOf(long[] counts, double percentile) {
+        long count = 0;
+        for (long bucketCount : counts) {
+            count += bucketCount;
+        }
+        if (count == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(count * Math.min(100.0, Math.max(0.0, percentile)) / 100.0));
+        long seen = 0;
+        for (int bucket = 0; bucket < counts.length; bucket++) {
+            seen += counts[bucket];
+            if (seen >= rank) return highestValueOf(bucket);
+        }
+        return highestValueOf(counts.length - 1);
+    }
+}
@@ -16,10 +16,9 @@ public class Main {
         String role = args[4];
         String command = args[5];
         String filePath = null;
-        Rover.createInstance(currentRoverId, toRoverId, currentRoverPort, multicastIP, role, Byte.valueOf(command));
-        Rover rover = Rover.fetchInstance();
+        Rover rover = new Rover(currentRoverId, toRoverId, currentRoverPort, multicastIP, role, Byte.valueOf(command));
         System.out.println("Rover deployed on the lunar surface");
-        ThreadPoolManager.getThread().submit(rover);
+        ThreadPoolManager.executeIo(rover);
         System.out.println("Rover has been configured: \n" +
         "\t Object ID: " + rover + "\n" +
         "\t Rover ID: " + rover.getRoverId() + "\n" +
@@ -0,0 +1,238 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * File source for the Sender backed by read-only memory mappings of the file.
+ * The payload of a segment is a view into the mapping at offset (seq - 1) * segment size, so segments
+ * are never copied on the heap and retransmissions are served straight from the mapping.
+ * The file is mapped in regions of REGION_WINDOWS send windows, on demand, and a region is dropped as soon as
+ * every segment in it has been acknowledged. What the session keeps mapped therefore spans the unacknowledged
+ * window and the prefetch distance, whatever the size of the file. Java has no supported way to unmap a file,
+ * so a dropped region is unmapped when the GC collects its buffer; until then it only holds address space and
+ * clean page cache pages, which the operating system reclaims like any other.
+ * A prefetch task touches the pages of the mapping a few windows ahead of the segment being sent, so the page
+ * faults of a cold file are taken on its thread instead of the session's, and the disk is read while the
+ * network is busy. It parks when it is far enough ahead and the session unparks it as it catches up.
+ */
+public class MappedFileSource implements SegmentSource {
+    public static final int REGION_WINDOWS = 2; // send windows per mapping, so the unacknowledged window spans at most two of them
+    public static final int PREFETCH_SEGMENTS = Integer.getInteger("rdt.prefetch", 4 * RdtProtocol.WINDOW_SIZE); // segments loaded ahead of the one being sent, 0 to disable
+    public static final int PREFETCH_CHUNK = 64; // segments loaded at a time
+    // Class fields
+    private FileChannel channel; // channel of the file being sent
+    private AtomicReferenceArray<MappedByteBuffer> regions; // mappings of the regions in use, null until mapped and once released
+    private ByteBuffer[] views; // one reusable view per mapped region, positioned on the segment being sent; session thread only
+    private volatile int releasedRegions = 0; // regions below this one have been released
+    private int mappedRegions = 0; // regions mapped so far, session thread only
+    private long length; // length of the file in bytes
+    private int segmentSize; // bytes of the file carried by every segment but the last
+    private int segmentsPerRegion; // segments per mapping, so no segment straddles two mappings
+    private long regionSize; // bytes per mapping, a multiple of the segment size
+    private volatile int sentSeq = 0; // highest sequence the session has sent
+    private volatile int prefetchedSeq = 1; // next sequence the prefetch task loads
+    private volatile Thread prefetcher; // prefetch thread while it is parked, null while it runs
+    private volatile boolean stopped = false; // set when the prefetch task has to end
+
+    /**
+     * Constructor for this class
+     * @param file          File
+     * @param segmentSize   int bytes per segment
+     * @throws IOException
+     */
+    public MappedFileSource(File file, int segmentSize) throws IOException {
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        this.length = this.channel.size();
+        this.segmentSize = segmentSize;
+        this.segmentsPerRegion = Math.max(PREFETCH_CHUNK, REGION_WINDOWS * RdtProtocol.WINDOW_SIZE);
+        this.regionSize = (long) segmentSize * this.segmentsPerRegion;
+        int regionCount = (int) Math.max(1, (this.length + this.regionSize - 1) / this.regionSize);
+        this.regions = new AtomicReferenceArray<>(regionCount);
+        this.views = new ByteBuffer[regionCount];
+    }
+
+    /**
+     * Method to return the mapping of a region, mapping it if nobody has yet. The session and the prefetch
+     * task may race to map the same region; the first mapping published wins and the other is left to the GC.
+     * A region below releasedRegions is never published: a late reader gets a mapping of its own, and a mapping
+     * published while the session released its region is taken back, since release() raises releasedRegions
+     * before it clears the slot.
+     * @param index int
+     * @return      MappedByteBuffer
+     */
+    private MappedByteBuffer region(int index) {
+        MappedByteBuffer region = this.regions.get(index);
+        if (region != null) return region;
+        long position = index * this.regionSize;
+        long size = Math.min(this.regionSize, this.length - position);
+        try {
+            region = this.channel.map(FileChannel.MapMode.READ_ONLY, position, Math.max(0, size));
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to map region " + index + " of the file", e);
+        }
+        if (index < this.releasedRegions) return region;
+        if (!this.regions.compareAndSet(index, null, region)) {
+            MappedByteBuffer published = this.regions.get(index);
+            return (published == null) ? region : published;
+        }
+        if (index < this.releasedRegions) this.regions.compareAndSet(index, region, null);
+        return region;
+    }
+
+    /**
+     * Getter for the file length
+     * @return  long
+     */
+    public long length() {
+        return this.length;
+    }
+
+    /**
+     * Method to return the number of segments needed to carry the file
+     * @return  int
+     */
+    public int segmentCount() {
+        return (int) Math.max(1, (this.length + this.segmentSize - 1) / this.segmentSize);
+    }
+
+    /**
+     * Method to return the number of segments needed to carry the file, known from the start
+     * @param seq   int
+     * @return      int
+     */
+    public int reach(int seq) {
+        return this.segmentCount();
+    }
+
+    /**
+     * Method to return the payload of a segment as a view into the mapping.
+     * The view is reused, so it is only valid until the next call; no buffer is allocated per segment.
+     * @param seq   int sequence number, starting at 1
+     * @return      ByteBuffer with the segment bytes remaining; shorter than the segment size for the last segment
+     */
+    public ByteBuffer payload(int seq) {
+        long offset = (long) (seq - 1) * this.segmentSize;
+        int index = (int) (offset / this.regionSize);
+        ByteBuffer view = this.views[index];
+        if (view == null) {
+            view = this.region(index).duplicate();
+            if (index >= this.releasedRegions) this.views[index] = view;
+            this.mappedRegions++;
+        }
+        int start = (int) (offset % this.regionSize);
+        int size = (int) Math.min(this.segmentSize, this.length - offset);
+        view.limit(start + Math.max(0, size)).position(start);
+        return view;
+    }
+
+    /**
+     * Method to drop the regions whose segments all lie below the given sequence, once nothing reads them any
+     * more: the unmapping itself is left to the GC, which also frees the page tables. A segment of a dropped
+     * region that is asked for again is mapped again, so a late reader costs a mapping and not a crash.
+     * releasedRegions is raised before the slot is cleared, so the prefetch task sees it after publishing.
+     * @param seq   int first sequence still in use
+     */
+    public void release(int seq) {
+        int index = this.releasedRegions;
+        while ((long) (index + 1) * this.segmentsPerRegion < seq) {
+            this.releasedRegions = index + 1;
+            this.regions.set(index, null);
+            this.views[index] = null;
+            index++;
+        }
+    }
+
+    /**
+     * Getter for the number of regions mapped by the session so far, a region mapped again included
+     * @return  int
+     */
+    public int getMappedRegions() {
+        return this.mappedRegions;
+    }
+
+    /**
+     * Method to start loading the mapping ahead of the session on the session executor. Files shorter than
+     * one chunk are not worth a task.
+     */
+    public void startPrefetch() {
+        if (PREFETCH_SEGMENTS <= 0 || this.segmentCount() <= PREFETCH_CHUNK) return;
+        ThreadPoolManager.execute(this::prefetch);
+    }
+
+    /**
+     * Method to tell the prefetch task which segment is being sent, and wake it if it is parked and has room for
+     * another chunk. A volatile write followed by a volatile read, so a task that is about to park either sees
+     * the new sequence or is unparked.
+     * @param seq   int
+     */
+    public void advancePrefetch(int seq) {
+        if (seq <= this.sentSeq) return;
+        this.sentSeq = seq;
+        Thread parked = this.prefetcher;
+        if (parked != null && !this.isAhead()) LockSupport.unpark(parked);
+    }
+
+    /**
+     * Method to check if the prefetch task is far enough ahead of the session
+     * @return  boolean
+     */
+    private boolean isAhead() {
+        return this.prefetchedSeq + PREFETCH_CHUNK > this.sentSeq + PREFETCH_SEGMENTS;
+    }
+
+    /**
+     * Method to load the mapping chunk by chunk, never more than PREFETCH_SEGMENTS ahead of the session.
+     * A chunk never crosses from one mapping into the next, and released regions are not mapped again.
+     */
+    private void prefetch() {
+        int lastSeq = this.segmentCount();
+        while (!this.stopped && this.prefetchedSeq <= lastSeq) {
+            if (this.isAhead()) {
+                this.prefetcher = Thread.currentThread();
+                if (this.isAhead() && !this.stopped) LockSupport.park(this);
+                this.prefetcher = null;
+                continue;
+            }
+            int seq = Math.max(this.prefetchedSeq, this.sentSeq); // nothing behind the session is worth loading
+            int index = (seq - 1) % this.segmentsPerRegion;
+            int count = Math.min(PREFETCH_CHUNK, Math.min(this.segmentsPerRegion - index, lastSeq - seq + 1));
+            int regionIndex = (seq - 1) / this.segmentsPerRegion;
+            if (regionIndex >= this.releasedRegions) {
+                try {
+                    MappedByteBuffer region = this.region(regionIndex);
+                    int start = index * this.segmentSize;
+                    int size = Math.min(count * this.segmentSize, region.capacity() - start);
+                    if (size > 0) region.slice(start, size).load();
+                } catch (IllegalStateException e) { // the session closed the file under the task
+                    if (!this.stopped) e.printStackTrace();
+                    return;
+                }
+            }
+            this.prefetchedSeq = seq + count;
+        }
+    }
+
+    /**
+     * Method to end the prefetch task
+     */
+    public void stopPrefetch() {
+        this.stopped = true;
+        Thread parked = this.prefetcher;
+        if (parked != null) LockSupport.unpark(parked);
+    }
+
+    /**
+     * Method to end the prefetch task and close the underlying file channel
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        this.stopPrefetch();
+        this.channel.close();
+    }
+}
@@ -0,0 +1,91 @@
+/**
+ * Token bucket that spreads the datagrams of a SendSession evenly over time instead of sending a window of them
+ * back to back. Tokens are bytes; they accumulate at the pacing rate up to the burst, and a datagram may leave as
+ * soon as the bucket is not in debt, taking its size out of it. Letting the bucket run into debt charges a
+ * datagram larger than the tokens left (a repair segment behind its block) to the time after it instead of
+ * holding it back. A session waits for its tokens by parking until shortly before they are due and spinning
+ * for the rest, since a park overshoots by tens of microseconds, which is several datagrams at a gigabit.
+ */
+public class Pacer {
+    public static final long SPIN_NANOS = 20_000; // waits shorter than this spin instead of parking
+    public static final double SLOW_START_GAIN = 2.0; // pacing rate over cwnd / srtt while the window doubles every round trip
+    public static final double CONGESTION_AVOIDANCE_GAIN = 1.25; // pacing rate over cwnd / srtt once it grows by a segment per round trip
+    // Class fields
+    private long rate = 0; // bytes per second, 0 while the datagrams are not paced
+    private long burst; // bytes the bucket holds at most
+    private double tokens; // bytes that may be sent right away, negative while the bucket is in debt
+    private long refilledAt = System.nanoTime(); // time the tokens were last brought up to date
+
+    /**
+     * Constructor for this class
+     * @param burst long bytes that may leave back to back after an idle period
+     */
+    public Pacer(long burst) {
+        this.burst = burst;
+        this.tokens = burst;
+    }
+
+    /**
+     * Method to find the pacing rate the congestion controller allows: the congestion window spread over one
+     * smoothed round trip, with some headroom so that pacing never holds the window below what it may send
+     * @param congestionController  CongestionController
+     * @return                      long bytes per second, 0 while no round trip time is known
+     */
+    public static long rateFor(CongestionController congestionController) {
+        boolean slowStart = congestionController.getCongestionWindow() < congestionController.getSlowStartThreshold();
+        return (long) (congestionController.getPacingRate() * (slowStart ? SLOW_START_GAIN : CONGESTION_AVOIDANCE_GAIN));
+    }
+
+    /**
+     * Setter for the pacing rate
+     * @param rate  long bytes per second, 0 to stop pacing
+     */
+    public void setRate(long rate) {
+        this.refill(System.nanoTime());
+        this.rate = Math.max(0, rate);
+    }
+
+    /**
+     * Getter for the pacing rate
+     * @return  long bytes per second, 0 while the datagrams are not paced
+     */
+    public long getRate() {
+        return this.rate;
+    }
+
+    /**
+     * Getter for the burst
+     * @return  long bytes
+     */
+    public long getBurst() {
+        return this.burst;
+    }
+
+    /**
+     * Method to find how long the next datagram has to wait for its tokens
+     * @return  long nanoseconds, 0 if it may leave now
+     */
+    public long delay() {
+        if (this.rate == 0) return 0;
+        this.refill(System.nanoTime());
+        return (this.tokens >= 0) ? 0 : (long) Math.ceil(-this.tokens * 1_000_000_000L / this.rate);
+    }
+
+    /**
+     * Method to take the tokens of a datagram that has been sent
+     * @param bytes long size of the datagram
+     */
+    public void consume(long bytes) {
+        if (this.rate == 0) return;
+        this.tokens -= bytes;
+    }
+
+    /**
+     * Method to add the tokens earned since the last refill, up to the burst
+     * @param now   long System.nanoTime()
+     */
+    private void refill(long now) {
+        this.tokens = (this.rate == 0) ? this.burst : Math.min(this.burst, this.tokens + (double) (now - this.refilledAt) * this.rate / 1_000_000_000L);
+        this.refilledAt = now;
+    }
+}
@@ -0,0 +1,95 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * What a rover remembers about the peers it exchanges segments with: the round trip time estimator of the peer
+ * and the session parameters both sides agreed on last. The cache is bounded and forgets the least recently used
+ * peer first. Parameters that are fresh let the next session to the peer send data in its first flight (0-RTT).
+ */
+public class PeerCache {
+    public static final int MAXIMUM_PEERS = Integer.getInteger("rdt.peers", 32); // peers remembered
+    public static final long MAXIMUM_AGE_NANOS = 600_000_000_000L; // negotiated parameters older than this are negotiated again
+    private static final Map<Byte, PeerCache> peers = new LinkedHashMap<Byte, PeerCache>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Byte, PeerCache> eldest) {
+            return this.size() > MAXIMUM_PEERS;
+        }
+    }; // entries in access order, indexed by peer rover ID
+    // Class fields
+    private RttEstimator rttEstimator = new RttEstimator(); // round trip time estimate of the peer
+    private int segmentSize = 0; // negotiated segment size, 0 while nothing has been negotiated
+    private int window = 0; // negotiated window in segments
+    private int features = 0; // negotiated optional features
+    private long negotiatedAt = 0; // time of the last negotiation
+
+    /**
+     * Method to return the entry of a peer rover, creating it on first use
+     * @param roverId   byte
+     * @return          PeerCache
+     */
+    public static PeerCache forPeer(byte roverId) {
+        synchronized(peers) {
+            return peers.computeIfAbsent(roverId, id -> new PeerCache());
+        }
+    }
+
+    /**
+     * Getter for the round trip time estimator of the peer
+     * @return  RttEstimator
+     */
+    public RttEstimator getRttEstimator() {
+        return this.rttEstimator;
+    }
+
+    /**
+     * Method to remember the parameters of a session both sides agreed on
+     * @param segmentSize   int
+     * @param window        int
+     * @param features      int
+     */
+    public synchronized void onNegotiated(int segmentSize, int window, int features) {
+        this.segmentSize = segmentSize;
+        this.window = window;
+        this.features = features;
+        this.negotiatedAt = System.nanoTime();
+    }
+
+    /**
+     * Method to forget the negotiated parameters, when the peer no longer accepts them
+     */
+    public synchronized void forget() {
+        this.segmentSize = 0;
+    }
+
+    /**
+     * Method to check if the negotiated parameters are recent enough to start a session without waiting for the peer
+     * @return  boolean
+     */
+    public synchronized boolean isFresh() {
+        return this.segmentSize != 0 && System.nanoTime() - this.negotiatedAt < MAXIMUM_AGE_NANOS;
+    }
+
+    /**
+     * Getter for the negotiated segment size
+     * @return  int
+     */
+    public synchronized int getSegmentSize() {
+        return this.segmentSize;
+    }
+
+    /**
+     * Getter for the negotiated window
+     * @return  int
+     */
+    public synchronized int getWindow() {
+        return this.window;
+    }
+
+    /**
+     * Getter for the negotiated features
+     * @return  int
+     */
+    public synchronized int getFeatures() {
+        return this.features;
+    }
+}
@@ -1,92 +1,271 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32C;
+
 /**
  * This is the class that outlines the custom reliable data transfer protocol which sits on top of UDP.
+ * An instance is a flyweight over a segment buffer: every header field is read and written in place with
+ * absolute gets and puts, so one instance can encode or decode any number of segments without allocating.
+ * Every datagram carries a CRC32C of its header and data, so a corrupted segment is dropped like a lost one.
  * @author Vinod Dalavai - vd1605
  */
 public class RdtProtocol {
     // Static variables for this class
     // public static final int BUFFER_LENGTH             = 100;
-    public static final int DATAGRAM_LENGTH           = 1_024 * 2;
-    public static final int SEQ_END_POSITION          = 3;
-    public static final int ACK_FLAG_POSITION         = 6;
-    public static final int NAK_FLAG_POSITION         = 7;
-    public static final int FIN_FLAG_POSITION         = 8;
-    public static final int FIXED_HEADER_SIZE         = 14;
-    public static final int SEQ_START_POSITION        = 0;
-    public static final int SOURCE_ID_POSITION        = 4;
-    public static final int COMMAND_FLAG_POSITION     = 9;
-    public static final int DESTINATION_ID_POSITION   = 5;
-    public static final int ACK_NUMBER_END_POSITION   = 13;
-    public static final int ACK_NUMBER_START_POSITION = 10;
+    public static final int WINDOW_SIZE               = Math.max(1, Math.min(Integer.getInteger("rdt.window", 128), 0xFFFF)); // segments in flight at most, carried in 2-byte window fields
+    public static final int VERSION                   = 2; // wire format version carried in the first byte
+    public static final byte ACK_FLAG                 = 0x01;
+    public static final byte NAK_FLAG                 = 0x02;
+    public static final byte FIN_FLAG                 = 0x04;
+    public static final byte REPAIR_FLAG              = 0x08;
+    public static final byte PROBE_FLAG               = 0x10;
+    public static final byte COMPRESSED_FLAG          = 0x20;
+    public static final byte CHECKSUM_FLAG            = 0x40; // the CHECKSUM field holds a CRC32C to verify
+    public static final byte OPEN_FLAG                = (byte) 0x80; // opens a session with its parameters, answered with ACK set too
+    public static final int VERSION_POSITION          = 0;
+    public static final int FLAGS_POSITION            = 1;
+    public static final int SEQ_END_POSITION          = 5;
+    public static final int FIXED_HEADER_SIZE         = 32;
+    public static final int SEQ_START_POSITION        = 2;
+    public static final int SOURCE_ID_POSITION        = 6;
+    public static final int COMMAND_FLAG_POSITION     = 8;
+    public static final int DESTINATION_ID_POSITION   = 7;
+    public static final int LENGTH_END_POSITION       = 10;
+    public static final int LENGTH_START_POSITION     = 9;
+    public static final int ACK_NUMBER_END_POSITION   = 14;
+    public static final int ACK_NUMBER_START_POSITION = 11;
+    public static final int TIMESTAMP_END_POSITION    = 18;
+    public static final int TIMESTAMP_START_POSITION  = 15;
+    public static final int SESSION_ID_END_POSITION   = 22;
+    public static final int SESSION_ID_START_POSITION = 19;
+    public static final int SEGMENT_SIZE_END_POSITION = 24;
+    public static final int SEGMENT_SIZE_START_POSITION = 23;
+    public static final int WINDOW_END_POSITION       = 26;
+    public static final int WINDOW_START_POSITION     = 25;
+    public static final int RESERVED_POSITION         = 27; // always 0, keeps the checksum and the data 4-byte aligned
+    public static final int CHECKSUM_END_POSITION     = 31;
+    public static final int CHECKSUM_START_POSITION   = 28;
+    public static final String DIGEST_ALGORITHM       = "SHA-256"; // whole-file digest carried by the FIN
+    public static final int DIGEST_SIZE               = 32;
+    public static final int REPAIR_HEADER_SIZE        = 4; // code type, k, m and repair index in front of the parity of a repair segment
+    public static final int IP_UDP_HEADER_SIZE        = 28; // IPv4 and UDP headers in front of every datagram
+    public static final int MINIMUM_MTU               = 576; // smallest MTU every IPv4 path carries
+    public static final int ETHERNET_MTU              = 1_500;
+    public static final int JUMBO_MTU                 = 9_000; // largest MTU a segment size is chosen for
+    public static final int MINIMUM_SEGMENT_SIZE      = segmentSizeFor(MINIMUM_MTU);
+    public static final int DEFAULT_SEGMENT_SIZE      = segmentSizeFor(ETHERNET_MTU); // segment size when none has been discovered
+    public static final int DATAGRAM_LENGTH           = segmentSizeFor(JUMBO_MTU); // largest segment size, the data portion every buffer has room for
+    public static final int SACK_RANGE_SIZE           = 4; // bytes per hole range of a selective acknowledgement
+    public static final int MAXIMUM_SACK_RANGES       = DEFAULT_SEGMENT_SIZE / SACK_RANGE_SIZE; // keeps a selective acknowledgement inside an Ethernet frame
+    public static final int OPEN_PARAMETERS_SIZE      = 4; // window, features and extension length in front of the data of an OPEN and its answer
+    public static final int MAXIMUM_EXTENSION_LENGTH  = 16; // bytes of the file extension an OPEN carries
+    public static final int FEATURE_COMPRESSION       = 0x01; // the session carries a block compressed wire image
+    public static final int FEATURE_FEC               = 0x02; // blocks are followed by repair segments
+    public static final int FEATURE_CHECKSUM          = 0x04; // data and repair segments carry a CRC32C
+    public static final int SUPPORTED_FEATURES        = FEATURE_COMPRESSION | FEATURE_FEC | FEATURE_CHECKSUM;
+    public static final int RESUME_RANGE_SIZE         = 8; // bytes per missing range of an OPEN answer
+    public static final int MAXIMUM_RESUME_RANGES     = (DEFAULT_SEGMENT_SIZE - OPEN_PARAMETERS_SIZE) / RESUME_RANGE_SIZE; // keeps an OPEN answer inside an Ethernet frame
+    public static final int MAXIMUM_SEGMENT_SIZE      = FIXED_HEADER_SIZE + REPAIR_HEADER_SIZE + DATAGRAM_LENGTH;
+    public static final long MAXIMUM_FILE_LENGTH      = 0xFFFF_FFFFL; // largest length the 4-byte ACK_NUMBER field announces, read as unsigned
+    private static final byte FALSE                   = (byte) 0;
     // Declare class fields
-    private int seq; // Sequence number
-    private byte sourceRoverId; // ID of the rover sending the data
-    private byte destinationRoverId; // ID of the rover receiving the data
-    private byte commandFlag = 0; // Value of the command flag
-    private boolean ack = false; // Acknowledgement flag
-    private boolean nak = false; // Negative acknowledgement flag
-    private boolean fin = false; // Finish flag
-    private int acknowledgementNumber = 0; // Acknowledgement or Negative acknowledgement based on the respective boolean flags
-    private String checksum; // Checksum value of the current segment
-    private byte[] byteSequence = new byte[DATAGRAM_LENGTH + FIXED_HEADER_SIZE];  // byte sequence that will be passed to the application at the listening port
-    public byte[] inputData; // Data to be added to the RDT body
+    private ByteBuffer buffer; // segment the header fields are read from and written to, header at index 0
+    private CRC32C crc32c = new CRC32C(); // checksum of the segments encoded or decoded by this instance
     private String data; // string data to be sent
 
     /**
-     * Constructor for Rdt Protocol
-     * @param byteData  byte[]
+     * Constructor for Rdt Protocol that allocates a segment of its own
+     * @param byteData              byte[] data to be added to the RDT body, may be null
+     * @param sourceRoverId         byte
+     * @param destinationRoverId    byte
      */
     public RdtProtocol(byte[] byteData, byte sourceRoverId, byte destinationRoverId) {
-        this.inputData = byteData;
-        this.sourceRoverId= sourceRoverId;
-        this.destinationRoverId = destinationRoverId;
+        this(ByteBuffer.allocate(MAXIMUM_SEGMENT_SIZE));
+        this.reset(sourceRoverId, destinationRoverId);
+        if (byteData != null) this.setPayload(byteData);
+    }
+
+    /**
+     * Constructor for a flyweight over an existing segment buffer
+     * @param buffer    ByteBuffer with the header at index 0
+     */
+    public RdtProtocol(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * Method to find the segment size whose datagrams, repair segments included, fit in one frame of a given MTU
+     * @param mtu   int maximum transmission unit of the path
+     * @return      int bytes of file data per segment
+     */
+    public static int segmentSizeFor(int mtu) {
+        return mtu - IP_UDP_HEADER_SIZE - FIXED_HEADER_SIZE - REPAIR_HEADER_SIZE;
+    }
+
+    /**
+     * Method to create the digest a sender computes over a file and a receiver over what it wrote
+     * @return  MessageDigest
+     */
+    public static MessageDigest fileDigest() {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(DIGEST_ALGORITHM + " is missing from this JVM", e);
+        }
+    }
+
+    /**
+     * Method to clear the header, stamp the version and address it, so the segment buffer can be reused for a new segment
+     * @param sourceRoverId         byte
+     * @param destinationRoverId    byte
+     */
+    public void reset(byte sourceRoverId, byte destinationRoverId) {
+        this.buffer.clear();
+        for (int index = 0; index < FIXED_HEADER_SIZE; index++) {
+            this.buffer.put(index, FALSE);
+        }
+        this.buffer.put(VERSION_POSITION, (byte) VERSION);
+        this.buffer.put(SOURCE_ID_POSITION, sourceRoverId);
+        this.buffer.put(DESTINATION_ID_POSITION, destinationRoverId);
+    }
+
+    /**
+     * Method to check that a received datagram is complete and written in this version of the wire format
+     * @param received  int number of bytes in the datagram
+     * @return          boolean
+     */
+    public boolean isValid(int received) {
+        return received >= FIXED_HEADER_SIZE
+            && this.getVersion() == VERSION
+            && FIXED_HEADER_SIZE + this.getLength() <= received;
+    }
+
+    /**
+     * Getter method for the wire format version
+     * @return  int
+     */
+    public int getVersion() {
+        return this.buffer.get(VERSION_POSITION) & 0xff;
+    }
+
+    /**
+     * Method to check if a flag is set
+     * @param flag  byte
+     * @return      boolean
+     */
+    private boolean getFlag(byte flag) {
+        return (this.buffer.get(FLAGS_POSITION) & flag) != 0;
+    }
+
+    /**
+     * Method to set or clear a flag
+     * @param flag  byte
+     * @param value boolean
+     */
+    private void setFlag(byte flag, boolean value) {
+        byte flags = this.buffer.get(FLAGS_POSITION);
+        this.buffer.put(FLAGS_POSITION, (byte) ((value) ? (flags | flag) : (flags & ~flag)));
+    }
+
+    /**
+     * Getter method for the payload length
+     * @return  int bytes in the data portion
+     */
+    public int getLength() {
+        return this.buffer.getShort(LENGTH_START_POSITION) & 0xffff;
+    }
+
+    /**
+     * Setter method for the payload length
+     * @param length    int bytes in the data portion
+     */
+    public void setLength(int length) {
+        this.buffer.putShort(LENGTH_START_POSITION, (short) length);
+    }
+
+    /**
+     * Method to frame the segment for sending: the buffer is positioned at the header and limited to the end of the payload
+     * @return  ByteBuffer
+     */
+    public ByteBuffer frame() {
+        this.setFlag(CHECKSUM_FLAG, true);
+        this.setChecksum(this.frameChecksum());
+        this.buffer.limit(FIXED_HEADER_SIZE + this.getLength()).position(0);
+        return this.buffer;
     }
 
     /**
      * Getter method for Sequence number
-     * @return  long
+     * @return  int
      */
     public int getSeq() {
-        return this.seq;
+        return this.buffer.getInt(SEQ_START_POSITION);
     }
 
     /**
      * Setter method for Sequence number
-     * @param seq   long
+     * @param seq   int
      */
     public void setSeq(int seq) {
-        this.seq = seq;
+        this.buffer.putInt(SEQ_START_POSITION, seq);
+    }
+
+    /**
+     * Getter method for the source rover ID
+     * @return  byte
+     */
+    public byte getSourceRoverId() {
+        return this.buffer.get(SOURCE_ID_POSITION);
+    }
+
+    /**
+     * Getter method for the destination rover ID
+     * @return  byte
+     */
+    public byte getDestinationRoverId() {
+        return this.buffer.get(DESTINATION_ID_POSITION);
     }
 
     /**
-     * Getter method for Acknowledgement number
-     * @return  long
+     * Getter method for Acknowledgement flag
+     * @return  boolean
      */
     public boolean getAck() {
-        return this.ack;
+        return this.getFlag(ACK_FLAG);
     }
 
     /**
-     * Setter method for Acknowledgement number
-     * @param ack   long
+     * Setter method for Acknowledgement flag
+     * @param ack   boolean
      */
     public void setAck(boolean ack) {
-        this.ack = ack;
+        this.setFlag(ACK_FLAG, ack);
     }
 
     /**
-     * Getter method for Negative Acknowledgement number
-     * @return  long
+     * Getter method for Negative Acknowledgement flag
+     * @return  boolean
      */
     public boolean getNak() {
-        return this.nak;
+        return this.getFlag(NAK_FLAG);
     }
 
     /**
-     * Setter method for Negative Acknowledgement number
+     * Setter method for Negative Acknowledgement flag
      * @param nak
      */
     public void setNak(boolean nak) {
-        this.nak = nak;
+        this.setFlag(NAK_FLAG, nak);
+    }
+
+    /**
+     * Getter method for Finish message
+     * @return  boolean
+     */
+    public boolean getFin() {
+        return this.getFlag(FIN_FLAG);
     }
 
     /**
@@ -94,30 +273,179 @@ public class RdtProtocol {
      * @param fin
      */
     public void setFin(boolean fin) {
-        this.fin = fin;
+        this.setFlag(FIN_FLAG, fin);
+    }
+
+    /**
+     * Getter method for the repair flag, set on the forward error correction segments of a block
+     * @return  boolean
+     */
+    public boolean getRepair() {
+        return this.getFlag(REPAIR_FLAG);
     }
+
     /**
-     * Getter method for Checksum
-     * @return  String
+     * Setter method for the repair flag
+     * @param repair    boolean
+     */
+    public void setRepair(boolean repair) {
+        this.setFlag(REPAIR_FLAG, repair);
+    }
+
+    /**
+     * Getter method for the probe flag, set on the path MTU probes of a session and on their acknowledgements
+     * @return  boolean
+     */
+    public boolean getProbe() {
+        return this.getFlag(PROBE_FLAG);
+    }
+
+    /**
+     * Setter method for the probe flag
+     * @param probe boolean
+     */
+    public void setProbe(boolean probe) {
+        this.setFlag(PROBE_FLAG, probe);
+    }
+
+    /**
+     * Getter method for the open flag, set on an OPEN that opens a session with its parameters and asks the
+     * receiver which segments of the transfer are already on its disk. The answer also has the ACK flag set.
+     * @return  boolean
+     */
+    public boolean getOpen() {
+        return this.getFlag(OPEN_FLAG);
+    }
+
+    /**
+     * Setter method for an OPEN
+     * @param open  boolean
      */
-    public String getChecksum() {
-        return this.checksum;
+    public void setOpen(boolean open) {
+        this.setFlag(OPEN_FLAG, open);
     }
 
     /**
-     * Setter method for checksum
-     * @param checksum  String
+     * Getter method for the compressed flag, set on the data and repair segments of a session that carries the
+     * block compressed wire image of its file
+     * @return  boolean
      */
-    public void setChecksum(String checksum) {
-        this.checksum = checksum;
+    public boolean getCompressed() {
+        return this.getFlag(COMPRESSED_FLAG);
     }
 
     /**
-     * Getter method for the byte stream
+     * Setter method for the compressed flag
+     * @param compressed    boolean
+     */
+    public void setCompressed(boolean compressed) {
+        this.setFlag(COMPRESSED_FLAG, compressed);
+    }
+
+    /**
+     * Method to check if the segment carries a CRC32C, so that a checksum of any value, 0 included, is verified
+     * @return  boolean
+     */
+    public boolean isChecksummed() {
+        return this.getFlag(CHECKSUM_FLAG);
+    }
+
+    /**
+     * Method to mark a segment as sent without a CRC32C and clear its CHECKSUM field
+     */
+    public void unseal() {
+        this.setFlag(CHECKSUM_FLAG, false);
+        this.setChecksum(0);
+    }
+
+    /**
+     * Getter method for the CRC32C of the segment
+     * @return  int
+     */
+    public int getChecksum() {
+        return this.buffer.getInt(CHECKSUM_START_POSITION);
+    }
+
+    /**
+     * Setter method for the CRC32C of the segment
+     * @param checksum  int
+     */
+    public void setChecksum(int checksum) {
+        this.buffer.putInt(CHECKSUM_START_POSITION, checksum);
+    }
+
+    /**
+     * Method to stamp the CRC32C of a segment whose data portion is sent from other buffers in the same gathering write
+     * @param payloads  ByteBuffer... buffers whose remaining bytes follow the header, left as they are
+     */
+    public void seal(ByteBuffer... payloads) {
+        this.setFlag(CHECKSUM_FLAG, true);
+        this.crc32c.reset();
+        this.update(this.buffer, 0, CHECKSUM_START_POSITION);
+        for (ByteBuffer payload : payloads) {
+            this.update(payload, payload.position(), payload.limit());
+        }
+        this.setChecksum((int) this.crc32c.getValue());
+    }
+
+    /**
+     * Method to check the CRC32C of a received datagram, which has passed isValid
+     * @return  boolean
+     */
+    public boolean hasValidChecksum() {
+        return this.getChecksum() == this.frameChecksum();
+    }
+
+    /**
+     * Method to compute the CRC32C of the header and the data portion held in the segment buffer
+     * @return  int
+     */
+    private int frameChecksum() {
+        this.crc32c.reset();
+        this.update(this.buffer, 0, CHECKSUM_START_POSITION);
+        this.update(this.buffer, FIXED_HEADER_SIZE, FIXED_HEADER_SIZE + this.getLength());
+        return (int) this.crc32c.getValue();
+    }
+
+    /**
+     * Method to add a range of a buffer to the checksum without moving the position or limit of the buffer
+     * @param source    ByteBuffer
+     * @param from      int
+     * @param to        int
+     */
+    private void update(ByteBuffer source, int from, int to) {
+        int position = source.position();
+        int limit = source.limit();
+        source.limit(to).position(from);
+        this.crc32c.update(source);
+        source.limit(limit).position(position);
+    }
+
+    /**
+     * Method to copy bytes into the data portion of the segment and set the length to match
+     * @param payload   byte[]
+     */
+    public void setPayload(byte[] payload) {
+        this.buffer.put(FIXED_HEADER_SIZE, payload);
+        this.setLength(payload.length);
+    }
+
+    /**
+     * Method to copy the data portion of the segment out of the buffer
      * @return  byte[]
      */
-    public byte[] getByteStream() {
-        return byteSequence;
+    public byte[] getPayload() {
+        byte[] payload = new byte[this.getLength()];
+        this.buffer.get(FIXED_HEADER_SIZE, payload);
+        return payload;
+    }
+
+    /**
+     * Getter method for the segment buffer
+     * @return  ByteBuffer
+     */
+    public ByteBuffer getBuffer() {
+        return this.buffer;
     }
 
     /**
@@ -125,14 +453,79 @@ public class RdtProtocol {
      * @return  int
      */
     public int getAcknowledgementNumber() {
-        return this.acknowledgementNumber;
+        return this.buffer.getInt(ACK_NUMBER_START_POSITION);
     }
 
     /**
      * Setter for Acknowledgement numbers
      */
     public void setAcknowledgementNumber(int acknowledgementNumber) {
-        this.acknowledgementNumber = acknowledgementNumber;
+        this.buffer.putInt(ACK_NUMBER_START_POSITION, acknowledgementNumber);
+    }
+
+    /**
+     * Getter for timestamp
+     * @return  int
+     */
+    public int getTimestamp() {
+        return this.buffer.getInt(TIMESTAMP_START_POSITION);
+    }
+
+    /**
+     * Setter for timestamp
+     * @param timestamp int
+     */
+    public void setTimestamp(int timestamp) {
+        this.buffer.putInt(TIMESTAMP_START_POSITION, timestamp);
+    }
+
+    /**
+     * Getter for session ID
+     * @return  int
+     */
+    public int getSessionId() {
+        return this.buffer.getInt(SESSION_ID_START_POSITION);
+    }
+
+    /**
+     * Setter for session ID
+     * @param sessionId int
+     */
+    public void setSessionId(int sessionId) {
+        this.buffer.putInt(SESSION_ID_START_POSITION, sessionId);
+    }
+
+    /**
+     * Getter for the segment size of the session, the number of file bytes carried by every segment but the last
+     * @return  int
+     */
+    public int getSegmentSize() {
+        return this.buffer.getShort(SEGMENT_SIZE_START_POSITION) & 0xffff;
+    }
+
+    /**
+     * Setter for the segment size of the session
+     * @param segmentSize   int
+     */
+    public void setSegmentSize(int segmentSize) {
+        this.buffer.putShort(SEGMENT_SIZE_START_POSITION, (short) segmentSize);
+    }
+
+    /**
+     * Getter for the receive window an ACK or SACK advertises: segments past the cumulative acknowledgement the
+     * receiver can take
+     * @return  int
+     */
+    public int getReceiveWindow() {
+        return this.buffer.getShort(WINDOW_START_POSITION) & 0xffff;
+    }
+
+    /**
+     * Setter for the receive window an ACK or SACK advertises
+     * @param window    int
+     */
+    public void setReceiveWindow(int window) {
+        this.buffer.putShort(WINDOW_START_POSITION, (short) window);
     }
 
     /**
@@ -151,52 +544,141 @@ public class RdtProtocol {
         this.data = data;
     }
 
+    /**
+     * Getter for command flag
+     * @return  byte
+     */
+    public byte getCommandFlag() {
+        return this.buffer.get(COMMAND_FLAG_POSITION);
+    }
+
     /**
      * Method for setting command flag
      * @param value
      */
     public void setCommandFlag(byte value) {
-        this.commandFlag = value;
-    }
-
-    /**
-     * Method to prepare segment to be sent over the RDT
-     */
-    public void prepareSegment() {
-        int index = 0;
-        byteSequence[index++] = (byte) (this.seq >>> 24);
-        byteSequence[index++] = (byte) (this.seq >>> 16);
-        byteSequence[index++] = (byte) (this.seq >>> 8);
-        byteSequence[index++] = (byte) (this.seq >>> 0);
-        byteSequence[index++] = this.sourceRoverId;
-        byteSequence[index++] = this.destinationRoverId;
-        byteSequence[index++] = (this.ack) ? (byte)1 : (byte)0;
-        byteSequence[index++] = (this.nak) ? (byte)1 : (byte)0;
-        byteSequence[index++] = (this.fin) ? (byte)1 : (byte)0;
-        byteSequence[index++] = this.commandFlag;
-        byteSequence[index++] = (byte) (this.acknowledgementNumber >>> 24);
-        byteSequence[index++] = (byte) (this.acknowledgementNumber >>> 16);
-        byteSequence[index++] = (byte) (this.acknowledgementNumber >>> 8);
-        byteSequence[index++] = (byte) (this.acknowledgementNumber >>> 0);
-        if (this.inputData != null) {
-            for (int ind = 0; ind < this.inputData.length; ind++) {
-                byteSequence[index++] = this.inputData[ind];
-            }
-        }
+        this.buffer.put(COMMAND_FLAG_POSITION, value);
     }
 
     /**
-     * Method to extract the data portion of the protocol
-     * @param udpData
-     * @return
+     * Method to write a hole range of a selective acknowledgement into the data portion.
+     * Every range takes 4 bytes: the offset of its first missing sequence from the acknowledgement number and its length.
+     * @param index     int position of the range in the data portion
+     * @param offset    int first missing sequence minus the acknowledgement number
+     * @param length    int number of consecutive missing sequences
      */
-    public static byte[] extractData(byte[] udpData) {
-        byte[] dataBytes = new byte[udpData.length - FIXED_HEADER_SIZE];
-        int ind = SEQ_START_POSITION;
-        int startIndex = FIXED_HEADER_SIZE;
-        for (int index = startIndex; index < udpData.length; index++) {
-            dataBytes[ind++] = udpData[index];
-        }
-        return dataBytes;
+    public void setHoleRange(int index, int offset, int length) {
+        this.buffer.putShort(FIXED_HEADER_SIZE + index * SACK_RANGE_SIZE, (short) offset);
+        this.buffer.putShort(FIXED_HEADER_SIZE + index * SACK_RANGE_SIZE + 2, (short) length);
+    }
+
+    /**
+     * Getter for the number of hole ranges in a selective acknowledgement
+     * @return  int
+     */
+    public int getHoleRangeCount() {
+        return this.getLength() / SACK_RANGE_SIZE;
+    }
+
+    /**
+     * Getter for the offset of a hole range from the acknowledgement number
+     * @param index int position of the range in the data portion
+     * @return      int
+     */
+    public int getHoleOffset(int index) {
+        return this.buffer.getShort(FIXED_HEADER_SIZE + index * SACK_RANGE_SIZE) & 0xffff;
+    }
+
+    /**
+     * Getter for the number of missing sequences in a hole range
+     * @param index int position of the range in the data portion
+     * @return      int
+     */
+    public int getHoleLength(int index) {
+        return this.buffer.getShort(FIXED_HEADER_SIZE + index * SACK_RANGE_SIZE + 2) & 0xffff;
+    }
+
+    /**
+     * Setter for the session parameters at the start of the data portion of an OPEN or its answer: the window
+     * (2 bytes), the optional features (1 byte) and the file extension (1 length byte, then up to 16 bytes).
+     * The length is set to the end of the parameters.
+     * @param window    int segments
+     * @param features  int
+     * @param extension String, empty in an answer
+     */
+    public void setOpenParameters(int window, int features, String extension) {
+        byte[] bytes = extension.getBytes(StandardCharsets.US_ASCII);
+        int length = Math.min(bytes.length, MAXIMUM_EXTENSION_LENGTH);
+        this.buffer.putShort(FIXED_HEADER_SIZE, (short) window);
+        this.buffer.put(FIXED_HEADER_SIZE + 2, (byte) features);
+        this.buffer.put(FIXED_HEADER_SIZE + 3, (byte) length);
+        this.buffer.put(FIXED_HEADER_SIZE + OPEN_PARAMETERS_SIZE, bytes, 0, length);
+        this.setLength(OPEN_PARAMETERS_SIZE + length);
+    }
+
+    /**
+     * Getter for the window of an OPEN or its answer
+     * @return  int segments
+     */
+    public int getOpenWindow() {
+        return this.buffer.getShort(FIXED_HEADER_SIZE) & 0xffff;
+    }
+
+    /**
+     * Getter for the optional features of an OPEN or its answer
+     * @return  int
+     */
+    public int getOpenFeatures() {
+        return this.buffer.get(FIXED_HEADER_SIZE + 2) & 0xff;
+    }
+
+    /**
+     * Getter for the file extension of an OPEN
+     * @return  String, empty if the OPEN carries none or it does not fit the data portion
+     */
+    public String getOpenExtension() {
+        int length = this.buffer.get(FIXED_HEADER_SIZE + 3) & 0xff;
+        if (length > MAXIMUM_EXTENSION_LENGTH || OPEN_PARAMETERS_SIZE + length > this.getLength()) return "";
+        byte[] bytes = new byte[length];
+        this.buffer.get(FIXED_HEADER_SIZE + OPEN_PARAMETERS_SIZE, bytes);
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Setter for a missing range of an OPEN answer, after the session parameters: the first missing sequence and
+     * the number of consecutive missing sequences, both 4 bytes, so a range can lie anywhere in the file
+     * @param index     int position of the range in the data portion
+     * @param start     int
+     * @param length    int
+     */
+    public void setResumeRange(int index, int start, int length) {
+        this.buffer.putInt(FIXED_HEADER_SIZE + OPEN_PARAMETERS_SIZE + index * RESUME_RANGE_SIZE, start);
+        this.buffer.putInt(FIXED_HEADER_SIZE + OPEN_PARAMETERS_SIZE + index * RESUME_RANGE_SIZE + 4, length);
+    }
+
+    /**
+     * Getter for the number of missing ranges in an OPEN answer
+     * @return  int
+     */
+    public int getResumeRangeCount() {
+        return Math.max(0, this.getLength() - OPEN_PARAMETERS_SIZE) / RESUME_RANGE_SIZE;
+    }
+
+    /**
+     * Getter for the first missing sequence of a range of an OPEN answer
+     * @param index int position of the range in the data portion
+     * @return      int
+     */
+    public int getResumeRangeStart(int index) {
+        return this.buffer.getInt(FIXED_HEADER_SIZE + OPEN_PARAMETERS_SIZE + index * RESUME_RANGE_SIZE);
+    }
+
+    /**
+     * Getter for the number of missing sequences in a range of an OPEN answer
+     * @param index int position of the range in the data portion
+     * @return      int
+     */
+    public int getResumeRangeLength(int index) {
+        return this.buffer.getInt(FIXED_HEADER_SIZE + OPEN_PARAMETERS_SIZE + index * RESUME_RANGE_SIZE + 4);
     }
 }
@@ -0,0 +1,919 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * One file transfer seen by the Receiver, identified by the sending rover and the session ID in the header.
+ * Every session keeps its own receive window, missing sequences, NAK deadline and output file, so several
+ * transfers can arrive interleaved on the same channel. Sessions only run on the event loop thread; the work
+ * that reads their files back (digests of segments that arrived out of order, inflation, rebuilds of lost
+ * segments) is queued on the disk stage behind the writes it reads, and its results come back through the loop.
+ * When the sender protects its blocks with repair segments, the holes of a block are only reported once its
+ * repair segments had the chance to rebuild them.
+ * In a multicast session every receiver waits a random back-off before it requests its holes and leaves out the
+ * holes another receiver has already requested, and acknowledgements are sent once per block of progress.
+ * A compressed session carries the block compressed wire image of the file: its segments are spooled next to the
+ * output file and every block is inflated into the output file once it has arrived in order.
+ * The digest of the file is computed as the cumulative acknowledgement moves and checked against the FIN.
+ * The received sequences are checkpointed next to the output file about once a second, so a transfer that is
+ * interrupted resumes from the checkpoint instead of from sequence 1.
+ */
+public class ReceiveSession {
+    public static final long MINIMUM_NAK_BACKOFF_NANOS = 5_000_000L; // upper bound of the NAK back-off before a round trip time is known
+    public static final long ACK_DELAY_NANOS = 10_000_000L; // longest time a multicast receiver holds back its acknowledgement
+    public static final long CHECKPOINT_INTERVAL_NANOS = 1_000_000_000L; // time between two checkpoints of the received sequences
+    // Class fields
+    private Rover rover; // Rover that belongs to the receiver module
+    private EventLoop eventLoop; // loop that runs the NAK deadline
+    private EventLoop.Timer nakTimer; // pending NAK deadline
+    private int sessionId; // ID carried in the header of every segment of this transfer
+    private byte sendingRoverId; // Rover that sends the file
+    private String fileExtension; // Extension of the output file
+    private String announcedExtension; // extension from an OPEN that arrived after the file was opened, applied once it is complete
+    private boolean extensionAnnounced = false; // set when the output file took its extension from an OPEN
+    private SequenceWindow receivedSequences = new SequenceWindow(RdtProtocol.WINDOW_SIZE); // sequence numbers already written to the output file, based at expectedSeq
+    private FileSink fileSink = null; // Output file, opened when the first segment announces the file length; the spool of a compressed session
+    private DecompressingSink decompressingSink = null; // stage that inflates the spool into the output file, null unless the session is compressed
+    private long fileLength = 0; // length announced by the sender, of the wire image with every block stored in a compressed session
+    private long dataLength = 0; // bytes the segments carry: the file length, or that of the wire image once its end is known
+    private int expectedSeq = 1; // next in-order sequence number, also the cumulative acknowledgement
+    private int highestSeq = 0; // highest sequence number received so far; the clear bits between expectedSeq and it are the holes
+    private RttEstimator nakRtt = new RttEstimator(); // round trip time from a NAK to its first repair, kept apart from the estimate of the sender to the same rover
+    private long nakSentAt = 0; // time at which the NAK being timed was sent
+    private int timedFrom = 0; // first sequence requested by the NAK being timed
+    private int timedTo = 0; // sequence after the last one requested by the NAK being timed, 0 when no NAK is being timed
+    private long nakDeadline = 0; // time at which unanswered missing sequences are reported again, 0 when none are outstanding
+    private boolean nakRepeated = false; // set once the outstanding missing sequences had to be reported again
+    private int reportedSeq = 1; // holes below this sequence number have been reported to the sender
+    private int lastSeq = 0; // sequence number of the last segment of the file, known once the file is open
+    private int segmentSize = 0; // bytes of the file carried by every segment but the last, known once the file is open
+    private ErasureCode erasureCode = null; // code of the repair segments, learned from the first one that arrives
+    private RepairWindow repairs; // repair shards received for the incomplete blocks of the window, created with the erasure code
+    private byte[][] shards; // data and repair shards of the block being rebuilt
+    private boolean[] present; // set for every shard of the block being rebuilt that is available
+    private int repairedLosses = 0; // lost segments rebuilt from repair segments
+    private int reportedLosses = 0; // lost segments reported to the sender
+    private boolean multicast; // set when the file is sent to all rovers
+    private SequenceWindow requestedSequences = new SequenceWindow(RdtProtocol.WINDOW_SIZE); // holes requested by this or another receiver since the last NAK deadline
+    private EventLoop.Timer backoffTimer; // pending NAK of a multicast session, sent when its random back-off ends
+    private EventLoop.Timer ackTimer; // pending delayed acknowledgement of a multicast session
+    private int acknowledgedSeq = 1; // cumulative acknowledgement last sent to the sender
+    private int suppressedNaks = 0; // NAKs not sent because other receivers had requested the same holes
+    private MessageDigest fileDigest = RdtProtocol.fileDigest(); // digest of the segments below digestedSeq, unused by a compressed session
+    private int digestedSeq = 1; // next sequence handed to the digest or the inflater, here or in a delivery task
+    private boolean delivering = false; // set while a delivery task is queued on the disk stage
+    private boolean rebuilding = false; // set while a rebuild task is queued on the disk stage, which owns shards and present meanwhile
+    private ByteBuffer digestBuffer; // segment read back from the file for the digest when it arrived out of order, disk stage only
+    private byte[] receivedDigest; // digest of the complete output file, set by the disk stage before the file is closed
+    private File checkpointFile; // received sequences of the session, kept while the transfer is incomplete
+    private long checkpointDueAt = 0; // time of the next checkpoint
+    private WriteBehind writeBehind = WriteBehind.fetchInstance(); // disk stage whose free buffers bound the advertised window, null when disabled
+    private boolean windowUpdatePending = false; // set after a closed window was advertised, until the window update is sent
+    private TransferMetrics metrics; // counters and histograms of the session, exported over JMX while it is open
+    private int[] blockTags = new int[RdtProtocol.WINDOW_SIZE / Receiver.BUFFER_SIZE + 2]; // block whose first arrival every slot holds, indexed by block
+    private long[] blockStartedAt = new long[blockTags.length]; // time the first segment of the block in the slot arrived
+    private int completedBlocks = 0; // blocks of Receiver.BUFFER_SIZE segments below the cumulative acknowledgement
+
+    /**
+     * Constructor for this class
+     * @param rover             Rover
+     * @param eventLoop         EventLoop
+     * @param sessionId         int
+     * @param sendingRoverId    byte
+     * @param fileExtension     String
+     * @param multicast         boolean set when the file is sent to all rovers
+     */
+    public ReceiveSession(Rover rover, EventLoop eventLoop, int sessionId, byte sendingRoverId, String fileExtension, boolean multicast) {
+        this.rover = rover;
+        this.multicast = multicast;
+        this.eventLoop = eventLoop;
+        this.sessionId = sessionId;
+        this.sendingRoverId = sendingRoverId;
+        this.fileExtension = fileExtension;
+        this.metrics = TransferMetrics.forSession(TransferMetrics.RECEIVER, sessionId, sendingRoverId);
+        Arrays.fill(this.blockTags, -1);
+    }
+
+    /**
+     * Getter for the session ID
+     * @return  int
+     */
+    public int getSessionId() {
+        return this.sessionId;
+    }
+
+    /**
+     * Method to process a data segment and deliver it to the application layer at the receiving end.
+     * Any sequence inside the receive window is written at its offset in the output file as soon as it arrives;
+     * the gaps in front of segments that arrived early are reported to the sender in a selective acknowledgement.
+     * @param payload           ByteBuffer data portion of the segment
+     * @param seq               int
+     * @param fileLength        long length announced by the sender
+     * @param segmentSize       int segment size of the session
+     * @param compressed        boolean set when the segment carries part of a compressed wire image
+     * @param timestamp         int send time of the segment, echoed in the acknowledgement
+     * @throws IOException
+     */
+    public void onSegment(ByteBuffer payload, int seq, long fileLength, int segmentSize, boolean compressed, int timestamp) throws IOException {
+        metrics.increment(TransferMetrics.Counter.SEGMENTS_RECEIVED);
+        metrics.add(TransferMetrics.Counter.BYTES_RECEIVED, payload.remaining());
+        if (seq < expectedSeq) { // duplicate of a delivered segment, the acknowledgement was probably lost
+            metrics.increment(TransferMetrics.Counter.DUPLICATES);
+            if (multicast) { // or the segment repaired another receiver
+                this.delayAcknowledgement();
+            } else {
+                this.sendAcknowledgement(timestamp);
+            }
+            return;
+        }
+        if (seq >= expectedSeq + RdtProtocol.WINDOW_SIZE) return;
+        if (receivedSequences.get(seq)) {
+            metrics.increment(TransferMetrics.Counter.DUPLICATES);
+            return;
+        }
+        if (!this.openFile(fileLength, segmentSize, compressed)) return;
+        if (decompressingSink != null && payload.remaining() < segmentSize) this.endWireImage((long) (seq - 1) * segmentSize + payload.remaining());
+        int start = payload.position(); // the write consumes the payload, the digest reads it again in place
+        int end = payload.limit();
+        if (!fileSink.write(seq, payload)) return; // the disk stage is full: the segment is repaired like a lost one
+        if (seq == digestedSeq && decompressingSink == null && !delivering) {
+            this.digest(seq, payload.limit(end).position(start));
+            digestedSeq++;
+        }
+        receivedSequences.set(seq);
+        this.startBlock(seq);
+        if (seq >= timedFrom && seq < timedTo) { // the first repair of the NAK being timed
+            long rttNanos = System.nanoTime() - nakSentAt;
+            nakRtt.onSample(rttNanos);
+            metrics.recordRtt(rttNanos);
+            timedTo = 0;
+        }
+        highestSeq = Math.max(highestSeq, seq);
+        if (seq == expectedSeq) {
+            this.advance(timestamp);
+        } else if (erasureCode == null) {
+            this.reportHoles(seq);
+        } else {
+            this.reportHoles(this.blockStart(seq));
+        }
+        if (repairs != null && repairs.contains(this.blockOf(seq))) this.rebuildBlock(this.blockOf(seq));
+        this.checkpointIfDue();
+    }
+
+    /**
+     * Method to process a repair segment of a block. The repair header in front of the parity names the code,
+     * so the receiver needs no configuration. Lost segments of the block are rebuilt as soon as enough repair
+     * segments have arrived, and the holes that remain are reported after the last repair segment of the block.
+     * @param payload       ByteBuffer repair header followed by the parity
+     * @param firstSeq      int first sequence number of the block
+     * @param fileLength    long length announced by the sender
+     * @param segmentSize   int segment size of the session
+     * @param compressed    boolean set when the block belongs to a compressed wire image
+     * @throws IOException
+     */
+    public void onRepair(ByteBuffer payload, int firstSeq, long fileLength, int segmentSize, boolean compressed) throws IOException {
+        int position = payload.position();
+        byte type = payload.get(position);
+        int k = payload.get(position + 1) & 0xff;
+        int m = payload.get(position + 2) & 0xff;
+        int index = payload.get(position + 3) & 0xff;
+        if (!this.openFile(fileLength, segmentSize, compressed)) return;
+        if (erasureCode == null) {
+            erasureCode = ErasureCode.forType(type, k, m);
+            if (erasureCode == null) return;
+            shards = new byte[k + m][segmentSize];
+            present = new boolean[k + m];
+            repairs = new RepairWindow(RdtProtocol.WINDOW_SIZE, k, m, segmentSize);
+        }
+        if (type != erasureCode.getType() || k != erasureCode.getDataSegments() || m != erasureCode.getRepairSegments() || index >= m) return;
+        int blockEnd = Math.min(firstSeq + k, lastSeq + 1);
+        if (blockEnd <= expectedSeq) return;
+        int block = this.blockOf(firstSeq);
+        if (block < this.blockOf(expectedSeq) + repairs.capacity() && blockEnd <= expectedSeq + receivedSequences.capacity()
+            && receivedSequences.nextClearBit(firstSeq) < blockEnd) {
+            byte[] shard = repairs.add(block, index);
+            if (shard != null) {
+                payload.position(position + RdtProtocol.REPAIR_HEADER_SIZE);
+                int length = Math.min(payload.remaining(), segmentSize);
+                payload.get(shard, 0, length);
+                Arrays.fill(shard, length, segmentSize, (byte) 0);
+                this.rebuildBlock(block);
+                this.checkpointIfDue();
+            }
+        }
+        if (index == m - 1) this.reportHoles(blockEnd);
+    }
+
+    /**
+     * Method to rebuild the lost segments of a block once it has as many repair shards as it has missing segments.
+     * The rebuild runs on the disk stage: the segments that did arrive are read back from the output file behind
+     * their writes, positions past the end of the file count as zeros, and the rebuilt segments are written
+     * before the event loop marks them as received. One rebuild of a session is queued at a time.
+     * @param block int block number
+     * @throws IOException
+     */
+    private void rebuildBlock(int block) throws IOException {
+        if (rebuilding) return;
+        int k = erasureCode.getDataSegments();
+        int m = erasureCode.getRepairSegments();
+        int firstSeq = block * k + 1;
+        int blockEnd = Math.min(firstSeq + k, lastSeq + 1);
+        int missing = 0;
+        for (int seq = receivedSequences.nextClearBit(firstSeq); seq < blockEnd; seq = receivedSequences.nextClearBit(seq + 1)) {
+            missing++;
+        }
+        if (missing == 0 || repairs.count(block) < missing) return;
+        for (int index = 0; index < k; index++) {
+            int seq = firstSeq + index;
+            present[index] = seq >= blockEnd || receivedSequences.get(seq);
+        }
+        for (int index = 0; index < m; index++) {
+            byte[] received = repairs.shard(block, index);
+            present[k + index] = received != null;
+            if (present[k + index]) System.arraycopy(received, 0, shards[k + index], 0, segmentSize);
+        }
+        FileSink sink = fileSink;
+        ErasureCode code = erasureCode;
+        int lost = missing;
+        rebuilding = true;
+        sink.execute(() -> {
+            boolean decoded = false;
+            try {
+                for (int index = 0; index < k; index++) {
+                    int seq = firstSeq + index;
+                    Arrays.fill(shards[index], (byte) 0);
+                    if (seq < blockEnd && present[index]) sink.read(seq, ByteBuffer.wrap(shards[index]));
+                }
+                boolean[] received = Arrays.copyOf(present, k);
+                decoded = code.decode(shards, present, segmentSize);
+                for (int seq = firstSeq; decoded && seq < blockEnd; seq++) {
+                    if (!received[seq - firstSeq]) sink.writeNow(seq, ByteBuffer.wrap(shards[seq - firstSeq]));
+                }
+            } finally {
+                boolean result = decoded;
+                eventLoop.execute(() -> this.onRebuilt(block, lost, result));
+            }
+        });
+    }
+
+    /**
+     * Method run by the event loop once the disk stage has rebuilt a block, or failed to: the rebuilt segments
+     * are on disk and count as received, and the next block that has enough repair shards is rebuilt
+     * @param block     int block number
+     * @param missing   int segments the block lacked when the rebuild was queued
+     * @param decoded   boolean false if the block could not be rebuilt
+     */
+    private void onRebuilt(int block, int missing, boolean decoded) {
+        rebuilding = false;
+        if (fileSink == null || !decoded) return;
+        int firstSeq = block * erasureCode.getDataSegments() + 1;
+        int blockEnd = Math.min(firstSeq + erasureCode.getDataSegments(), lastSeq + 1);
+        for (int seq = receivedSequences.nextClearBit(firstSeq); seq < blockEnd; seq = receivedSequences.nextClearBit(seq + 1)) {
+            receivedSequences.set(seq);
+            repairedLosses++;
+            metrics.increment(TransferMetrics.Counter.SEGMENTS_REBUILT);
+        }
+        repairs.remove(block);
+        highestSeq = Math.max(highestSeq, blockEnd - 1);
+        try {
+            if (receivedSequences.get(expectedSeq)) this.advance(0);
+            for (int next = this.blockOf(expectedSeq); !rebuilding && next < this.blockOf(expectedSeq) + repairs.capacity(); next++) {
+                if (repairs.contains(next)) this.rebuildBlock(next);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Method to move the cumulative acknowledgement past every segment received in order and acknowledge it
+     * @param timestamp int send time of the segment that completed the sequence, 0 when there is none to echo
+     * @throws IOException
+     */
+    private void advance(int timestamp) throws IOException {
+        expectedSeq = receivedSequences.nextClearBit(expectedSeq);
+        receivedSequences.slide(expectedSeq);
+        requestedSequences.slide(expectedSeq);
+        this.deliver();
+        this.completeBlocks();
+        if (!multicast || expectedSeq - acknowledgedSeq >= Receiver.BUFFER_SIZE || expectedSeq > lastSeq) {
+            this.sendAcknowledgement(timestamp);
+        } else {
+            this.delayAcknowledgement();
+        }
+        if (expectedSeq >= reportedSeq && nakDeadline != 0) { // every reported hole has been repaired
+            nakDeadline = 0;
+            this.armNakTimer();
+        }
+        if (repairs != null && !repairs.isEmpty()) repairs.removeBelow(this.blockOf(expectedSeq));
+    }
+
+    /**
+     * Method to remember when the first segment of a block arrived, so its completion latency can be measured
+     * @param seq   int
+     */
+    private void startBlock(int seq) {
+        int block = (seq - 1) / Receiver.BUFFER_SIZE;
+        int slot = block % blockTags.length;
+        if (block < completedBlocks || blockTags[slot] == block) return;
+        blockTags[slot] = block;
+        blockStartedAt[slot] = System.nanoTime();
+    }
+
+    /**
+     * Method to record the latency of every block the cumulative acknowledgement has just moved past. Blocks
+     * that were already on disk when a resumed session started have no start time and are not recorded.
+     */
+    private void completeBlocks() {
+        int blocks = (expectedSeq > lastSeq) ? (lastSeq + Receiver.BUFFER_SIZE - 1) / Receiver.BUFFER_SIZE : (expectedSeq - 1) / Receiver.BUFFER_SIZE;
+        long now = System.nanoTime();
+        for (; completedBlocks < blocks; completedBlocks++) {
+            int slot = completedBlocks % blockTags.length;
+            if (blockTags[slot] == completedBlocks) metrics.recordBlock(now - blockStartedAt[slot]);
+        }
+    }
+
+    /**
+     * Method to pass the segments below the cumulative acknowledgement on: a compressed session inflates the
+     * frames they complete, any other session adds the segments that arrived out of order to the digest. Both read
+     * the file back, so they run as a delivery task of the disk stage; while one is queued the segments that
+     * arrive in order wait for the next one, which is queued when it calls back.
+     * @throws IOException
+     */
+    private void deliver() throws IOException {
+        if (delivering || digestedSeq >= expectedSeq) return;
+        FileSink sink = fileSink;
+        DecompressingSink inflater = decompressingSink;
+        int from = digestedSeq;
+        int to = expectedSeq;
+        digestedSeq = expectedSeq;
+        delivering = true;
+        sink.execute(() -> {
+            try {
+                this.deliver(sink, inflater, from, to);
+            } finally {
+                eventLoop.execute(this::onDelivered);
+            }
+        });
+    }
+
+    /**
+     * Method run by the event loop once a delivery task is done, to queue the next one if the cumulative
+     * acknowledgement has moved meanwhile
+     */
+    private void onDelivered() {
+        delivering = false;
+        if (fileSink == null) return;
+        try {
+            this.deliver();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Method to deliver a range of segments on the disk stage, behind their writes
+     * @param sink      FileSink the segments are read back from
+     * @param inflater  DecompressingSink of a compressed session, null otherwise
+     * @param from      int first sequence to add to the digest
+     * @param to        int sequence after the last one
+     * @throws IOException
+     */
+    private void deliver(FileSink sink, DecompressingSink inflater, int from, int to) throws IOException {
+        if (inflater != null) {
+            inflater.drain(Math.min((long) (to - 1) * segmentSize, dataLength));
+            return;
+        }
+        for (int seq = from; seq < to; seq++) {
+            digestBuffer.clear();
+            sink.read(seq, digestBuffer);
+            this.digest(seq, digestBuffer.flip());
+        }
+    }
+
+    /**
+     * Method to add the file bytes of a segment to the digest, leaving out the padding past the end of the file
+     * @param seq       int
+     * @param payload   ByteBuffer whose remaining bytes are the segment payload, consumed
+     */
+    private void digest(int seq, ByteBuffer payload) {
+        long position = (long) (seq - 1) * segmentSize;
+        payload.limit(payload.position() + (int) Math.max(0, Math.min(payload.remaining(), fileLength - position)));
+        fileDigest.update(payload);
+    }
+
+    /**
+     * Method to answer an OPEN with the parameters the receiver accepted and the sequences already on disk.
+     * The output file and its checkpoint are opened if the session had not been seen since this rover started.
+     * The file takes the extension the sender announced; when data segments of a 0-RTT session got there first
+     * and the file is already open under the default extension, it is renamed once it is complete.
+     * @param fileLength    long
+     * @param segmentSize   int
+     * @param window        int accepted window in segments
+     * @param features      int accepted optional features
+     * @param extension     String extension of the sent file, empty when unknown
+     * @param timestamp     int send time of the OPEN, echoed in the answer
+     * @return              boolean false when the session is open with another layout
+     * @throws IOException
+     */
+    public boolean onOpen(long fileLength, int segmentSize, int window, int features, String extension, int timestamp) throws IOException {
+        if (!extension.isEmpty() && !extension.equals(this.fileExtension)) {
+            if (fileSink == null) {
+                this.fileExtension = extension;
+                this.extensionAnnounced = true;
+            } else {
+                this.announcedExtension = extension;
+            }
+        }
+        if (!this.openFile(fileLength, segmentSize, (features & RdtProtocol.FEATURE_COMPRESSION) != 0)) return false;
+        this.rover.getSenderModule().sendOpenAcknowledgement(sessionId, segmentSize, window, features, receivedSequences, lastSeq, sendingRoverId, timestamp);
+        return true;
+    }
+
+    /**
+     * Method to write a checkpoint when the last one is more than CHECKPOINT_INTERVAL_NANOS old
+     * @throws IOException
+     */
+    private void checkpointIfDue() throws IOException {
+        if (System.nanoTime() - checkpointDueAt >= 0) this.writeCheckpoint();
+    }
+
+    /**
+     * Method to write the layout of the session, the bitmap of received sequences and the end of a compressed wire
+     * image, once it is known, next to the output file.
+     * The bitmap covers the receive window only, every sequence below it being on disk. It is copied here and
+     * written by the disk stage behind the segments it claims: the data is forced
+     * to the disk first and the checkpoint replaces the previous one in a single rename, so a crash at any point
+     * leaves a checkpoint that only claims segments the disk holds.
+     * @throws IOException
+     */
+    private void writeCheckpoint() throws IOException {
+        FileSink sink = fileSink;
+        File checkpoint = checkpointFile;
+        long fileLength = this.fileLength;
+        long dataLength = this.dataLength;
+        int segmentSize = this.segmentSize;
+        boolean compressed = decompressingSink != null;
+        String extension = fileExtension;
+        int base = receivedSequences.base();
+        long[] bitmap = receivedSequences.snapshot();
+        sink.execute(() -> {
+            sink.force();
+            File temporary = new File(checkpoint.getPath() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)))) {
+                out.writeLong(fileLength);
+                out.writeInt(segmentSize);
+                out.writeBoolean(compressed);
+                out.writeUTF(extension);
+                out.writeInt(base);
+                out.writeInt(bitmap.length);
+                for (long word : bitmap) {
+                    out.writeLong(word);
+                }
+                out.writeLong(dataLength);
+            }
+            Files.move(temporary.toPath(), checkpoint.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        });
+        checkpointDueAt = System.nanoTime() + CHECKPOINT_INTERVAL_NANOS;
+    }
+
+    /**
+     * Method to restore the received sequences from the checkpoint of an interrupted transfer of the same file.
+     * A checkpoint written for another length, segment size or compression is deleted. The holes below the
+     * highest restored sequence are not reported: the sender learns them from the OPEN-ACK, or sends them anyway.
+     * @param compressed    boolean
+     */
+    private void loadCheckpoint(boolean compressed) {
+        if (!checkpointFile.exists()) return;
+        long[] restored = null;
+        int base = 1;
+        long restoredLength = fileLength;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(checkpointFile)))) {
+            if (in.readLong() == fileLength && in.readInt() == segmentSize && in.readBoolean() == compressed && in.readUTF().equals(fileExtension)) {
+                base = in.readInt();
+                long[] bitmap = new long[in.readInt()];
+                for (int index = 0; index < bitmap.length; index++) {
+                    bitmap[index] = in.readLong();
+                }
+                restoredLength = in.readLong();
+                restored = bitmap;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (restored == null) {
+            System.out.println("[!!!] Discarding the checkpoint of session " + Integer.toHexString(this.sessionId) + ", it belongs to another transfer");
+            checkpointFile.delete();
+            return;
+        }
+        receivedSequences.restore(base, restored);
+        receivedSequences.truncate(lastSeq + 1);
+        expectedSeq = receivedSequences.nextClearBit(1);
+        receivedSequences.slide(expectedSeq);
+        requestedSequences.slide(expectedSeq);
+        highestSeq = Math.max(expectedSeq - 1, receivedSequences.highest());
+        reportedSeq = highestSeq + 1;
+        this.endWireImage(restoredLength);
+        System.out.println(">> Resuming session " + Integer.toHexString(this.sessionId) + " from its checkpoint: "
+            + receivedSequences.cardinality() + " of " + lastSeq + " segments already on disk");
+    }
+
+    /**
+     * Method to close a session that a restarted sender opens again with another layout, and drop its checkpoint.
+     * The checkpoint is deleted by the disk stage once the file is closed, behind any checkpoint still queued, so
+     * it is not written again behind its back; the event loop goes on meanwhile.
+     * @param onDiscarded   Runnable called once the file is closed and the checkpoint deleted, on the disk stage
+     */
+    public void discard(Runnable onDiscarded) {
+        File checkpoint = checkpointFile;
+        this.close(() -> {
+            if (checkpoint != null) checkpoint.delete();
+            onDiscarded.run();
+        });
+    }
+
+    /**
+     * Method to compare the digest of the received file with the one the sender announced in the FIN, once the
+     * session has been closed and its digest completed by the disk stage
+     * @param expected  byte[] digest from the FIN, null when the FIN carried none
+     */
+    public void verifyDigest(byte[] expected) {
+        if (expected == null) return;
+        if (receivedDigest == null) {
+            System.out.println("[!!!] Session " + Integer.toHexString(this.sessionId) + " ended before the whole file arrived");
+        } else if (MessageDigest.isEqual(expected, receivedDigest)) {
+            System.out.println(">> File digest verified for session " + Integer.toHexString(this.sessionId));
+        } else {
+            System.out.println("[!!!] File digest of session " + Integer.toHexString(this.sessionId) + " does not match the sender's, the file is corrupt");
+        }
+    }
+
+    /**
+     * Method to send the cumulative acknowledgement, replacing any delayed one
+     * @param timestamp int send time of the segment to echo, 0 when there is none
+     */
+    private void sendAcknowledgement(int timestamp) {
+        if (ackTimer != null) {
+            ackTimer.cancel();
+            ackTimer = null;
+        }
+        acknowledgedSeq = expectedSeq;
+        this.rover.getSenderModule().sendAcknowledgement(sessionId, expectedSeq, sendingRoverId, (byte) 5, timestamp, this.receiveWindow());
+    }
+
+    /**
+     * Method to compute the receive window advertised in every ACK and SACK: the whole reorder window, unless the
+     * session's share of the free disk stage buffers is smaller, in which case the sender is asked to slow down to
+     * what the disk absorbs instead of overflowing the socket buffer. The free buffers are split evenly across the
+     * open files, so concurrent sessions do not promise the same buffers twice. A closed window is reopened by a
+     * window update once the disk stage has caught up, or by the sender's zero-window probes if that update is lost.
+     * @return  int segments past the cumulative acknowledgement
+     */
+    private int receiveWindow() {
+        if (writeBehind == null) return RdtProtocol.WINDOW_SIZE;
+        int window = Math.min(RdtProtocol.WINDOW_SIZE, writeBehind.getFreeBuffersPerSink());
+        if (window == 0 && !windowUpdatePending) {
+            windowUpdatePending = true;
+            writeBehind.notifyWhenFree(() -> eventLoop.execute(this::sendWindowUpdate));
+        }
+        return window;
+    }
+
+    /**
+     * Method to acknowledge again once the disk stage has caught up after a closed window was advertised, so the
+     * sender resumes without waiting for its next zero-window probe
+     */
+    private void sendWindowUpdate() {
+        windowUpdatePending = false;
+        if (fileSink != null) this.sendAcknowledgement(0);
+    }
+
+    /**
+     * Method to hold back the acknowledgement of a multicast session, so that a whole group of receivers does not
+     * answer every segment. Progress is still acknowledged after at most ACK_DELAY_NANOS.
+     */
+    private void delayAcknowledgement() {
+        if (ackTimer == null) ackTimer = this.eventLoop.schedule(System.nanoTime() + ACK_DELAY_NANOS, this::onAcknowledgementDelay);
+    }
+
+    /**
+     * Method run by the event loop when the delayed acknowledgement is due
+     */
+    private void onAcknowledgementDelay() {
+        ackTimer = null;
+        this.sendAcknowledgement(0);
+    }
+
+    /**
+     * Method to report the holes between the last reported sequence and the given one in a selective acknowledgement.
+     * A multicast receiver only schedules the report at the end of a random back-off.
+     * @param to    int sequence after the last one to report
+     */
+    private void reportHoles(int to) {
+        if (to <= reportedSeq) return;
+        int from = Math.max(reportedSeq, expectedSeq);
+        reportedSeq = to;
+        int start = receivedSequences.nextClearBit(from);
+        if (start >= to) return;
+        if (nakDeadline == 0) {
+            nakRepeated = false;
+            nakDeadline = System.nanoTime() + nakRtt.getRetransmissionTimeout();
+            this.armNakTimer();
+        }
+        for (int seq = start; seq < to; seq = receivedSequences.nextClearBit(seq + 1)) {
+            reportedLosses++;
+        }
+        if (multicast) {
+            this.scheduleNak();
+            return;
+        }
+        metrics.increment(TransferMetrics.Counter.NAKS_SENT);
+        this.timeNak(start, to);
+        this.rover.getSenderModule().sendSelectiveAcknowledgement(sessionId, expectedSeq, receivedSequences, null, from, to, sendingRoverId, this.receiveWindow());
+    }
+
+    /**
+     * Method to time a NAK up to the first repair of the holes it requests. Only one sample is taken per NAK,
+     * and none for a NAK that repeats a request, since its repair may answer either one (Karn's rule).
+     * @param from  int first sequence requested
+     * @param to    int sequence after the last one requested
+     */
+    private void timeNak(int from, int to) {
+        if (nakRepeated) return;
+        nakSentAt = System.nanoTime();
+        timedFrom = from;
+        timedTo = to;
+    }
+
+    /**
+     * Method to start the random back-off of a multicast NAK, drawn uniformly up to one smoothed round trip time,
+     * so that the receiver that lost a segment first usually asks for it and the others overhear the request
+     */
+    private void scheduleNak() {
+        if (backoffTimer != null) return;
+        long backoff = Math.max(nakRtt.getSmoothedRtt(), MINIMUM_NAK_BACKOFF_NANOS);
+        backoffTimer = this.eventLoop.schedule(System.nanoTime() + ThreadLocalRandom.current().nextLong(backoff), this::onNakBackoff);
+    }
+
+    /**
+     * Method run by the event loop when the NAK back-off ends. Only the outstanding holes that no receiver has
+     * requested yet are reported; the NAK is suppressed when nothing is left.
+     */
+    private void onNakBackoff() {
+        backoffTimer = null;
+        if (expectedSeq >= reportedSeq) return;
+        int start = receivedSequences.nextClearBit(expectedSeq, requestedSequences);
+        if (start >= reportedSeq) {
+            suppressedNaks++;
+            return;
+        }
+        metrics.increment(TransferMetrics.Counter.NAKS_SENT);
+        this.timeNak(start, reportedSeq);
+        this.rover.getSenderModule().sendSelectiveAcknowledgement(sessionId, expectedSeq, receivedSequences, requestedSequences, start, reportedSeq, sendingRoverId, this.receiveWindow());
+        requestedSequences.set(start, reportedSeq);
+    }
+
+    /**
+     * Method called when another receiver of a multicast session requests holes from the sender.
+     * Those holes are left out of this receiver's own request, since one repair to the group serves both.
+     * @param sack  RdtProtocol decoder positioned on the selective acknowledgement
+     */
+    public void onOverheardSelectiveAcknowledgement(RdtProtocol sack) {
+        if (!multicast) return;
+        int ack = sack.getAcknowledgementNumber();
+        for (int index = 0; index < sack.getHoleRangeCount(); index++) {
+            int start = ack + sack.getHoleOffset(index);
+            requestedSequences.set(start, start + sack.getHoleLength(index));
+        }
+    }
+
+    /**
+     * Method to find the block of a sequence number
+     * @param seq   int
+     * @return      int
+     */
+    private int blockOf(int seq) {
+        return (seq - 1) / erasureCode.getDataSegments();
+    }
+
+    /**
+     * Method to find the first sequence number of the block of a sequence number
+     * @param seq   int
+     * @return      int
+     */
+    private int blockStart(int seq) {
+        return this.blockOf(seq) * erasureCode.getDataSegments() + 1;
+    }
+
+    /**
+     * Method to arm the event loop timer for the current NAK deadline, or cancel it when none is outstanding
+     */
+    private void armNakTimer() {
+        if (nakTimer != null) nakTimer.cancel();
+        nakTimer = (nakDeadline == 0) ? null : this.eventLoop.schedule(nakDeadline, this::processNakDeadline);
+    }
+
+    /**
+     * Method to report every outstanding hole again once the NAK deadline has passed.
+     * The deadline is derived from the round trip time of the NAKs of this session and backed off on every repetition.
+     */
+    private void processNakDeadline() {
+        nakTimer = null;
+        if (expectedSeq >= reportedSeq) {
+            nakDeadline = 0;
+            return;
+        }
+        nakRtt.onTimeout();
+        nakRepeated = true;
+        timedTo = 0;
+        metrics.increment(TransferMetrics.Counter.TIMEOUTS);
+        nakDeadline = System.nanoTime() + nakRtt.getRetransmissionTimeout();
+        this.armNakTimer();
+        if (multicast) {
+            requestedSequences.clear();
+            this.scheduleNak();
+            return;
+        }
+        metrics.increment(TransferMetrics.Counter.NAKS_SENT);
+        this.rover.getSenderModule().sendSelectiveAcknowledgement(sessionId, expectedSeq, receivedSequences, null, expectedSeq, reportedSeq, sendingRoverId, this.receiveWindow());
+    }
+
+    /**
+     * Method to create and preallocate the output file the first time a segment of the session arrives.
+     * Data segments announce the file length in the acknowledgement number and the segment size in the header,
+     * so whichever segment arrives first fixes the layout of the file. The segments of a compressed session are
+     * spooled to a partial file and inflated from there.
+     * @param fileLength    long
+     * @param segmentSize   int
+     * @param compressed    boolean
+     * @return              boolean false if the segment does not match the segment size or compression of the session
+     * @throws IOException
+     */
+    private boolean openFile(long fileLength, int segmentSize, boolean compressed) throws IOException {
+        if (fileSink != null) return fileLength == this.fileLength && segmentSize == this.segmentSize && compressed == (decompressingSink != null);
+        this.segmentSize = segmentSize;
+        this.fileLength = fileLength;
+        this.dataLength = fileLength;
+        digestBuffer = ByteBuffer.allocate(segmentSize);
+        checkpointFile = new File(checkpointFileName(this.sessionId));
+        String extension = this.checkpointedExtension();
+        if (extension != null && !extension.equals(fileExtension) && new File(receivedFileName(this.sessionId, extension)).exists()) {
+            if (extensionAnnounced) announcedExtension = fileExtension; // the file is resumed in place and renamed once it is complete
+            fileExtension = extension;
+        }
+        if (compressed) {
+            File spoolFile = new File(this.receivedFileName() + ".part");
+            fileSink = new FileSink(spoolFile, fileLength, segmentSize);
+            fileSink.setDurable(false);
+            decompressingSink = new DecompressingSink(fileSink, spoolFile, new File(this.receivedFileName()));
+        } else {
+            fileSink = new FileSink(new File(this.receivedFileName()), fileLength, segmentSize);
+        }
+        lastSeq = (int) Math.max(1, (fileLength + segmentSize - 1) / segmentSize);
+        checkpointDueAt = System.nanoTime() + CHECKPOINT_INTERVAL_NANOS;
+        this.loadCheckpoint(compressed);
+        return true;
+    }
+
+    /**
+     * Method to read the extension of the file an interrupted transfer of the session was written to
+     * @return  String, null without a readable checkpoint
+     */
+    private String checkpointedExtension() {
+        if (!checkpointFile.exists()) return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(checkpointFile)))) {
+            in.readLong();
+            in.readInt();
+            in.readBoolean();
+            return in.readUTF();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Method to get the name of the checkpoint of a session. It is keyed by the session ID alone, the transfer ID
+     * the sender derives from the file, so a resumed transfer finds it whatever extension the output file has.
+     * @param sessionId     int
+     * @return              String
+     */
+    public static String checkpointFileName(int sessionId) {
+        return ("received" + "_" + String.format("%08x", sessionId) + ".ckpt");
+    }
+
+    /**
+     * Method to set the received file name, unique per session
+     * @return  String
+     */
+    private String receivedFileName() {
+        return receivedFileName(this.sessionId, this.fileExtension);
+    }
+
+    /**
+     * Method to get the name of the file a session is received into
+     * @param sessionId     int
+     * @param fileExtension String
+     * @return              String
+     */
+    public static String receivedFileName(int sessionId, String fileExtension) {
+        return ("received" + "_" + String.format("%08x", sessionId) + "." + fileExtension);
+    }
+
+    /**
+     * Method to learn where the wire image of a compressed session ends. Its sender announces the length it would
+     * have with every block stored; the real end is the end of the only short segment, or the length the FIN
+     * carries when that segment was rebuilt from repair segments. The sequences past it are never sent.
+     * @param length    long bytes of the wire image, ignored unless it ends the wire image earlier
+     */
+    public void endWireImage(long length) {
+        if (decompressingSink == null || length <= 0 || length >= dataLength) return;
+        dataLength = length;
+        lastSeq = (int) Math.max(1, (length + segmentSize - 1) / segmentSize);
+        receivedSequences.truncate(lastSeq + 1);
+        requestedSequences.truncate(lastSeq + 1);
+        expectedSeq = Math.min(expectedSeq, lastSeq + 1);
+        highestSeq = Math.min(highestSeq, lastSeq);
+        reportedSeq = Math.min(reportedSeq, lastSeq + 1);
+    }
+
+    /**
+     * Method to stop the NAK deadline, trim the output file to its announced length and close it, along with the
+     * spool of a compressed session. The checkpoint of a complete file is deleted, that of an incomplete one kept.
+     * The digest is completed by the disk stage behind the last delivery, then the file is closed once everything
+     * queued for it is written, and renamed to the announced extension after that.
+     * @param onClosed  Runnable called once the file is closed, on the disk stage; may be null
+     */
+    public void close(Runnable onClosed) {
+        nakDeadline = 0;
+        this.armNakTimer();
+        if (backoffTimer != null) backoffTimer.cancel();
+        if (ackTimer != null) ackTimer.cancel();
+        backoffTimer = null;
+        ackTimer = null;
+        if (multicast) {
+            System.out.println(">> Session " + Integer.toHexString(this.sessionId) + ": " + suppressedNaks + " NAKs suppressed by other receivers");
+        }
+        if (erasureCode != null) {
+            System.out.println(">> Session " + Integer.toHexString(this.sessionId) + ": " + repairedLosses
+                + " lost segments rebuilt from repair segments, " + reportedLosses + " reported to the sender");
+        }
+        metrics.unregister();
+        if (fileSink == null) {
+            if (onClosed != null) onClosed.run();
+            return;
+        }
+        boolean complete = expectedSeq > lastSeq;
+        try {
+            if (complete) {
+                FileSink sink = fileSink;
+                DecompressingSink inflater = decompressingSink;
+                int from = digestedSeq;
+                int to = expectedSeq;
+                File checkpoint = checkpointFile;
+                digestedSeq = expectedSeq;
+                fileSink.execute(() -> {
+                    this.deliver(sink, inflater, from, to);
+                    receivedDigest = (inflater != null) ? inflater.getDigest() : fileDigest.digest();
+                    checkpoint.delete();
+                });
+            } else {
+                this.writeCheckpoint();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        File receivedFile = new File(this.receivedFileName());
+        File renamedFile = (complete && announcedExtension != null) ? new File(receivedFileName(this.sessionId, announcedExtension)) : null;
+        Runnable closed = () -> {
+            try {
+                if (renamedFile != null) Files.move(receivedFile.toPath(), renamedFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            if (onClosed != null) onClosed.run();
+        };
+        try {
+            if (decompressingSink != null) {
+                decompressingSink.close(closed);
+            } else {
+                fileSink.close(closed);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        fileSink = null;
+        decompressingSink = null;
+    }
+}
@@ -3,66 +3,56 @@
  * @author Vinod Dalavai - vd1605
  */
 
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.InetAddress;
-import java.net.MulticastSocket;
-import java.util.ArrayList;
-import java.util.Arrays;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
-import java.util.List;
 import java.util.Map;
-import java.util.Random;
 import java.util.Set;
-import java.util.TreeMap;
 
-public class Receiver extends Thread {
-    private static final byte TRUE      = (byte) 1;
+public class Receiver implements EventLoop.Handler {
     public static final int BUFFER_SIZE = 20;
+    public static final int FINISHED_SESSIONS = 64; // finished sessions remembered to answer repeated FINs and drop late segments
     // Class fields
-    private MulticastSocket socket; // Socket on which the RDT will be operating
-    private InetAddress group; // group subscribed to the multicast IP
-    private DatagramPacket packet; // Packet that will be received
+    private DatagramChannel channel; // Channel joined to the multicast group on which the RDT will be operating
+    private ByteBuffer packet; // Packet that will be received, backed by the input buffer
+    private ByteBuffer payload; // view of the data portion of the packet, handed to the sessions
+    private RdtProtocol incoming; // flyweight that decodes the header of the packet in place
+    private EventLoop eventLoop; // loop that delivers the packets and runs the NAK deadlines
     private Rover rover; // Rover that belongs to this receiver module
     private byte[] buf; // input buffer
-    private LinkedHashMap<Integer, byte[]> packetArray; // receiver buffer for tracking packets
-    private List<Integer> missingSequences; // Set of missing sequence numbers
-    private FileOutputStream fos = null; // Output stream that writes to file
-    private String fileExtension = "jpg"; // Extension of the output file
-    public static Receiver receiver = null; // static object of the same class
-    private static int previousStartSeqOfPacketArray = 1;
-    private static int currentStartSeqOfPacketArray = 1;
-    private static int currentAck = 1;
+    private String fileExtension = "jpg"; // Extension of the output files
+    private Map<Long, ReceiveSession> sessions = new HashMap<>(); // transfers in progress, indexed by sending rover and session ID
+    private Set<Long> finishedSessions; // most recently finished transfers
+    private Set<Long> closingSessions = new HashSet<>(); // finished or discarded transfers whose files the disk stage is still closing
+    private ReceiveSession lastSession = null; // session of the last data segment, looked up without boxing its key
+    private long lastSessionKey = 0; // key of the last session
+    private long corruptDatagrams = 0; // datagrams dropped because their CRC32C did not match
     private byte sendingRoverId;
     private byte receivingRoverId;
 
-    /**
-     * Empty constructor for this class
-     */
-    public Receiver() {}
-
     /**
      * Constructor for this class
      * @param rover Rover
      */
     public Receiver(Rover rover) {
         this.rover = rover;
-        this.packetArray = new LinkedHashMap<>(BUFFER_SIZE);
-        this.missingSequences = new ArrayList<>();
-        this.buf = new byte[RdtProtocol.DATAGRAM_LENGTH + RdtProtocol.FIXED_HEADER_SIZE];
-        this.packet = new DatagramPacket(buf, buf.length);
-        try {
-            this.group = InetAddress.getByName(rover.getMulticastIP());
-            this.fos = new FileOutputStream(new File(this.receivedFileName()));
-            this.socket = new MulticastSocket(rover.getPort());
-            this.socket.joinGroup(this.group);
-            if (rover.getAction().equalsIgnoreCase("receive")) {
-                System.out.println("Setting SO_TIMEOUT");
-                this.socket.setSoTimeout(5_000);
+        this.finishedSessions = Collections.newSetFromMap(new LinkedHashMap<Long, Boolean>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Boolean> eldest) {
+                return this.size() > FINISHED_SESSIONS;
             }
+        });
+        this.buf = new byte[RdtProtocol.MAXIMUM_SEGMENT_SIZE];
+        this.packet = ByteBuffer.wrap(buf);
+        this.payload = ByteBuffer.wrap(buf);
+        this.incoming = new RdtProtocol(this.packet);
+        try {
+            this.channel = EventLoop.openMulticastChannel(rover.getMulticastIP(), rover.getPort());
             System.out.println("Listening on port: " + rover.getPort());
         } catch (IOException e) {
             e.printStackTrace();
@@ -70,355 +60,276 @@ public class Receiver extends Thread {
     }
 
     /**
-     * Method to create an instance of the class and assign it to a static variable
-     * @param rover Rover
-     */
-    public static void createInstance(Rover rover) {
-        if (receiver == null) {
-            receiver = new Receiver(rover);
-        }
-    }
-
-    /**
-     * Method to return the instance of this class
-     * @return  Receiver
+     * Method to start receiving data: the channel is handed to the shared event loop
      */
-    public static Receiver fetchInstance() {
-        if (receiver != null) return receiver;
-        return null;
+    public void listen() {
+        this.eventLoop = EventLoop.fetchInstance();
+        this.eventLoop.register(this.channel, this);
     }
 
     /**
-     * Method to receive data on the socket
+     * Method called by the event loop when datagrams are waiting on the channel
+     * @param key   SelectionKey
+     * @throws IOException
      */
     @Override
-    public void run() {
-        while(true) {
-            try {
-                this.socket.receive(packet);
-                byte[] incomingBytes = packet.getData();
-                int seq = this.getSequenceNumber(incomingBytes);
-                sendingRoverId = incomingBytes[RdtProtocol.SOURCE_ID_POSITION];
-                receivingRoverId = incomingBytes[RdtProtocol.DESTINATION_ID_POSITION];
-                // if receiveing rover id is this rover or is all the rovers
-                if (receivingRoverId == this.rover.getRoverId() || receivingRoverId == 0) {
-                    // if incoming packet is an acknowledgement
-                    if (!this.requestForFileTransfer(incomingBytes)) {
-                        byte byteCommand = incomingBytes[RdtProtocol.COMMAND_FLAG_POSITION];
-                        int command = (int) byteCommand;
-                        System.out.println(">> Received Command: " + command);
-                        if (this.incomingPacketIsAcknowledgement(incomingBytes)) {
-                            System.out.println(">> Received ACK");
-                            break;
-                        }
-                        if (command == CommandMap.ROVER_COMMANDS.get(CommandMap.Constants.FORWARD)) {
-                            System.out.println("Rover has moved forward one unit of distance");
-                        } else if (command == CommandMap.ROVER_COMMANDS.get(CommandMap.Constants.BACK)) {
-                            System.out.println("Rover has moved back one unit of distance");
-                        } else if (command == CommandMap.ROVER_COMMANDS.get(CommandMap.Constants.LEFT)) {
-                            System.out.println("Rover has turned left");
-                        } else if (command == CommandMap.ROVER_COMMANDS.get(CommandMap.Constants.RIGHT)) {
-                            System.out.println("Rover has turned right");
-                        }
-                        System.out.println(">> Sending acknowledgement for movement action");
-                        this.rover.getSenderModule().sendAcknowledgement(currentStartSeqOfPacketArray, sendingRoverId, byteCommand);
-                    } else {
-                        if (this.incomingPacketIsAcknowledgement(incomingBytes)) {
-                            // this.rover.getSenderModule().wait();
-                            currentAck = this.getAcknowledgementNumber(incomingBytes);
-                            System.out.println(">> ACK Received: " + currentAck);
-                            if (this.rover.getSenderModule().verifyAcknowledgement(currentAck)) {
-                                System.out.println(">> ALL OKAY!");
-                                this.notifySender();
-                            }
-                            // if incoming packet is a negative acknowledgement
-                        } else if (this.incomingPacketIsNegativeAcknowledgement(incomingBytes)) {
-                            System.out.println(">> NAK Received: ");
-                            byte[] missingSequenceArray = RdtProtocol.extractData(incomingBytes);
-                            this.notifySenderToResendPackets(missingSequenceArray);
-                        } else if (this.incomingPacketIsFinishMessage(incomingBytes)) {
-                            System.out.println(">> FIN Received: ");
-                            System.out.println(">> File has been downloaded");
-                            System.out.println("------------------------------------------------------------------------------");
-                            break;
-                        } else { // if incoming packet is a datagram with file contents
-                            if (missingSequences.size() > 0 && missingSequences.contains(seq)) { // if there are missing packets check if all have arrived now
-                                System.out.println(">> Received missing packets");
-                                System.out.println(">> Packet Array Size: " + packetArray.size());
-                                this.processIncomingBytes(incomingBytes, seq, sendingRoverId);
-                                missingSequences.remove((Integer)seq);
-                                if (missingSequences.size() == 0) {
-                                    System.out.println(">> Sending ACK for missing packets: ");
-                                    this.rover.getSenderModule().sendAcknowledgement(currentStartSeqOfPacketArray, sendingRoverId, (byte) 5);
-                                }
-                            } else {
-                                this.processIncomingBytes(incomingBytes, seq, sendingRoverId);
-                            }
-                        }
-
-                    }
-                }
-            } catch (IOException e) {
-                if (e.getMessage().equals("Receive timed out") && this.packetArray.size() > 0 && isPacketMissing()) {
-                    System.out.println("[!!!] Processing socket timeout");
-                    this.rover.getSenderModule().sendNegativeAcknowledgement(missingSequences, sendingRoverId);
-                }
+    public void onReadable(SelectionKey key) throws IOException {
+        while (true) {
+            this.packet.clear();
+            if (this.channel.receive(this.packet) == null) return;
+            if (!this.incoming.isValid(this.packet.position())) continue; // truncated or written in another version of the wire format
+            if (this.incoming.isChecksummed() && !this.incoming.hasValidChecksum()) { // corrupted on the way, the gap it leaves is reported like a loss
+                this.corruptDatagrams++;
+                TransferMetrics.aggregate().increment(TransferMetrics.Counter.CORRUPT_DATAGRAMS);
+                continue;
             }
+            this.processPacket();
         }
     }
 
     /**
-     * Method to check if the reqeust is for file transfer
-     * @param   incomingBytes   byte[]
-     */
-    private boolean requestForFileTransfer(byte[] incomingBytes) {
-        return (incomingBytes[RdtProtocol.COMMAND_FLAG_POSITION] == CommandMap.ROVER_COMMANDS.get(CommandMap.Constants.CLICK));
-    }
-
-    /** 
-     * Method to notify sender to resume sending file
+     * Method to process one datagram received on the channel. The header is decoded in place by the flyweight.
+     * @throws IOException
      */
-    private void notifySender() {
-        synchronized(this.rover) {
-            this.rover.notifyAll();
+    private void processPacket() throws IOException {
+        int seq = this.incoming.getSeq();
+        int sessionId = this.incoming.getSessionId();
+        sendingRoverId = this.incoming.getSourceRoverId();
+        receivingRoverId = this.incoming.getDestinationRoverId();
+        if (sendingRoverId == this.rover.getRoverId()) return; // own datagram looped back by the multicast group
+        if (this.incoming.getNak() && receivingRoverId != this.rover.getRoverId() && receivingRoverId != 0) {
+            this.overhearSelectiveAcknowledgement(sessionId);
+            return;
         }
-    }
+        // if receiveing rover id is this rover or is all the rovers
+        if (receivingRoverId == this.rover.getRoverId() || receivingRoverId == 0) {
+            // if incoming packet is an acknowledgement
+            if (!this.requestForFileTransfer()) {
+                byte byteCommand = this.incoming.getCommandFlag();
+                int command = (int) byteCommand;
+                System.out.println(">> Received Command: " + command);
+                if (this.incoming.getAck()) {
+                    System.out.println(">> Received ACK");
+                    return;
+                }
+                byte commandingRoverId = sendingRoverId;
+                int timestamp = this.incoming.getTimestamp();
+                ThreadPoolManager.execute(() -> this.executeCommand(command, sessionId, seq, commandingRoverId, timestamp));
+            } else {
+                if (this.incoming.getOpen()) {
+                    this.processOpen(sessionId);
+                } else if (this.incoming.getProbe()) {
+                    this.processProbe(sessionId);
+                } else if (this.incoming.getAck() && this.incoming.getFin()) {
+                    System.out.println(">> FIN-ACK Received for session " + Integer.toHexString(sessionId));
+                    this.rover.getSenderModule().onFinishAcknowledgement(sessionId, sendingRoverId);
+                } else if (this.incoming.getAck()) {
+                    this.rover.getSenderModule().onAcknowledgement(sessionId, sendingRoverId, this.incoming.getAcknowledgementNumber(), this.incoming.getTimestamp(), this.incoming.getReceiveWindow());
+                    // if incoming packet is a negative acknowledgement
+                } else if (this.incoming.getNak()) {
+                    this.rover.getSenderModule().onSelectiveAcknowledgement(sessionId, sendingRoverId, this.incoming);
+                } else if (this.incoming.getFin()) {
+                    System.out.println(">> FIN Received for session " + Integer.toHexString(sessionId));
+                    this.finishSession(sessionId);
+                } else { // if incoming packet is a datagram with file contents
+                    ReceiveSession session = this.sessionFor(sessionId);
+                    if (session == null) return;
+                    long fileLength = Integer.toUnsignedLong(this.incoming.getAcknowledgementNumber());
+                    int segmentSize = this.incoming.getSegmentSize();
+                    if (segmentSize < RdtProtocol.MINIMUM_SEGMENT_SIZE || segmentSize > RdtProtocol.DATAGRAM_LENGTH) return;
+                    this.payload.limit(RdtProtocol.FIXED_HEADER_SIZE + this.incoming.getLength()).position(RdtProtocol.FIXED_HEADER_SIZE);
+                    if (this.incoming.getRepair()) {
+                        session.onRepair(this.payload, seq, fileLength, segmentSize, this.incoming.getCompressed());
+                    } else if (this.incoming.getLength() <= segmentSize) {
+                        session.onSegment(this.payload, seq, fileLength, segmentSize, this.incoming.getCompressed(), this.incoming.getTimestamp());
+                    }
+                }
 
-    /**
-     * Method to notify sending module to resend missing packets
-     * @param missingSequenceArray  byte[]
-     */
-    private void notifySenderToResendPackets(byte[] missingSequenceArray) {
-        System.out.println(">> Notifying sender to resend missing packets");
-        this.rover.getSenderModule().setResendFlag(true);
-        List<Integer> tempList = new ArrayList<>();
-        for (int index = 0; index < missingSequenceArray.length - 4; index += 4) {
-            tempList.add(
-                ((missingSequenceArray[index] & 0xff) << 24 |
-                (missingSequenceArray[index + 1] & 0xff) << 16 |
-                (missingSequenceArray[index + 2] & 0xff) << 8 |
-                (missingSequenceArray[index + 3] & 0xff) << 0)
-            );
+            }
         }
-        System.out.println("Missing sequence Array Length: " + tempList);
-        this.rover.getSenderModule().setMissingSequenceNumbers(tempList);
-        notifySender();
-    }
-
-    /**
-     * Method to set the file extension of the output file
-     */
-    public void setFileExtension(String extension) {
-        this.fileExtension = extension;
-    }
-
-    /**
-     * Method to set the received file name
-     * @return
-     */
-    private String receivedFileName() {
-        return("received" + "_" + this.generateRandomNumber() + "." + this.fileExtension);
-    }
-
-    /**
-     * Method to fetch the sequence number from the incoming bytes
-     * @param   incomingBytes   byte[]
-     * @return  int
-     */
-    private int getSequenceNumber(byte[] incomingBytes) {
-        return (
-            convertByteToInt(
-                slice(
-                    incomingBytes,
-                    RdtProtocol.SEQ_START_POSITION,
-                    RdtProtocol.SEQ_END_POSITION
-                    )
-                )
-            );
     }
 
     /**
-     * Method to fetch the ackowledgement number from the incoming bytes
-     * @param   incomingBytes   byte[]
-     * @return  int
+     * Method to find the session a data segment belongs to, opening it on the first segment
+     * @param sessionId int
+     * @return          ReceiveSession, or null if the session has already finished or its file is being closed
      */
-    private int getAcknowledgementNumber(byte[] incomingBytes) {
-        return (
-            convertByteToInt(
-                slice(
-                    incomingBytes,
-                    RdtProtocol.ACK_NUMBER_START_POSITION,
-                    RdtProtocol.ACK_NUMBER_END_POSITION
-                    )
-                )
-            );
+    private ReceiveSession sessionFor(int sessionId) {
+        long key = this.sessionKey(sendingRoverId, sessionId);
+        if (this.lastSession != null && this.lastSessionKey == key) return this.lastSession;
+        ReceiveSession session = this.sessions.get(key);
+        if (session == null && !this.finishedSessions.contains(key) && !this.closingSessions.contains(key)) {
+            session = this.openSession(key, sessionId, sendingRoverId, receivingRoverId == 0);
+        }
+        this.lastSession = session;
+        this.lastSessionKey = key;
+        return session;
     }
 
     /**
-     * Method that generates a random number between 0 and 1000
-     * @return  int
+     * Method to create the session of a transfer and index it
+     * @param key               long key of the session
+     * @param sessionId         int
+     * @param roverId           byte rover that sends the file
+     * @param multicast         boolean set when the file is sent to all rovers
+     * @return                  ReceiveSession
      */
-    private int generateRandomNumber() {
-        Random rand = new Random();
-        return rand.nextInt(1000);
+    private ReceiveSession openSession(long key, int sessionId, byte roverId, boolean multicast) {
+        System.out.println(">> Opening session " + Integer.toHexString(sessionId) + " from rover " + roverId);
+        ReceiveSession session = new ReceiveSession(this.rover, this.eventLoop, sessionId, roverId, this.fileExtension, multicast);
+        this.sessions.put(key, session);
+        return session;
     }
 
     /**
-     * Method to slice a portion of the array and return the sliced portion
-     * @param arr       byte[]
-     * @param start     int
-     * @param end       int
-     * @return          byte[]
+     * Method to handle a path MTU probe or its answer. A probe that arrived whole is answered unless its
+     * datagrams would not fit the interface of this rover; answers are passed on to the sending session.
+     * @param sessionId int
      */
-    private byte[] slice(byte[] arr, int start, int end) {
-        byte[] temp = new byte[end - start + 1];
-        for (int index = 0; index < temp.length; index ++) {
-            temp[index] = arr[start];
-            start++;
+    private void processProbe(int sessionId) {
+        int segmentSize = this.incoming.getSegmentSize();
+        if (this.incoming.getAck()) {
+            this.rover.getSenderModule().onProbeAcknowledgement(sessionId, sendingRoverId, segmentSize, this.incoming.getTimestamp());
+        } else if (segmentSize <= this.rover.getSenderModule().getMaximumSegmentSize()
+            && this.incoming.getLength() == RdtProtocol.REPAIR_HEADER_SIZE + segmentSize) {
+            this.rover.getSenderModule().sendProbeAcknowledgement(sessionId, segmentSize, sendingRoverId, this.incoming.getTimestamp());
         }
-        return temp;
-    }
-
-    /**
-     * Method to convert bytes to integer
-     * @param byteArr   byte[]
-     * @return          int
-     */
-    private int convertByteToInt(byte[] byteArr) {
-        return ((byteArr[0] & 0xff) << 24 | (byteArr[1] & 0xff) << 16 | (byteArr[2] & 0xff) << 8 | (byteArr[3] & 0xff) << 0);
     }
 
     /**
-     * Method to check if any packet is missing based on the sequence numbers received
-     * @return boolean
+     * Method to carry out a movement command and acknowledge it. Runs on the session executor, so the event loop
+     * goes on with the next datagram while the rover moves; the fields of the command are copied out of the
+     * receive buffer before it is handed over.
+     * @param command           int
+     * @param sessionId         int
+     * @param seq               int
+     * @param commandingRoverId byte
+     * @param timestamp         int send time of the command, echoed in the acknowledgement
      */
-    private boolean isPacketMissing() {
-        boolean isMissing = false;
-        Set<Integer> sequences = packetArray.keySet();
-        int minSequence = previousStartSeqOfPacketArray;
-        int maxSequence = previousStartSeqOfPacketArray + (BUFFER_SIZE - 1);
-        for (int index = minSequence; index <= maxSequence; index++) {
-            if (!sequences.contains(index)) {
-                isMissing = true;
-                missingSequences.add(index);
-            }
-        }
-        if(!isMissing) {
-            System.out.println(">> No Missing Packets...");
-        } else {
-            System.out.println(">> Missing packets with sequence numbers: " + Arrays.toString(missingSequences.toArray()));
+    private void executeCommand(int command, int sessionId, int seq, byte commandingRoverId, int timestamp) {
+        if (command == CommandMap.ROVER_COMMANDS.get(CommandMap.Constants.FORWARD)) {
+            System.out.println("Rover has moved forward one unit of distance");
+        } else if (command == CommandMap.ROVER_COMMANDS.get(CommandMap.Constants.BACK)) {
+            System.out.println("Rover has moved back one unit of distance");
+        } else if (command == CommandMap.ROVER_COMMANDS.get(CommandMap.Constants.LEFT)) {
+            System.out.println("Rover has turned left");
+        } else if (command == CommandMap.ROVER_COMMANDS.get(CommandMap.Constants.RIGHT)) {
+            System.out.println("Rover has turned right");
         }
-        return isMissing;
+        System.out.println(">> Sending acknowledgement for movement action");
+        this.rover.getSenderModule().sendAcknowledgement(sessionId, seq + 1, commandingRoverId, (byte) command, timestamp, RdtProtocol.WINDOW_SIZE);
     }
 
     /**
-     * Method to check if the arriving packets at the buffer are in sequence
-     * @return boolean
+     * Method to handle an OPEN or its answer. The receiver accepts the proposed segment size if its datagrams fit
+     * the receive buffer, the smaller of the two windows, and the features it supports. An OPEN reopens a finished
+     * session, and replaces one that is open with another layout: the disk stage closes the old file and the new
+     * session opens after that, while the OPENs and segments that arrive meanwhile are dropped and sent again.
+     * @param sessionId int
+     * @throws IOException
      */
-    private boolean isPacketInSequence() {
-        List<Integer> sequenceList = new ArrayList<>();
-        for (Map.Entry<Integer, byte[]> entry : packetArray.entrySet()) {
-            sequenceList.add(entry.getKey());
+    private void processOpen(int sessionId) throws IOException {
+        if (this.incoming.getAck()) {
+            this.rover.getSenderModule().onOpenAcknowledgement(sessionId, sendingRoverId, this.incoming);
+            return;
         }
-        int minSequence = Collections.min(sequenceList);
-        int maxSequence = Collections.max(sequenceList);
-        for (int index = minSequence; index <= maxSequence; index++) {
-            if (index != sequenceList.get(index - minSequence)) {
-                System.out.println(">> Packet arrived out of sequence: " + sequenceList.get(index));
-                return false;
-            }
+        long fileLength = Integer.toUnsignedLong(this.incoming.getAcknowledgementNumber());
+        int segmentSize = this.incoming.getSegmentSize();
+        int timestamp = this.incoming.getTimestamp();
+        if (segmentSize < RdtProtocol.MINIMUM_SEGMENT_SIZE || segmentSize > RdtProtocol.DATAGRAM_LENGTH) {
+            System.out.println("[!!!] Refusing session " + Integer.toHexString(sessionId) + ": " + segmentSize + "-byte segments do not fit the receive buffer");
+            this.rover.getSenderModule().sendOpenAcknowledgement(sessionId, RdtProtocol.DATAGRAM_LENGTH, 0, 0, null, 0, sendingRoverId, timestamp);
+            return;
+        }
+        int window = Math.min(Math.max(1, this.incoming.getOpenWindow()), RdtProtocol.WINDOW_SIZE);
+        int features = this.incoming.getOpenFeatures() & RdtProtocol.SUPPORTED_FEATURES;
+        String extension = this.incoming.getOpenExtension();
+        if (!extension.matches("[A-Za-z0-9]*")) extension = "";
+        long key = this.sessionKey(sendingRoverId, sessionId);
+        if (this.closingSessions.contains(key)) return; // the sender opens it again once the file is closed
+        this.finishedSessions.remove(key);
+        ReceiveSession session = this.sessionFor(sessionId);
+        if (!session.onOpen(fileLength, segmentSize, window, features, extension, timestamp)) {
+            System.out.println("[!!!] Session " + Integer.toHexString(sessionId) + " was restarted with another layout, starting over");
+            this.sessions.remove(key);
+            this.lastSession = null;
+            this.closingSessions.add(key);
+            byte roverId = sendingRoverId;
+            boolean multicast = receivingRoverId == 0;
+            String openExtension = extension;
+            session.discard(() -> this.eventLoop.execute(() -> {
+                this.closingSessions.remove(key);
+                try {
+                    this.openSession(key, sessionId, roverId, multicast).onOpen(fileLength, segmentSize, window, features, openExtension, timestamp);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }));
         }
-        System.out.println(">> Packets arrived in sequence....");
-        return true;
-    }
-
-    /**
-     * Method to sort the packets based on the sequence numbers
-     * @return TreeMap<Integer, byte[]>
-     */
-    private TreeMap<Integer, byte[]> arrangePacketsInSequence() {
-        TreeMap<Integer, byte[]> sortedPackets = new TreeMap<>();
-        System.out.println(">> Sorting packets in sequence....");
-        sortedPackets.putAll(packetArray);
-        previousStartSeqOfPacketArray = sortedPackets.firstKey();
-        currentStartSeqOfPacketArray = sortedPackets.lastKey() + 1;
-        return sortedPackets;
     }
 
     /**
-     * Method to check if the incoming packet is an acknowledgement
-     * @param incomingBytes byte[]
-     * @return              boolean
+     * Method to pass a selective acknowledgement that another receiver sent to the source of a multicast session
+     * on to this receiver's session, so that it does not request the same holes again
+     * @param sessionId int
      */
-    private boolean incomingPacketIsAcknowledgement(byte[] incomingBytes) {
-        return (incomingBytes[RdtProtocol.ACK_FLAG_POSITION] == TRUE);
+    private void overhearSelectiveAcknowledgement(int sessionId) {
+        ReceiveSession session = this.sessions.get(this.sessionKey(receivingRoverId, sessionId));
+        if (session != null) session.onOverheardSelectiveAcknowledgement(this.incoming);
     }
 
     /**
-     * Method to check if the incoming packet is a negative acknowledgement
-     * @param incomingBytes byte[]
-     * @return              boolean
+     * Method to close the output file of a session when its FIN arrives, check it against the digest the FIN
+     * carries and acknowledge the FIN once the disk stage has closed the file, so an acknowledged file is on disk
+     * as durably as rdt.fsync asks. A repeated FIN, sent because the FIN-ACK was lost, is acknowledged again;
+     * one that arrives while the file is still being closed is left to the acknowledgement on its way.
+     * @param sessionId int
      */
-    private boolean incomingPacketIsNegativeAcknowledgement(byte[] incomingBytes) {
-        return (incomingBytes[RdtProtocol.NAK_FLAG_POSITION] == TRUE);
-    }
-
-    private boolean incomingPacketIsFinishMessage(byte[] incomingBytes) {
-        return (incomingBytes[RdtProtocol.FIN_FLAG_POSITION] == TRUE);
+    private void finishSession(int sessionId) {
+        long key = this.sessionKey(sendingRoverId, sessionId);
+        if (this.closingSessions.contains(key)) return;
+        ReceiveSession session = this.sessions.remove(key);
+        if (this.lastSessionKey == key) this.lastSession = null;
+        if (session != null) {
+            byte roverId = sendingRoverId;
+            byte[] digest = (this.incoming.getLength() == RdtProtocol.DIGEST_SIZE) ? this.incoming.getPayload() : null;
+            this.closingSessions.add(key);
+            session.endWireImage(Integer.toUnsignedLong(this.incoming.getAcknowledgementNumber()));
+            session.close(() -> this.eventLoop.execute(() -> {
+                this.closingSessions.remove(key);
+                session.verifyDigest(digest);
+                this.rover.getSenderModule().sendFinishAcknowledgement(sessionId, roverId, (byte) 5);
+            }));
+            this.finishedSessions.add(key);
+            System.out.println(">> File has been downloaded");
+            System.out.println("------------------------------------------------------------------------------");
+            return;
+        }
+        this.rover.getSenderModule().sendFinishAcknowledgement(sessionId, sendingRoverId, (byte) 5);
     }
 
     /**
-     * Method to process the incoming bytes and deliver to the application layer at the receiving end
-     * @param incomingBytes     byte[]
-     * @param seq               int
-     * @param sendingRoverId    byte
-     * @throws IOException
+     * Method to combine the sending rover and the session ID into the key of a session
+     * @param roverId   byte
+     * @param sessionId int
+     * @return          long
      */
-    private void processIncomingBytes(byte[] incomingBytes, int seq, byte sendingRoverId) throws IOException {
-        byte[] relevantBytes = RdtProtocol.extractData(incomingBytes);
-        if (packetArray.size() < BUFFER_SIZE - 1) {
-            packetArray.put(seq, relevantBytes);
-        } else if (packetArray.size() == BUFFER_SIZE - 1) {
-            packetArray.put(seq, relevantBytes);
-            List<Integer> tempList = new ArrayList<>();
-            for (Map.Entry<Integer, byte[]> entry : packetArray.entrySet()) {
-                tempList.add(entry.getKey());
-            }
-            previousStartSeqOfPacketArray = currentStartSeqOfPacketArray;
-            currentStartSeqOfPacketArray = Collections.max(tempList) + 1;
-            if (!isPacketMissing()) {
-                if (isPacketInSequence()) {
-                    this.writeToFile(packetArray);
-                } else {
-                    TreeMap<Integer, byte[]> sorted = arrangePacketsInSequence();
-                    this.writeToFile(sorted);
-                }
-                this.runGarbageCollector();
-                this.rover.getSenderModule().sendAcknowledgement(currentStartSeqOfPacketArray, sendingRoverId, (byte) 5);
-            } else {
-                this.rover.getSenderModule().sendNegativeAcknowledgement(missingSequences, sendingRoverId);
-            }
-            System.out.println(">> Next exptected SEQ: " + currentStartSeqOfPacketArray);
-            System.out.println("------------------------------------------------------------------------------");
-        }
+    private long sessionKey(byte roverId, int sessionId) {
+        return ((long) roverId << 32) | Integer.toUnsignedLong(sessionId);
     }
 
     /**
-     * Method to write bytes to output file
-     * @throws IOException
+     * Method to check if the reqeust is for file transfer
+     * @return  boolean
      */
-    private void writeToFile(Map<Integer, byte[]> sortedPackets) throws IOException {
-        System.out.println(">> Writing to file....");
-        for (Map.Entry<Integer, byte[]> entry : sortedPackets.entrySet()) {
-            fos.write(entry.getValue());
-        }
+    private boolean requestForFileTransfer() {
+        return (this.incoming.getCommandFlag() == CommandMap.ROVER_COMMANDS.get(CommandMap.Constants.CLICK));
     }
 
     /**
-     * Method to empty the receiving buffer
+     * Method to set the file extension of the output file
      */
-    private void runGarbageCollector() {
-        System.out.println(">> Cleaning buffer to accept new packets....");
-        this.packetArray = new LinkedHashMap<>(BUFFER_SIZE);
+    public void setFileExtension(String extension) {
+        this.fileExtension = extension;
     }
 }
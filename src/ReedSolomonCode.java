@@ -0,0 +1,190 @@
+import java.util.Arrays;
+
+/**
+ * Cauchy Reed-Solomon erasure code over GF(256). Repair shard j is the sum over the data shards i of
+ * d_i * 1 / (x_j + y_i) with x_j = k + j and y_i = i. Every square submatrix of a Cauchy matrix is invertible,
+ * so any k of the k + m shards rebuild the block, for k + m up to 256.
+ */
+public class ReedSolomonCode implements ErasureCode {
+    public static final int FIELD_SIZE          = 256;
+    public static final int PRIMITIVE_POLYNOMIAL = 0x11d; // x^8 + x^4 + x^3 + x^2 + 1
+    private static final int[] EXP = new int[2 * FIELD_SIZE]; // powers of the generator 2
+    private static final int[] LOG = new int[FIELD_SIZE]; // discrete logarithm of every non-zero element
+    private static final byte[][] MULTIPLY = new byte[FIELD_SIZE][FIELD_SIZE]; // full product table, one row per coefficient
+    // Class fields
+    private int dataSegments; // k
+    private int repairSegments; // m
+    private int[][] cauchy; // m x k generator rows of the repair shards
+
+    static {
+        int value = 1;
+        for (int power = 0; power < FIELD_SIZE - 1; power++) {
+            EXP[power] = value;
+            LOG[value] = power;
+            value <<= 1;
+            if (value >= FIELD_SIZE) value ^= PRIMITIVE_POLYNOMIAL;
+        }
+        for (int power = FIELD_SIZE - 1; power < EXP.length; power++) {
+            EXP[power] = EXP[power - (FIELD_SIZE - 1)];
+        }
+        for (int a = 0; a < FIELD_SIZE; a++) {
+            for (int b = 0; b < FIELD_SIZE; b++) {
+                MULTIPLY[a][b] = (byte) multiply(a, b);
+            }
+        }
+    }
+
+    /**
+     * Constructor for this class
+     * @param dataSegments      int k
+     * @param repairSegments    int m
+     */
+    public ReedSolomonCode(int dataSegments, int repairSegments) {
+        if (dataSegments + repairSegments > FIELD_SIZE) {
+            throw new IllegalArgumentException("k + m must not exceed " + FIELD_SIZE);
+        }
+        this.dataSegments = dataSegments;
+        this.repairSegments = repairSegments;
+        this.cauchy = new int[repairSegments][dataSegments];
+        for (int row = 0; row < repairSegments; row++) {
+            for (int column = 0; column < dataSegments; column++) {
+                this.cauchy[row][column] = inverse((dataSegments + row) ^ column);
+            }
+        }
+    }
+
+    /**
+     * Method to multiply two field elements
+     * @param a int
+     * @param b int
+     * @return  int
+     */
+    private static int multiply(int a, int b) {
+        if (a == 0 || b == 0) return 0;
+        return EXP[LOG[a] + LOG[b]];
+    }
+
+    /**
+     * Method to invert a non-zero field element
+     * @param a int
+     * @return  int
+     */
+    private static int inverse(int a) {
+        return EXP[FIELD_SIZE - 1 - LOG[a]];
+    }
+
+    /**
+     * Method to add coefficient * source to target, byte by byte
+     * @param target        byte[]
+     * @param source        byte[]
+     * @param coefficient   int
+     * @param length        int
+     */
+    private static void multiplyAdd(byte[] target, byte[] source, int coefficient, int length) {
+        if (coefficient == 0) return;
+        byte[] row = MULTIPLY[coefficient];
+        for (int index = 0; index < length; index++) {
+            target[index] ^= row[source[index] & 0xff];
+        }
+    }
+
+    @Override
+    public byte getType() {
+        return REED_SOLOMON_TYPE;
+    }
+
+    @Override
+    public int getDataSegments() {
+        return this.dataSegments;
+    }
+
+    @Override
+    public int getRepairSegments() {
+        return this.repairSegments;
+    }
+
+    @Override
+    public void encode(byte[][] data, byte[][] repairs, int length) {
+        for (int row = 0; row < this.repairSegments; row++) {
+            Arrays.fill(repairs[row], 0, length, (byte) 0);
+            for (int column = 0; column < this.dataSegments; column++) {
+                multiplyAdd(repairs[row], data[column], this.cauchy[row][column], length);
+            }
+        }
+    }
+
+    @Override
+    public boolean decode(byte[][] shards, boolean[] present, int length) {
+        int k = this.dataSegments;
+        int[] chosen = new int[k]; // the k received shards the block is rebuilt from, data shards first
+        int count = 0;
+        boolean complete = true;
+        for (int shard = 0; shard < k + this.repairSegments && count < k; shard++) {
+            if (present[shard]) {
+                chosen[count++] = shard;
+            } else if (shard < k) {
+                complete = false;
+            }
+        }
+        if (complete) return true;
+        if (count < k) return false;
+        int[][] matrix = new int[k][];
+        for (int row = 0; row < k; row++) {
+            matrix[row] = new int[k];
+            if (chosen[row] < k) {
+                matrix[row][chosen[row]] = 1;
+            } else {
+                System.arraycopy(this.cauchy[chosen[row] - k], 0, matrix[row], 0, k);
+            }
+        }
+        int[][] decoding = invert(matrix);
+        for (int shard = 0; shard < k; shard++) {
+            if (present[shard]) continue;
+            Arrays.fill(shards[shard], 0, length, (byte) 0);
+            for (int column = 0; column < k; column++) {
+                multiplyAdd(shards[shard], shards[chosen[column]], decoding[shard][column], length);
+            }
+        }
+        for (int shard = 0; shard < k; shard++) {
+            present[shard] = true;
+        }
+        return true;
+    }
+
+    /**
+     * Method to invert a square matrix over GF(256) by Gauss-Jordan elimination
+     * @param matrix    int[][] invertible matrix, destroyed
+     * @return          int[][]
+     */
+    private static int[][] invert(int[][] matrix) {
+        int size = matrix.length;
+        int[][] result = new int[size][size];
+        for (int row = 0; row < size; row++) {
+            result[row][row] = 1;
+        }
+        for (int column = 0; column < size; column++) {
+            int pivot = column;
+            while (matrix[pivot][column] == 0) pivot++;
+            int[] swap = matrix[pivot];
+            matrix[pivot] = matrix[column];
+            matrix[column] = swap;
+            swap = result[pivot];
+            result[pivot] = result[column];
+            result[column] = swap;
+            int scale = inverse(matrix[column][column]);
+            for (int index = 0; index < size; index++) {
+                matrix[column][index] = multiply(matrix[column][index], scale);
+                result[column][index] = multiply(result[column][index], scale);
+            }
+            for (int row = 0; row < size; row++) {
+                int factor = matrix[row][column];
+                if (row == column || factor == 0) continue;
+                for (int index = 0; index < size; index++) {
+                    matrix[row][index] ^= multiply(factor, matrix[column][index]);
+                    result[row][index] ^= multiply(factor, result[column][index]);
+                }
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,128 @@
+import java.util.Arrays;
+
+/**
+ * Repair shards a ReceiveSession holds for the incomplete blocks of its receive window. A block lives in the slot
+ * block mod capacity, tagged with its number, and the capacity covers every block the window can overlap, so
+ * no two live blocks share a slot. Lookups, inserts and duplicate checks are O(1) on primitive arrays, and the
+ * shard buffers of a slot are allocated the first time it is used and reused by every block after it, so a
+ * repair segment creates no garbage.
+ */
+public class RepairWindow {
+    public static final int FREE = -1; // tag of a slot that holds no block
+    // Class fields
+    private int[] blocks; // block held by every slot, FREE when none
+    private int[] counts; // repair shards received for the block of every slot
+    private boolean[][] present; // set for every repair shard of the block of a slot that has been received
+    private byte[][][] shards; // repair shards of every slot, allocated on first use
+    private int mask; // capacity - 1, the capacity being a power of two
+    private int repairSegments; // repair shards per block
+    private int segmentSize; // bytes per shard
+    private int live = 0; // slots that hold a block
+
+    /**
+     * Constructor for this class
+     * @param window            int receive window in segments
+     * @param dataSegments      int data segments per block
+     * @param repairSegments    int repair segments per block
+     * @param segmentSize       int bytes per shard
+     */
+    public RepairWindow(int window, int dataSegments, int repairSegments, int segmentSize) {
+        int capacity = Integer.highestOneBit(Math.max(1, window / dataSegments + 2) * 2 - 1);
+        this.blocks = new int[capacity];
+        this.counts = new int[capacity];
+        this.present = new boolean[capacity][repairSegments];
+        this.shards = new byte[capacity][][];
+        this.mask = capacity - 1;
+        this.repairSegments = repairSegments;
+        this.segmentSize = segmentSize;
+        Arrays.fill(this.blocks, FREE);
+    }
+
+    /**
+     * Getter for the number of blocks the window can hold
+     * @return  int
+     */
+    public int capacity() {
+        return this.mask + 1;
+    }
+
+    /**
+     * Method to check if no block holds repair shards
+     * @return  boolean
+     */
+    public boolean isEmpty() {
+        return this.live == 0;
+    }
+
+    /**
+     * Method to check if a block holds repair shards
+     * @param block int
+     * @return      boolean
+     */
+    public boolean contains(int block) {
+        return this.live != 0 && this.blocks[block & this.mask] == block;
+    }
+
+    /**
+     * Method to claim the buffer of a repair shard, so the caller can copy the shard into it
+     * @param block int
+     * @param index int index of the repair shard in its block
+     * @return      byte[] buffer of the shard, null if it was received already or the slot holds another block
+     */
+    public byte[] add(int block, int index) {
+        int slot = block & this.mask;
+        if (this.blocks[slot] != block) {
+            if (this.blocks[slot] != FREE) return null;
+            this.blocks[slot] = block;
+            this.live++;
+            if (this.shards[slot] == null) this.shards[slot] = new byte[this.repairSegments][this.segmentSize];
+        }
+        if (this.present[slot][index]) return null;
+        this.present[slot][index] = true;
+        this.counts[slot]++;
+        return this.shards[slot][index];
+    }
+
+    /**
+     * Getter for the number of repair shards a block holds
+     * @param block int
+     * @return      int
+     */
+    public int count(int block) {
+        return this.contains(block) ? this.counts[block & this.mask] : 0;
+    }
+
+    /**
+     * Getter for a repair shard of a block
+     * @param block int
+     * @param index int
+     * @return      byte[] null if the shard has not been received
+     */
+    public byte[] shard(int block, int index) {
+        int slot = block & this.mask;
+        return (this.contains(block) && this.present[slot][index]) ? this.shards[slot][index] : null;
+    }
+
+    /**
+     * Method to free the slot of a block, keeping its buffers for the next block
+     * @param block int
+     */
+    public void remove(int block) {
+        int slot = block & this.mask;
+        if (this.blocks[slot] != block) return;
+        this.blocks[slot] = FREE;
+        this.counts[slot] = 0;
+        Arrays.fill(this.present[slot], false);
+        this.live--;
+    }
+
+    /**
+     * Method to free every block below the given one
+     * @param block int
+     */
+    public void removeBelow(int block) {
+        for (int slot = 0; this.live != 0 && slot <= this.mask; slot++) {
+            if (this.blocks[slot] != FREE && this.blocks[slot] < block) this.remove(this.blocks[slot]);
+        }
+    }
+}
@@ -1,5 +1,4 @@
 import java.io.File;
-import java.util.concurrent.ExecutorService;
 
 /**
  * This is the class that outlines the Rover and its functionalities
@@ -16,7 +15,6 @@ public class Rover extends Thread {
     private Receiver receiverModule; // the rdt receiver that is responsible to receive data
     private Sender senderModule; // the rdt sender that is responsible for sending data
     private byte destinationRoverId; // Rover to which data needs to be sent
-    public static Rover rover = null; // an instance of this class
     private String filePath = null; // path of the file to be sent by this rover
     private String action = null; // Sender or Receiver
     private byte command; // command instructed by the operator of the Rover
@@ -34,8 +32,7 @@ public class Rover extends Thread {
         this.multicastIP = multicastIP;
         this.action = action;
         this.command = command;
-        Receiver.createInstance(this);
-        this.receiverModule = Receiver.fetchInstance();
+        this.receiverModule = new Receiver(this);
         System.out.println("Initializing Receiver Module: " + this.receiverModule.hashCode());
         System.out.println("------------------------------------------------");
         this.senderModule = new Sender(this, this.destinationRoverId, this.destinationPort);
@@ -45,28 +42,6 @@ public class Rover extends Thread {
         System.out.println();
     }
 
-    /**
-     * Method to create an instance of Rover and assign it to the static variable
-     * @param roverId               byte
-     * @param destinationRoverId    byte
-     * @param port                  int
-     * @param multicastIP           String
-     */
-    public static void createInstance(byte roverId, byte destinationRoverId, int port, String multicastIP, String action, byte command) {
-        if (rover == null) {
-            rover = new Rover(roverId, destinationRoverId, port, multicastIP, action, command);
-        }
-    }
-
-    /**
-     * Static method that returns the current instance of this class
-     * @return Rover
-     */
-    public static Rover fetchInstance() {
-        if (rover != null) return rover;
-        return null;
-    }
-
     /**
      * Initialize sender and receiver modules and starts listening on the defined port
      */
@@ -144,22 +119,16 @@ public class Rover extends Thread {
      * @param filePath  String
      */
     public void sendFile() {
-        this.senderModule.setFile(new File(this.filePath));
-        this.senderModule.setSendFile(true);
-        this.senderModule.setCommandFlag((byte) 5);
         this.receiverModule.setFileExtension(getFileExtension());
-        ExecutorService service = ThreadPoolManager.getThread();
-        service.execute(this.senderModule);
-        System.out.println("Sender terminating...");
-        service.shutdown();
+        this.senderModule.sendFile(new File(this.filePath), (byte) 5);
     }
 
+    /**
+     * Method to send the command of the operator to the destination rover
+     */
     public void sendCommand() {
         System.out.println("Sending command to Rover: " + this.command);
-        this.senderModule.setSendFile(false);
-        this.senderModule.setCommandFlag(this.command);
-        ExecutorService service = ThreadPoolManager.getThread();
-        service.execute(this.senderModule);
+        this.senderModule.sendCommand(this.command);
     }
 
     /**
@@ -173,9 +142,9 @@ public class Rover extends Thread {
     }
 
     /**
-     * Method to receive data
+     * Method to receive data: the receiver module is registered with the shared event loop
      */
     private void receiveData() {
-        ThreadPoolManager.getThread().execute(this.receiverModule);
+        this.receiverModule.listen();
     }
 }
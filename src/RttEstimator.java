@@ -0,0 +1,99 @@
+/**
+ * Round trip time estimator for one peer rover (Jacobson/Karels, RFC 6298).
+ * Samples come from the timestamps that the peer echoes back in its acknowledgements and drive
+ * the retransmission timeout, which is doubled on every expiry until a fresh sample arrives.
+ */
+public class RttEstimator {
+    public static final long INITIAL_RTO_NANOS = 1_000_000_000L; // RTO before the first sample
+    public static final long MINIMUM_RTO_NANOS = 200_000_000L;
+    public static final long MAXIMUM_RTO_NANOS = 60_000_000_000L;
+    public static final long CLOCK_GRANULARITY_NANOS = 1_000_000L;
+    // Class fields
+    private long smoothedRttNanos = 0; // SRTT
+    private long rttVarianceNanos = 0; // RTTVAR
+    private long retransmissionTimeoutNanos = INITIAL_RTO_NANOS; // RTO without backoff
+    private int backoff = 0; // number of consecutive timeouts since the last sample
+
+    /**
+     * Method to return the estimator kept for a peer rover in the peer cache, creating it on first use
+     * @param roverId   byte
+     * @return          RttEstimator
+     */
+    public static RttEstimator forPeer(byte roverId) {
+        return PeerCache.forPeer(roverId).getRttEstimator();
+    }
+
+    /**
+     * Method to read the local clock in the format carried by the TIMESTAMP header field
+     * @return  int microseconds, never 0 so that 0 can mean "no timestamp"
+     */
+    public static int currentTimestamp() {
+        int timestamp = (int) (System.nanoTime() / 1_000);
+        return (timestamp == 0) ? 1 : timestamp;
+    }
+
+    /**
+     * Method to convert an echoed timestamp into a round trip time sample
+     * @param echoedTimestamp   int
+     * @return                  long nanoseconds, or 0 if there is no usable sample
+     */
+    public static long elapsedSince(int echoedTimestamp) {
+        if (echoedTimestamp == 0) return 0;
+        int elapsedMicros = currentTimestamp() - echoedTimestamp;
+        return (elapsedMicros <= 0) ? 0 : elapsedMicros * 1_000L;
+    }
+
+    /**
+     * Method to fold a round trip time sample into the estimate
+     * @param rttNanos  long
+     */
+    public synchronized void onSample(long rttNanos) {
+        if (rttNanos <= 0) return;
+        if (smoothedRttNanos == 0) {
+            smoothedRttNanos = rttNanos;
+            rttVarianceNanos = rttNanos / 2;
+        } else {
+            rttVarianceNanos = (3 * rttVarianceNanos + Math.abs(smoothedRttNanos - rttNanos)) / 4;
+            smoothedRttNanos = (7 * smoothedRttNanos + rttNanos) / 8;
+        }
+        long rto = smoothedRttNanos + Math.max(CLOCK_GRANULARITY_NANOS, 4 * rttVarianceNanos);
+        retransmissionTimeoutNanos = Math.min(MAXIMUM_RTO_NANOS, Math.max(MINIMUM_RTO_NANOS, rto));
+        backoff = 0;
+    }
+
+    /**
+     * Method to double the retransmission timeout after a timer expired
+     */
+    public synchronized void onTimeout() {
+        if ((retransmissionTimeoutNanos << (backoff + 1)) <= MAXIMUM_RTO_NANOS) backoff++;
+    }
+
+    /**
+     * Getter for the retransmission timeout including the exponential backoff
+     * @return  long nanoseconds
+     */
+    public synchronized long getRetransmissionTimeout() {
+        return Math.min(MAXIMUM_RTO_NANOS, retransmissionTimeoutNanos << backoff);
+    }
+
+    /**
+     * Getter for the smoothed round trip time
+     * @return  long nanoseconds, 0 before the first sample
+     */
+    public synchronized long getSmoothedRtt() {
+        return smoothedRttNanos;
+    }
+
+    /**
+     * Getter for the round trip time variance
+     * @return  long nanoseconds
+     */
+    public synchronized long getRttVariance() {
+        return rttVarianceNanos;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "srtt=" + smoothedRttNanos / 1_000 + "us rttvar=" + rttVarianceNanos / 1_000 + "us rto=" + getRetransmissionTimeout() / 1_000_000 + "ms";
+    }
+}
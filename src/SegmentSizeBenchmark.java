@@ -0,0 +1,55 @@
+import java.io.File;
+
+/**
+ * Benchmark that sends the same file once for every segment size and prints the goodput of each transfer.
+ * A receiving rover and a sending rover run in this one process and talk over the multicast group, so the
+ * numbers include the whole protocol: probing is skipped, every other part of a session runs as usual.
+ *
+ * Usage: java SegmentSizeBenchmark <port> <multicastIP> <file> [segment sizes...]
+ */
+public class SegmentSizeBenchmark {
+    public static final byte RECEIVING_ROVER_ID = 2;
+    public static final byte SENDING_ROVER_ID   = 1;
+
+    public static void main(String[] args) {
+        new CommandMap();
+        int port = Integer.parseInt(args[0]);
+        String multicastIP = args[1];
+        File file = new File(args[2]);
+        int[] segmentSizes;
+        if (args.length > 3) {
+            segmentSizes = new int[args.length - 3];
+            for (int index = 0; index < segmentSizes.length; index++) {
+                segmentSizes[index] = Integer.parseInt(args[index + 3]);
+            }
+        } else {
+            segmentSizes = new int[SendSession.PROBE_MTUS.length];
+            for (int index = 0; index < segmentSizes.length; index++) {
+                segmentSizes[index] = RdtProtocol.segmentSizeFor(SendSession.PROBE_MTUS[index]);
+            }
+        }
+        Rover receiver = new Rover(RECEIVING_ROVER_ID, SENDING_ROVER_ID, port, multicastIP, CommandMap.Constants.RECEIVER, (byte) 0);
+        Rover sender = new Rover(SENDING_ROVER_ID, RECEIVING_ROVER_ID, port, multicastIP, CommandMap.Constants.SENDER, (byte) 5);
+        receiver.getReceiverModule().listen();
+        sender.getReceiverModule().listen();
+        sender.setFilePath(file.getPath());
+        receiver.getReceiverModule().setFileExtension(sender.getFileExtension());
+        long[] nanos = new long[segmentSizes.length];
+        for (int index = 0; index < segmentSizes.length; index++) {
+            long start = System.nanoTime();
+            SendSession session = sender.getSenderModule().sendFile(file, (byte) 5, segmentSizes[index]);
+            session.awaitCompletion();
+            nanos[index] = System.nanoTime() - start;
+            new File(ReceiveSession.receivedFileName(session.getSessionId(), sender.getFileExtension())).delete();
+        }
+        System.out.println();
+        System.out.println("Goodput for " + file.getName() + " (" + file.length() + " bytes):");
+        for (int index = 0; index < segmentSizes.length; index++) {
+            double seconds = nanos[index] / 1e9;
+            System.out.println(String.format("  %5d-byte segments (%5d-byte datagrams): %8.2f Mbit/s in %.3f s",
+                segmentSizes[index], RdtProtocol.FIXED_HEADER_SIZE + segmentSizes[index] + RdtProtocol.IP_UDP_HEADER_SIZE,
+                file.length() * 8 / seconds / 1e6, seconds));
+        }
+        System.exit(0);
+    }
+}
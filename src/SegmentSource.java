@@ -0,0 +1,71 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Interface for what a SendSession reads its segments from: the mapping of the file, or the compression stage
+ * that turns the file into its wire image on the way to the network. Payloads are views that stay valid until
+ * the next call, so no buffer is allocated per segment.
+ */
+public interface SegmentSource extends AutoCloseable {
+    /**
+     * Getter for the length the data segments announce
+     * @return  long bytes
+     */
+    long length();
+
+    /**
+     * Method to return the number of segments of the stream, as far as it is known
+     * @return  int
+     */
+    int segmentCount();
+
+    /**
+     * Method to prepare the stream up to the given segment and return the number of segments it has, as far as
+     * that is known then
+     * @param seq   int sequence number, starting at 1
+     * @return      int
+     */
+    int reach(int seq);
+
+    /**
+     * Method to return the payload of a segment as a reusable view
+     * @param seq   int sequence number, starting at 1
+     * @return      ByteBuffer with the segment bytes remaining; shorter than the segment size for the last segment
+     */
+    ByteBuffer payload(int seq);
+
+    /**
+     * Method to drop what is only needed by the segments below the given sequence
+     * @param seq   int first sequence still in use
+     */
+    void release(int seq);
+
+    /**
+     * Getter for the number of file regions mapped so far
+     * @return  int
+     */
+    int getMappedRegions();
+
+    /**
+     * Method to start loading the file ahead of the session
+     */
+    void startPrefetch();
+
+    /**
+     * Method to tell the prefetch task which segment is being sent
+     * @param seq   int
+     */
+    void advancePrefetch(int seq);
+
+    /**
+     * Method to end the prefetch task
+     */
+    void stopPrefetch();
+
+    /**
+     * Method to end the prefetch task and close the file
+     * @throws IOException
+     */
+    @Override
+    void close() throws IOException;
+}
@@ -0,0 +1,1025 @@
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * One file transfer of the Sender. Every session has its own session ID, sequence space, window,
+ * retransmission timers and congestion state, so any number of transfers can run side by side.
+ * A transfer to all rovers (destination 0) is a multicast session: every receiver that sends feedback becomes a
+ * member, the window advances at the pace of the slowest member, and one retransmission to the group repairs
+ * a segment for every member that lost it.
+ * The OPEN in front of the first segment negotiates the window and the optional features of the session and asks
+ * the receivers which segments they already hold from an interrupted transfer of the same file, so only the
+ * others are sent. A unicast session to a peer with freshly negotiated parameters does not wait for the answer.
+ * All the state of a session belongs to its own thread: the event loop hands acknowledgements, answers and
+ * expired timers over through an EventRing, which the session drains between the segments it sends.
+ */
+public class SendSession implements Runnable {
+    public static final int MAXIMUM_FIN_ATTEMPTS = 5; // FIN transmissions before the session gives up on the FIN-ACK
+    public static final int MAXIMUM_SILENT_TIMEOUTS = 5; // retransmission timeouts a member may stay silent before it is dropped
+    public static final int MAXIMUM_LAGGING_TIMEOUTS = 2; // retransmission timeouts the slowest member may hold the window under the "drop" policy
+    public static final int MAXIMUM_MEMBERS = 256; // one slot per rover ID
+    public static final int MAXIMUM_PROBE_ATTEMPTS = 3; // rounds of path MTU probes before the session falls back to the default segment size
+    public static final int[] PROBE_MTUS = { RdtProtocol.MINIMUM_MTU, 1_280, RdtProtocol.ETHERNET_MTU, 4_352, RdtProtocol.JUMBO_MTU }; // MTUs probed below the interface MTU
+    public static final int RETRANSMISSION_TIMER = 0x01; // signal raised when the earliest retransmission timer expires
+    public static final int MEMBERSHIP_DEADLINE  = 0x02; // signal raised when the membership period of a multicast session ends
+    public static final int PERSIST_TIMER        = 0x04; // signal raised when a zero receive window is due to be probed
+    public static final long MAXIMUM_PERSIST_NANOS = 60_000_000_000L; // longest interval between two zero-window probes
+    // Class fields
+    private Sender sender; // Sender module that owns the control channel
+    private EventLoop eventLoop; // loop that runs the retransmission timer
+    private int sessionId; // ID carried in the header of every segment of this transfer
+    private byte destinationRoverId; // Rover to which the file is sent
+    private byte commandFlag; // command value
+    private File file; // File to be sent
+    private BlockCompressor compressor; // compression stage the segments are read from, null when the file is sent as it is
+    private SegmentSource fileSource; // mapping of the file being sent, or the compression stage in front of it
+    private DatagramChannel dataChannel; // Channel on which file segments are sent with gathering writes
+    private ByteBuffer header = ByteBuffer.allocateDirect(RdtProtocol.FIXED_HEADER_SIZE); // header of the segment being sent
+    private ByteBuffer[] gather = new ByteBuffer[] { header, null }; // buffers written as one datagram
+    private RdtProtocol dataHeader; // header fields of the file segments
+    private int nextSeq = 1; // next sequence number to be sent
+    private int windowBase = 1; // oldest sequence number that has not been acknowledged yet
+    private int lastSeq = 0; // sequence number of the last segment of the file, or of the wire image as far as it is compressed
+    private boolean resend = false; // flag to resend packets
+    private boolean finishAcknowledged = false; // set when the receiver acknowledged the FIN
+    private boolean retransmissionTimerArmed = false; // set while a retransmission timer is pending on the event loop
+    private int[] retransmissionQueue = new int[2 * RdtProtocol.WINDOW_SIZE]; // sequences waiting to be sent again, in the order they were reported
+    private int retransmissionQueueHead = 0; // index of the oldest queued sequence
+    private int retransmissionQueueSize = 0; // number of queued sequences
+    private int[] queuedSeq = new int[RdtProtocol.WINDOW_SIZE]; // sequence waiting in the retransmission queue for each slot, 0 for none
+    private long[] retransmissionDeadlines = new long[RdtProtocol.WINDOW_SIZE]; // retransmission timer of each segment in flight, indexed by seq % WINDOW_SIZE
+    private boolean[] inFlight = new boolean[RdtProtocol.WINDOW_SIZE]; // set while the segment in the slot waits for its acknowledgement
+    private RttEstimator rttEstimator; // round trip time estimate of the destination rover
+    private CongestionController congestionController; // congestion state of this transfer
+    private TransferMetrics metrics; // counters and histograms of the session, exported over JMX while it runs
+    private Pacer pacer; // token bucket that spaces the data and repair segments, created once the segment size is known
+    private EventRing events = new EventRing(); // control events published by the event loop, drained by the session thread
+    private Runnable retransmissionTimer = () -> this.events.signal(RETRANSMISSION_TIMER); // task run by the event loop when the earliest timer expires
+    private ErasureCode erasureCode; // code of the repair segments sent after every block, null when none are sent
+    private byte[][] dataShards; // payloads of the block being encoded, padded with zeros
+    private byte[][] repairShards; // repair shards of the block being encoded
+    private ByteBuffer[] repairPayloads; // repair shards wrapped for the gathering write
+    private ByteBuffer repairHeader = ByteBuffer.allocateDirect(RdtProtocol.REPAIR_HEADER_SIZE); // code type, k, m and index of a repair segment
+    private ByteBuffer[] repairGather = new ByteBuffer[] { header, repairHeader, null }; // buffers written as one repair datagram
+    private int retransmissions = 0; // data segments sent more than once
+    private int repairsSent = 0; // repair segments sent
+    private long[] repairSentAt = new long[RdtProtocol.WINDOW_SIZE]; // time of the last retransmission of the segment in the slot, 0 if it was only sent once
+    private boolean multicast; // set when the file is sent to all rovers
+    private BitSet members = new BitSet(MAXIMUM_MEMBERS); // rover IDs of the receivers taking part in a multicast session
+    private BitSet refusedMembers = new BitSet(MAXIMUM_MEMBERS); // receivers that joined after the window had moved past their data, or were dropped
+    private BitSet finishedMembers = new BitSet(MAXIMUM_MEMBERS); // members that acknowledged the FIN
+    private int[] memberAcks = new int[MAXIMUM_MEMBERS]; // cumulative acknowledgement of every member
+    private int[] silentTimeouts = new int[MAXIMUM_MEMBERS]; // retransmission timeouts since the member was last heard
+    private int[] laggingTimeouts = new int[MAXIMUM_MEMBERS]; // retransmission timeouts during which the member held the window back
+    private long joinDeadline = 0; // end of the membership period in which the window waits for receivers to join, 0 before the first one
+    private boolean joining = true; // set during the membership period
+    private boolean aborted = false; // set when every member of a multicast session has been dropped, or the receiver refused the session
+    private int segmentSize; // bytes of the file carried by every segment but the last, 0 until the path has been probed
+    private int[] probedSizes = new int[MAXIMUM_MEMBERS]; // largest probe every receiver answered
+    private long firstProbeAnsweredAt = 0; // time the first probe answer arrived, 0 before
+    private boolean completed = false; // set when the session has ended
+    private MessageDigest fileDigest; // digest of the file, updated as every segment is sent for the first time; null once the compressor has computed it
+    private byte[] digest; // digest of the whole file, announced in the FIN
+    private int digestedSeq = 1; // next sequence to add to the file digest
+    private BitSet missingSequences; // sequences some receiver still lacks, null to send every sequence
+    private PeerCache peer; // parameters remembered for the destination rover, null in a multicast session
+    private int window = RdtProtocol.WINDOW_SIZE; // segments in flight at most, as accepted by the receivers
+    private int advertisedWindow = RdtProtocol.WINDOW_SIZE; // segments past the window base the receivers can take, from their last ACK or SACK
+    private int[] memberWindows = new int[MAXIMUM_MEMBERS]; // receive window advertised by every member
+    private boolean persistTimerArmed = false; // set while a zero-window probe is pending on the event loop
+    private long persistInterval = 0; // time until the next zero-window probe, 0 while the window is open
+    private boolean windowProbe = false; // set when one segment may be sent into a zero window to probe it
+    private int features = 0; // optional features of the session, RdtProtocol.FEATURE_*
+    private boolean opening = false; // set while the session waits for the answers to its OPEN
+    private int openAnswers = 0; // receivers that accepted the OPEN
+    private long firstOpenAnsweredAt = 0; // time the first answer to the OPEN arrived, 0 before
+
+    /**
+     * Constructor for this class
+     * @param sender                Sender
+     * @param sessionId             int
+     * @param file                  File
+     * @param destinationRoverId    byte
+     * @param commandFlag           byte
+     * @param segmentSize           int bytes per segment, 0 to discover the largest one the path carries
+     */
+    public SendSession(Sender sender, int sessionId, File file, byte destinationRoverId, byte commandFlag, int segmentSize) {
+        this.sender = sender;
+        this.eventLoop = sender.getEventLoop();
+        this.sessionId = sessionId;
+        this.file = file;
+        this.destinationRoverId = destinationRoverId;
+        this.commandFlag = commandFlag;
+        this.segmentSize = (segmentSize == 0) ? 0 : Math.max(RdtProtocol.MINIMUM_SEGMENT_SIZE, Math.min(segmentSize, RdtProtocol.DATAGRAM_LENGTH));
+        this.rttEstimator = RttEstimator.forPeer(destinationRoverId);
+        this.congestionController = CongestionController.create(Sender.CONGESTION_CONTROL);
+        this.multicast = (destinationRoverId == 0);
+        this.peer = (this.multicast) ? null : PeerCache.forPeer(destinationRoverId);
+        this.erasureCode = ErasureCode.create(Sender.FORWARD_ERROR_CORRECTION, Receiver.BUFFER_SIZE, Sender.REPAIR_SEGMENTS);
+        this.metrics = TransferMetrics.forSession(TransferMetrics.SENDER, sessionId, destinationRoverId);
+    }
+
+    /**
+     * Getter for the session ID
+     * @return  int
+     */
+    public int getSessionId() {
+        return this.sessionId;
+    }
+
+    /**
+     * Method to send the file and then close the session with a FIN
+     */
+    @Override
+    public void run() {
+        try {
+            if (this.file.length() > RdtProtocol.MAXIMUM_FILE_LENGTH) {
+                System.out.println("[!!!] Refusing to open session " + Integer.toHexString(this.sessionId) + ": " + this.file.getName() + " is "
+                    + this.file.length() + " bytes, files of up to " + RdtProtocol.MAXIMUM_FILE_LENGTH + " bytes can be sent");
+                return;
+            }
+            this.openDataChannel();
+            int features = 0;
+            if (Sender.CHECKSUMS) features |= RdtProtocol.FEATURE_CHECKSUM;
+            if (this.erasureCode != null) features |= RdtProtocol.FEATURE_FEC;
+            if (BlockCompressor.DEFLATE.equals(Sender.COMPRESSION)) features |= RdtProtocol.FEATURE_COMPRESSION;
+            boolean zeroRtt = this.peer != null && this.peer.isFresh() && (this.segmentSize == 0 || this.segmentSize == this.peer.getSegmentSize());
+            if (zeroRtt) {
+                this.segmentSize = this.peer.getSegmentSize();
+                this.window = this.peer.getWindow();
+                features &= this.peer.getFeatures();
+            } else if (this.segmentSize == 0) {
+                this.segmentSize = this.discoverSegmentSize();
+            }
+            System.out.println(">> Session " + Integer.toHexString(this.sessionId) + " sends " + this.segmentSize + "-byte segments");
+            if (this.file.length() == 0 || BlockCompressor.boundOf(this.file.length(), this.segmentSize) > RdtProtocol.MAXIMUM_FILE_LENGTH) {
+                features &= ~RdtProtocol.FEATURE_COMPRESSION; // the announced length of the wire image would not fit
+            }
+            this.features = features;
+            if ((features & RdtProtocol.FEATURE_COMPRESSION) != 0) {
+                this.compressor = new BlockCompressor(this.file, this.segmentSize);
+                this.fileSource = this.compressor;
+            } else {
+                this.fileDigest = RdtProtocol.fileDigest();
+                this.fileSource = new MappedFileSource(this.file, this.segmentSize);
+            }
+            this.fileSource.startPrefetch();
+            this.congestionController.setSegmentSize(this.segmentSize);
+            this.pacer = new Pacer((long) Math.max(1, Sender.PACING_BURST) * (RdtProtocol.FIXED_HEADER_SIZE + this.segmentSize));
+            this.allocateRepairShards();
+            this.dataHeader = new RdtProtocol(this.header);
+            this.dataHeader.reset(this.sender.getRoverId(), this.destinationRoverId);
+            this.dataHeader.setCommandFlag(this.commandFlag);
+            this.dataHeader.setSessionId(this.sessionId);
+            this.dataHeader.setSegmentSize(this.segmentSize);
+            this.dataHeader.setCompressed(this.compressor != null);
+            this.dataHeader.setAcknowledgementNumber((int) this.fileSource.length()); // data segments announce the length of what they carry
+            this.lastSeq = this.fileSource.segmentCount();
+            this.open(zeroRtt);
+            EventLoop.setBufferSize(this.dataChannel, StandardSocketOptions.SO_SNDBUF, this.window * (RdtProtocol.FIXED_HEADER_SIZE + RdtProtocol.REPAIR_HEADER_SIZE + this.segmentSize));
+            while (true) {
+                this.drainEvents();
+                if (this.isTransferComplete()) break;
+                this.resendMissingPackets();
+                while (this.windowHasRoom()) {
+                    if (this.pace()) continue; // events were applied while waiting, the window may have changed
+                    this.sendNextSegment();
+                    this.drainEvents();
+                }
+                this.waitForEvents();
+            }
+            if (this.aborted) {
+                System.out.println("[!!!] Session " + Integer.toHexString(this.sessionId) + " was aborted, no receiver is left to take it");
+            } else {
+                System.out.println(">> Data sent successfully for session " + Integer.toHexString(this.sessionId)
+                    + ": " + this.retransmissions + " retransmissions, " + this.repairsSent + " repair segments, "
+                    + this.fileSource.getMappedRegions() + " file regions mapped");
+                if (this.fileDigest != null) {
+                    this.digestUpTo(this.lastSeq);
+                    this.digest = this.fileDigest.digest();
+                } else {
+                    this.digest = this.compressor.getDigest();
+                }
+                this.finish();
+            }
+            if (this.multicast) this.printMembers();
+            this.dataChannel.close();
+            this.fileSource.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            if (this.fileSource != null) this.fileSource.stopPrefetch();
+            this.metrics.unregister();
+            this.sender.removeSession(this);
+            synchronized(this) {
+                this.completed = true;
+                this.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Method to wait until the session has ended
+     */
+    public synchronized void awaitCompletion() {
+        while (!this.completed) {
+            try {
+                this.wait();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Method to allocate the shards of the erasure code once the segment size is known
+     */
+    private void allocateRepairShards() {
+        if (this.erasureCode == null) return;
+        int k = this.erasureCode.getDataSegments();
+        int m = this.erasureCode.getRepairSegments();
+        this.dataShards = new byte[k][this.segmentSize];
+        this.repairShards = new byte[m][this.segmentSize];
+        this.repairPayloads = new ByteBuffer[m];
+        for (int index = 0; index < m; index++) {
+            this.repairPayloads[index] = ByteBuffer.wrap(this.repairShards[index]);
+        }
+    }
+
+    /**
+     * Method to find the largest segment size the path to the receivers carries. One probe per candidate size,
+     * up to the MTU of the interface, is sent as large as a repair segment of that size; every receiver answers
+     * the probes that arrived whole. A unicast session stops as soon as its largest candidate is answered, a
+     * multicast session waits one retransmission timeout after the first answer and takes the smallest size
+     * every receiver answered.
+     * @return  int segment size
+     */
+    private int discoverSegmentSize() {
+        int maximumSegmentSize = this.sender.getMaximumSegmentSize();
+        for (int attempt = 0; attempt < MAXIMUM_PROBE_ATTEMPTS; attempt++) {
+            this.sender.sendProbe(this.sessionId, maximumSegmentSize, this.destinationRoverId);
+            for (int index = PROBE_MTUS.length - 1; index >= 0; index--) {
+                int candidate = RdtProtocol.segmentSizeFor(PROBE_MTUS[index]);
+                if (candidate < maximumSegmentSize) this.sender.sendProbe(this.sessionId, candidate, this.destinationRoverId);
+            }
+            long deadline = System.nanoTime() + this.rttEstimator.getRetransmissionTimeout();
+            while (true) {
+                this.drainEvents();
+                if (!this.multicast && this.probedSegmentSize() >= maximumSegmentSize) break;
+                if (this.firstProbeAnsweredAt != 0) deadline = Math.min(deadline, this.firstProbeAnsweredAt + this.rttEstimator.getRetransmissionTimeout());
+                if (deadline - System.nanoTime() <= 0) break;
+                this.events.await(deadline);
+            }
+            if (this.probedSegmentSize() > 0) return this.probedSegmentSize();
+            this.rttEstimator.onTimeout();
+        }
+        System.out.println("[!!!] No path MTU probe of session " + Integer.toHexString(this.sessionId) + " was answered");
+        return Math.min(RdtProtocol.DEFAULT_SEGMENT_SIZE, maximumSegmentSize);
+    }
+
+    /**
+     * Method to open the session. The OPEN proposes the segment size, window and features of the session and asks
+     * the receivers which segments of the transfer they already hold; every answer lists the ranges its receiver
+     * lacks, and the session sends the union of those ranges. A session that starts from fresh parameters of its
+     * peer sends its first flight right behind the OPEN and applies the answer when it arrives (0-RTT); any other
+     * session waits for the answers with the same rounds and waits as the path MTU probes, and without any answer
+     * sends the whole file with the parameters it proposed.
+     * @param zeroRtt   boolean
+     */
+    private void open(boolean zeroRtt) {
+        String name = this.file.getName();
+        String extension = (name.lastIndexOf('.') < 0) ? "" : name.substring(name.lastIndexOf('.') + 1);
+        this.opening = true;
+        if (zeroRtt) {
+            this.sender.sendOpen(this.sessionId, this.segmentSize, this.fileSource.length(), this.window, this.features, extension, this.destinationRoverId);
+            System.out.println(">> Session " + Integer.toHexString(this.sessionId) + " sends its first flight with the parameters negotiated last (0-RTT)");
+            return;
+        }
+        for (int attempt = 0; attempt < MAXIMUM_PROBE_ATTEMPTS; attempt++) {
+            this.sender.sendOpen(this.sessionId, this.segmentSize, this.fileSource.length(), this.window, this.features, extension, this.destinationRoverId);
+            long deadline = System.nanoTime() + this.rttEstimator.getRetransmissionTimeout();
+            while (true) {
+                this.drainEvents();
+                if ((!this.multicast && this.openAnswers > 0) || this.aborted) break;
+                if (this.firstOpenAnsweredAt != 0) deadline = Math.min(deadline, this.firstOpenAnsweredAt + this.rttEstimator.getRetransmissionTimeout());
+                if (deadline - System.nanoTime() <= 0) break;
+                this.events.await(deadline);
+            }
+            if (this.openAnswers > 0 || this.aborted) break;
+            this.rttEstimator.onTimeout();
+        }
+        this.opening = false;
+        if (this.openAnswers == 0) {
+            if (!this.aborted) System.out.println("[!!!] No receiver answered the OPEN of session " + Integer.toHexString(this.sessionId) + ", sending the whole file");
+            this.missingSequences = null;
+            return;
+        }
+        this.nextSeq = this.nextMissingSeq(1);
+        this.windowBase = this.nextSeq;
+        int delivered = this.lastSeq - this.missingSequences.cardinality();
+        if (delivered > 0) {
+            System.out.println(">> Session " + Integer.toHexString(this.sessionId) + " resumes: " + delivered + " of " + this.lastSeq + " segments already delivered");
+        }
+    }
+
+    /**
+     * Method called by the event loop when a receiver answers the OPEN: the answer and its missing ranges are
+     * copied into the event ring
+     * @param roverId   byte
+     * @param answer    RdtProtocol decoder positioned on the answer
+     */
+    public void onOpenAcknowledgement(byte roverId, RdtProtocol answer) {
+        for (int index = 0; index < answer.getResumeRangeCount(); index++) {
+            if (!this.events.addRange(answer.getResumeRangeStart(index), answer.getResumeRangeLength(index))) { // repeated with the next OPEN
+                this.events.discardRanges(); // part of the missing ranges would make the session skip segments the receiver lacks
+                return;
+            }
+        }
+        this.events.publish(EventRing.OPEN_ACK, roverId, answer.getSegmentSize(), answer.getTimestamp(), answer.getOpenWindow() << 8 | answer.getOpenFeatures());
+    }
+
+    /**
+     * Method to apply an answer to the OPEN. The session keeps the smallest window and the features every
+     * receiver accepted. A unicast receiver that refuses the segment size or the compression of the session
+     * aborts it, and its cached parameters are forgotten; a multicast receiver that does so is refused as a
+     * member instead.
+     * @param roverId       byte
+     * @param segmentSize   int segment size the receiver accepted
+     * @param timestampEcho int send time of the OPEN
+     * @param window        int window the receiver accepted
+     * @param accepted      int features the receiver accepted
+     */
+    private void applyOpenAcknowledgement(byte roverId, int segmentSize, int timestampEcho, int window, int accepted) {
+        if (!this.opening) return;
+        this.rttEstimator.onSample(RttEstimator.elapsedSince(timestampEcho));
+        if (segmentSize != this.segmentSize || (this.features & ~accepted & RdtProtocol.FEATURE_COMPRESSION) != 0) {
+            System.out.println("[!!!] Rover " + roverId + " refused session " + Integer.toHexString(this.sessionId) + " with "
+                + this.segmentSize + "-byte segments and features " + this.features);
+            if (this.multicast) {
+                this.refusedMembers.set(roverId & 0xff);
+                return;
+            }
+            this.peer.forget();
+            this.opening = false;
+            this.aborted = true;
+            return;
+        }
+        if (this.firstOpenAnsweredAt == 0) this.firstOpenAnsweredAt = System.nanoTime();
+        this.window = Math.max(1, Math.min(this.window, window));
+        this.features &= accepted;
+        if (this.missingSequences == null) this.missingSequences = new BitSet(this.lastSeq + 1);
+        for (int index = 0; index < this.events.getRangeCount(); index++) {
+            long start = Math.max(1, Integer.toUnsignedLong(this.events.getRangeStart(index)));
+            long end = Math.min(this.lastSeq + 1L, start + Integer.toUnsignedLong(this.events.getRangeLength(index)));
+            if (start < end) this.missingSequences.set((int) start, (int) end);
+        }
+        this.openAnswers++;
+        if (!this.multicast) { // a 0-RTT session may already be sending, it only skips what is still ahead of it
+            this.opening = false;
+            this.peer.onNegotiated(this.segmentSize, this.window, this.features);
+            boolean idle = (this.windowBase == this.nextSeq);
+            this.nextSeq = this.nextMissingSeq(this.nextSeq);
+            if (idle) this.windowBase = this.nextSeq;
+        }
+    }
+
+    /**
+     * Method to apply every event the event loop has published since the last call, in the order they arrived,
+     * after the signals of expired timers
+     */
+    private void drainEvents() {
+        int signals = this.events.takeSignals();
+        if ((signals & RETRANSMISSION_TIMER) != 0) this.onRetransmissionTimer();
+        if ((signals & MEMBERSHIP_DEADLINE) != 0) this.endMembershipPeriod();
+        if ((signals & PERSIST_TIMER) != 0) this.onPersistTimer();
+        while (this.events.poll()) {
+            byte roverId = this.events.getRoverId();
+            switch (this.events.getType()) {
+                case EventRing.ACK:
+                    this.applyAcknowledgement(roverId, this.events.getFirst(), this.events.getSecond(), this.events.getThird());
+                    break;
+                case EventRing.SACK:
+                    this.applySelectiveAcknowledgement(roverId, this.events.getFirst(), this.events.getThird());
+                    break;
+                case EventRing.FIN_ACK:
+                    this.applyFinishAcknowledgement(roverId);
+                    break;
+                case EventRing.PROBE_ACK:
+                    this.applyProbeAcknowledgement(roverId, this.events.getFirst(), this.events.getSecond());
+                    break;
+                case EventRing.OPEN_ACK:
+                    this.applyOpenAcknowledgement(roverId, this.events.getFirst(), this.events.getSecond(), this.events.getThird() >>> 8, this.events.getThird() & 0xff);
+                    break;
+            }
+            this.events.release();
+        }
+    }
+
+    /**
+     * Method to find the next sequence that has to be sent, skipping those every receiver already holds
+     * @param from  int
+     * @return      int sequence, lastSeq + 1 if none is left
+     */
+    private int nextMissingSeq(int from) {
+        if (this.missingSequences == null) return from;
+        int seq = this.missingSequences.nextSetBit(from);
+        return (seq < 0 || seq > this.lastSeq) ? this.lastSeq + 1 : seq;
+    }
+
+    /**
+     * Method to add every segment up to the given one to the file digest, in order, including the segments a
+     * resumed session skips
+     * @param seq   int
+     */
+    private void digestUpTo(int seq) {
+        while (this.digestedSeq <= seq) {
+            this.fileDigest.update(this.fileSource.payload(this.digestedSeq++));
+        }
+    }
+
+    /**
+     * Method to find the largest probed segment size every receiver that answered can take
+     * @return  int segment size, 0 if no probe has been answered
+     */
+    private int probedSegmentSize() {
+        int size = Integer.MAX_VALUE;
+        for (int receiver = 0; receiver < MAXIMUM_MEMBERS; receiver++) {
+            if (this.probedSizes[receiver] > 0) size = Math.min(size, this.probedSizes[receiver]);
+        }
+        return (size == Integer.MAX_VALUE) ? 0 : size;
+    }
+
+    /**
+     * Method called by the event loop when a receiver answers a path MTU probe
+     * @param roverId           byte
+     * @param segmentSize       int segment size of the probe
+     * @param timestampEcho     int send time of the probe
+     */
+    public void onProbeAcknowledgement(byte roverId, int segmentSize, int timestampEcho) {
+        this.events.publish(EventRing.PROBE_ACK, roverId, segmentSize, timestampEcho, 0);
+    }
+
+    /**
+     * Method to apply the answer to a path MTU probe
+     * @param roverId           byte
+     * @param segmentSize       int segment size of the probe
+     * @param timestampEcho     int send time of the probe
+     */
+    private void applyProbeAcknowledgement(byte roverId, int segmentSize, int timestampEcho) {
+        int receiver = roverId & 0xff;
+        this.rttEstimator.onSample(RttEstimator.elapsedSince(timestampEcho));
+        if (this.firstProbeAnsweredAt == 0) this.firstProbeAnsweredAt = System.nanoTime();
+        if (segmentSize > this.probedSizes[receiver]) this.probedSizes[receiver] = segmentSize;
+    }
+
+    /**
+     * Method to open the channel that carries file segments to the multicast group
+     * @throws IOException
+     */
+    private void openDataChannel() throws IOException {
+        this.dataChannel = DatagramChannel.open(StandardProtocolFamily.INET);
+        this.dataChannel.connect(new InetSocketAddress(this.sender.getAddress(), this.sender.getDataPort()));
+    }
+
+    /**
+     * Method to send the FIN, which carries the digest of the file, until the receiver acknowledges it, backing off like a data segment
+     */
+    private void finish() {
+        for (int attempt = 0; attempt < MAXIMUM_FIN_ATTEMPTS; attempt++) {
+            this.sender.sendFinishPacket(this.sessionId, this.destinationRoverId, this.commandFlag, this.digest, (this.compressor == null) ? 0 : this.compressor.getWireLength());
+            long deadline = System.nanoTime() + this.rttEstimator.getRetransmissionTimeout();
+            while (true) {
+                this.drainEvents();
+                if (this.finishAcknowledged) return;
+                if (deadline - System.nanoTime() <= 0) break;
+                this.events.await(deadline);
+            }
+            this.rttEstimator.onTimeout();
+        }
+        System.out.println("[!!!] FIN of session " + Integer.toHexString(this.sessionId) + " was never acknowledged");
+    }
+
+    /**
+     * Method to send the next segment of the file to the receiver. Segments are sent for the first time in order,
+     * so the file digest is computed here from the mapping without a second pass over the file.
+     */
+    private void sendNextSegment() {
+        int seq = this.nextSeq;
+        this.nextSeq = this.nextMissingSeq(seq + 1);
+        this.repairSentAt[seq % RdtProtocol.WINDOW_SIZE] = 0;
+        this.windowProbe = false;
+        this.fileSource.advancePrefetch(seq);
+        if (this.fileDigest != null) this.digestUpTo(seq);
+        this.sendSegment(seq);
+        this.lastSeq = this.fileSource.segmentCount(); // known once the last block of a wire image has been compressed
+        if ((this.features & RdtProtocol.FEATURE_FEC) != 0 && (seq % this.erasureCode.getDataSegments() == 0 || seq == this.lastSeq)) {
+            this.sendRepairSegments(seq - (seq - 1) % this.erasureCode.getDataSegments());
+        }
+    }
+
+    /**
+     * Method to encode the block that starts at the given sequence and send its repair segments right behind it.
+     * A repair segment carries the first sequence of its block and the REPAIR flag; the repair header in front of
+     * the parity names the code, so the receiver can rebuild up to m lost segments of the block without a NAK.
+     * @param firstSeq  int
+     */
+    private void sendRepairSegments(int firstSeq) {
+        int k = this.erasureCode.getDataSegments();
+        int m = this.erasureCode.getRepairSegments();
+        for (int index = 0; index < k; index++) {
+            int seq = firstSeq + index;
+            int length = 0;
+            if (seq <= this.lastSeq) {
+                ByteBuffer payload = this.fileSource.payload(seq);
+                length = payload.remaining();
+                payload.get(this.dataShards[index], 0, length);
+            }
+            Arrays.fill(this.dataShards[index], length, this.segmentSize, (byte) 0);
+        }
+        this.erasureCode.encode(this.dataShards, this.repairShards, this.segmentSize);
+        this.dataHeader.setRepair(true);
+        this.dataHeader.setSeq(firstSeq);
+        this.dataHeader.setTimestamp(RttEstimator.currentTimestamp());
+        this.dataHeader.setLength(RdtProtocol.REPAIR_HEADER_SIZE + this.segmentSize);
+        for (int index = 0; index < m; index++) {
+            this.repairHeader.clear();
+            this.repairHeader.put(this.erasureCode.getType()).put((byte) k).put((byte) m).put((byte) index).flip();
+            this.header.clear();
+            this.repairPayloads[index].clear();
+            this.repairGather[2] = this.repairPayloads[index];
+            this.seal(this.repairHeader, this.repairPayloads[index]);
+            while (this.pace()) {
+                // the shards of the block are not touched by the events applied meanwhile
+            }
+            try {
+                long written = this.dataChannel.write(this.repairGather);
+                this.pacer.consume(written);
+                this.metrics.add(TransferMetrics.Counter.BYTES_SENT, written);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        this.repairsSent += m;
+        this.metrics.add(TransferMetrics.Counter.REPAIRS_SENT, m);
+        this.dataHeader.setRepair(false);
+    }
+
+    /**
+     * Method to stamp a data segment with the current time, arm its retransmission timer and send it to the receiver.
+     * The header and the payload view into the file mapping go out in one gathering write.
+     * @param seq   int
+     */
+    private void sendSegment(int seq) {
+        long deadline = System.nanoTime() + this.rttEstimator.getRetransmissionTimeout();
+        this.retransmissionDeadlines[seq % RdtProtocol.WINDOW_SIZE] = deadline;
+        this.inFlight[seq % RdtProtocol.WINDOW_SIZE] = true;
+        if (!this.retransmissionTimerArmed) {
+            this.retransmissionTimerArmed = true;
+            this.eventLoop.execute(() -> this.eventLoop.schedule(deadline, this.retransmissionTimer));
+        }
+        ByteBuffer payload = this.fileSource.payload(seq);
+        this.dataHeader.setSeq(seq);
+        this.dataHeader.setTimestamp(RttEstimator.currentTimestamp());
+        this.dataHeader.setLength(payload.remaining());
+        this.seal(payload);
+        this.header.clear();
+        this.gather[1] = payload;
+        try {
+            long written = this.dataChannel.write(this.gather);
+            this.pacer.consume(written);
+            this.metrics.increment(TransferMetrics.Counter.SEGMENTS_SENT);
+            this.metrics.add(TransferMetrics.Counter.BYTES_SENT, written);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Method to seal the header of a data or repair segment with its CRC32C, or to mark it unchecked when the
+     * receivers did not accept checksums
+     * @param payload   ByteBuffer... payload buffers of the segment
+     */
+    private void seal(ByteBuffer... payload) {
+        if ((this.features & RdtProtocol.FEATURE_CHECKSUM) != 0) {
+            this.dataHeader.seal(payload);
+        } else {
+            this.dataHeader.unseal();
+        }
+    }
+
+    /**
+     * Method to check if another segment fits in the smallest of the negotiated window, the window the receivers
+     * advertise and the congestion window. A zero-window probe lets one segment past a closed window.
+     * @return  boolean
+     */
+    private boolean windowHasRoom() {
+        int window = Math.min(Math.min(this.window, this.advertisedWindow), this.congestionController.getCongestionWindow());
+        if (this.windowProbe) window = Math.max(window, this.nextSeq - this.windowBase + 1);
+        if (this.nextSeq >= this.windowBase + window) return false;
+        if (this.nextSeq <= this.lastSeq) this.lastSeq = this.fileSource.reach(this.nextSeq); // a resumed session may skip past the end of a wire image
+        return this.nextSeq <= this.lastSeq;
+    }
+
+    /**
+     * Method to wait until the pacer has the tokens of the next datagram, applying the events that arrive
+     * meanwhile. The rate is the configured one, or the rate the congestion controller allows.
+     * @return  boolean true if the session had to wait, so the caller checks its window again
+     */
+    private boolean pace() {
+        if (Sender.PACING_RATE < 0) return false;
+        this.pacer.setRate((Sender.PACING_RATE > 0) ? Sender.PACING_RATE : Pacer.rateFor(this.congestionController));
+        long delay = this.pacer.delay();
+        if (delay == 0) return false;
+        if (delay > Pacer.SPIN_NANOS) {
+            this.events.await(System.nanoTime() + delay - Pacer.SPIN_NANOS);
+        } else {
+            long deadline = System.nanoTime() + delay;
+            while (deadline - System.nanoTime() > 0) Thread.onSpinWait();
+        }
+        this.drainEvents();
+        return true;
+    }
+
+    /**
+     * Method to check if every segment of the file has been acknowledged
+     * @return  boolean
+     */
+    private boolean isTransferComplete() {
+        return this.windowBase > this.lastSeq || this.aborted;
+    }
+
+    /**
+     * Method to park until the event loop publishes an acknowledgement or a missing packet, or a retransmission timer expires
+     */
+    private void waitForEvents() {
+        if (this.resend || this.windowHasRoom()) return;
+        this.events.await(0);
+    }
+
+    /**
+     * Method run when the earliest retransmission timer has expired.
+     * Expired segments are queued for retransmission, the timeout is backed off and the timer is armed again
+     * for the earliest segment that is still waiting for its acknowledgement.
+     */
+    private void onRetransmissionTimer() {
+        this.retransmissionTimerArmed = false;
+        long now = System.nanoTime();
+        if (this.multicast) this.checkMembers();
+        long earliestDeadline = Long.MAX_VALUE;
+        int expired = 0;
+        for (int seq = this.windowBase; seq < this.nextSeq; seq++) {
+            int slot = seq % RdtProtocol.WINDOW_SIZE;
+            if (!this.inFlight[slot] || this.queuedSeq[slot] == seq) continue;
+            if (this.retransmissionDeadlines[slot] - now <= 0) {
+                this.queueRetransmission(seq);
+                expired++;
+            } else {
+                earliestDeadline = Math.min(earliestDeadline, this.retransmissionDeadlines[slot]);
+            }
+        }
+        if (expired > 0) {
+            this.metrics.increment(TransferMetrics.Counter.TIMEOUTS);
+            this.rttEstimator.onTimeout();
+            this.congestionController.onTimeout();
+            this.resend = true;
+        }
+        if (earliestDeadline != Long.MAX_VALUE) {
+            long deadline = earliestDeadline;
+            this.retransmissionTimerArmed = true;
+            this.eventLoop.execute(() -> this.eventLoop.schedule(deadline, this.retransmissionTimer));
+        }
+    }
+
+    /**
+     * Method called by the event loop when a cumulative acknowledgement arrives
+     * @param roverId           byte receiver that sent the acknowledgement
+     * @param ack               int
+     * @param timestampEcho     int send time of the segment that triggered the acknowledgement
+     * @param window            int receive window the receiver advertises
+     */
+    public void onAcknowledgement(byte roverId, int ack, int timestampEcho, int window) {
+        this.events.publish(EventRing.ACK, roverId, ack, timestampEcho, window);
+    }
+
+    /**
+     * Method to apply a cumulative acknowledgement.
+     * In a multicast session a receiver is admitted on its first feedback, provided the window has not moved
+     * past its data yet, and the window advances to the cumulative acknowledgement of the slowest member.
+     * @param roverId           byte receiver that sent the acknowledgement
+     * @param ack               int
+     * @param timestampEcho     int send time of the segment that triggered the acknowledgement
+     * @param window            int receive window the receiver advertises
+     * @return                  boolean false if the receiver is not a member of the session
+     */
+    private boolean applyAcknowledgement(byte roverId, int ack, int timestampEcho, int window) {
+        ack = Math.min(ack, this.lastSeq + 1); // a receiver that rebuilt the last block of a wire image counts the zeros past its end
+        if (!this.multicast) {
+            this.advanceWindow(ack, timestampEcho);
+            this.applyReceiveWindow(window);
+            return true;
+        }
+        int member = roverId & 0xff;
+        if (!this.members.get(member) && !this.join(member, ack)) return false;
+        this.silentTimeouts[member] = 0;
+        if (ack > this.memberAcks[member]) {
+            this.memberAcks[member] = ack;
+            this.laggingTimeouts[member] = 0;
+        }
+        this.memberWindows[member] = window;
+        this.advanceWindow(this.groupAcknowledgement(), timestampEcho);
+        this.applyReceiveWindow(this.groupWindow());
+        return true;
+    }
+
+    /**
+     * Method to find the smallest receive window the members advertise
+     * @return  int
+     */
+    private int groupWindow() {
+        int window = RdtProtocol.WINDOW_SIZE;
+        for (int member = this.members.nextSetBit(0); member >= 0; member = this.members.nextSetBit(member + 1)) {
+            window = Math.min(window, this.memberWindows[member]);
+        }
+        return window;
+    }
+
+    /**
+     * Method to take the receive window the receivers advertise. A window that closes starts the persist timer,
+     * whose probes ask the receivers for a fresh window; one that opens again stops them.
+     * @param window    int
+     */
+    private void applyReceiveWindow(int window) {
+        if (window == 0 && this.advertisedWindow != 0) {
+            System.out.println(">> Session " + Integer.toHexString(this.sessionId) + ": receive window closed at " + this.windowBase);
+        } else if (window != 0 && this.advertisedWindow == 0) {
+            System.out.println(">> Session " + Integer.toHexString(this.sessionId) + ": receive window reopened to " + window);
+        }
+        this.advertisedWindow = window;
+        if (window == 0) {
+            this.armPersistTimer();
+        } else {
+            this.persistInterval = 0;
+        }
+    }
+
+    /**
+     * Method to schedule the next zero-window probe. The first one follows one retransmission timeout after the
+     * window closed, and every further one waits twice as long, up to MAXIMUM_PERSIST_NANOS.
+     */
+    private void armPersistTimer() {
+        if (this.persistTimerArmed) return;
+        long interval = (this.persistInterval == 0) ? this.rttEstimator.getRetransmissionTimeout() : this.persistInterval;
+        this.persistInterval = Math.min(2 * interval, MAXIMUM_PERSIST_NANOS);
+        this.persistTimerArmed = true;
+        long deadline = System.nanoTime() + interval;
+        this.eventLoop.execute(() -> this.eventLoop.schedule(deadline, () -> this.events.signal(PERSIST_TIMER)));
+    }
+
+    /**
+     * Method run when the persist timer expires while the receive window is still closed: the next segment is let
+     * through as a probe, and its acknowledgement carries the current window of the receiver
+     */
+    private void onPersistTimer() {
+        this.persistTimerArmed = false;
+        if (this.advertisedWindow != 0 || this.nextSeq > this.lastSeq) return;
+        System.out.println(">> Zero receive window, probing with segment " + this.nextSeq);
+        this.windowProbe = true;
+        this.armPersistTimer();
+    }
+
+    /**
+     * Method to admit a receiver to a multicast session. The first member opens the membership period, during
+     * which the window does not move, so receivers that answer a little later can still be repaired.
+     * @param member    int rover ID of the receiver
+     * @param ack       int its cumulative acknowledgement
+     * @return          boolean
+     */
+    private boolean join(int member, int ack) {
+        if (this.refusedMembers.get(member)) return false;
+        if (ack < this.windowBase) {
+            System.out.println("[!!!] Rover " + member + " joined session " + Integer.toHexString(this.sessionId) + " too late, ignoring it");
+            this.refusedMembers.set(member);
+            return false;
+        }
+        this.members.set(member);
+        this.memberAcks[member] = ack;
+        this.memberWindows[member] = RdtProtocol.WINDOW_SIZE;
+        System.out.println(">> Rover " + member + " joined session " + Integer.toHexString(this.sessionId));
+        if (this.joinDeadline == 0) {
+            long deadline = System.nanoTime() + this.rttEstimator.getRetransmissionTimeout();
+            this.joinDeadline = deadline;
+            this.eventLoop.execute(() -> this.eventLoop.schedule(deadline, () -> this.events.signal(MEMBERSHIP_DEADLINE)));
+        }
+        if (Sender.MULTICAST_MEMBERS > 0 && this.members.cardinality() >= Sender.MULTICAST_MEMBERS) this.joining = false;
+        return true;
+    }
+
+    /**
+     * Method run when the membership period ends, releasing the window to the slowest member
+     */
+    private void endMembershipPeriod() {
+        if (!this.joining) return;
+        this.joining = false;
+        System.out.println(">> Session " + Integer.toHexString(this.sessionId) + " has " + this.members.cardinality() + " members");
+        this.advanceWindow(this.groupAcknowledgement(), 0);
+    }
+
+    /**
+     * Method to find the cumulative acknowledgement of the slowest member
+     * @return  int
+     */
+    private int groupAcknowledgement() {
+        if (this.joining) return this.windowBase;
+        int ack = Integer.MAX_VALUE;
+        for (int member = this.members.nextSetBit(0); member >= 0; member = this.members.nextSetBit(member + 1)) {
+            ack = Math.min(ack, this.memberAcks[member]);
+        }
+        return (ack == Integer.MAX_VALUE) ? this.windowBase : ack;
+    }
+
+    /**
+     * Method to apply the laggard policy on every retransmission timeout of a multicast session.
+     * A member that stays silent is dropped whatever the policy; under the "drop" policy the slowest member is
+     * also dropped when it keeps holding the window back while the others are ahead.
+     */
+    private void checkMembers() {
+        if (this.joining || this.members.isEmpty()) return;
+        int groupAck = this.groupAcknowledgement();
+        boolean anyAhead = false;
+        for (int member = this.members.nextSetBit(0); member >= 0; member = this.members.nextSetBit(member + 1)) {
+            anyAhead |= this.memberAcks[member] > groupAck;
+        }
+        for (int member = this.members.nextSetBit(0); member >= 0; member = this.members.nextSetBit(member + 1)) {
+            if (++this.silentTimeouts[member] > MAXIMUM_SILENT_TIMEOUTS) {
+                this.dropMember(member, "stopped answering");
+            } else if (Sender.DROP_LAGGARDS && anyAhead && this.memberAcks[member] == groupAck
+                && ++this.laggingTimeouts[member] > MAXIMUM_LAGGING_TIMEOUTS) {
+                this.dropMember(member, "is lagging at " + groupAck);
+            }
+        }
+        if (this.members.isEmpty()) {
+            this.aborted = true;
+            return;
+        }
+        this.advanceWindow(this.groupAcknowledgement(), 0);
+    }
+
+    /**
+     * Method to remove a member from a multicast session
+     * @param member    int
+     * @param reason    String
+     */
+    private void dropMember(int member, String reason) {
+        System.out.println("[!!!] Dropping rover " + member + " from session " + Integer.toHexString(this.sessionId) + ": it " + reason);
+        this.members.clear(member);
+        this.refusedMembers.set(member);
+    }
+
+    /**
+     * Method to print the progress of every receiver of a multicast session
+     */
+    private void printMembers() {
+        for (int member = this.members.nextSetBit(0); member >= 0; member = this.members.nextSetBit(member + 1)) {
+            System.out.println(">> Rover " + member + ": acknowledged up to " + this.memberAcks[member]
+                + (this.finishedMembers.get(member) ? ", FIN acknowledged" : ", FIN not acknowledged"));
+        }
+        for (int member = this.refusedMembers.nextSetBit(0); member >= 0; member = this.refusedMembers.nextSetBit(member + 1)) {
+            System.out.println(">> Rover " + member + ": dropped at " + this.memberAcks[member]);
+        }
+    }
+
+    /**
+     * Method to release every segment below the acknowledgement number and slide the window forward
+     * @param ack               int
+     * @param timestampEcho     int send time of the segment that triggered the acknowledgement
+     */
+    private void advanceWindow(int ack, int timestampEcho) {
+        if (ack <= this.windowBase || ack > this.nextSeq) return;
+        long rttNanos = RttEstimator.elapsedSince(timestampEcho);
+        this.rttEstimator.onSample(rttNanos);
+        this.metrics.recordRtt(rttNanos);
+        int acknowledged = 0; // segments a resumed session skipped are not counted
+        for (int seq = this.windowBase; seq < ack; seq++) {
+            if (this.inFlight[seq % RdtProtocol.WINDOW_SIZE]) acknowledged++;
+            this.inFlight[seq % RdtProtocol.WINDOW_SIZE] = false;
+        }
+        this.congestionController.onAcknowledgement(acknowledged, rttNanos);
+        this.windowBase = ack;
+        this.releaseSegments();
+    }
+
+    /**
+     * Method to drop the mappings of the segments nothing reads any more: those below the window, the digest
+     * and the block whose repair segments are still to be sent
+     */
+    private void releaseSegments() {
+        int seq = this.windowBase;
+        if (this.fileDigest != null) seq = Math.min(seq, this.digestedSeq);
+        if (this.erasureCode != null) seq -= (seq - 1) % this.erasureCode.getDataSegments();
+        this.fileSource.release(seq);
+    }
+
+    /**
+     * Method called by the event loop when a selective acknowledgement arrives: the cumulative acknowledgement
+     * and the hole ranges are copied into the event ring. Holes that do not fit are reported again by the receiver.
+     * @param roverId   byte receiver that sent the selective acknowledgement
+     * @param sack      RdtProtocol decoder positioned on the selective acknowledgement
+     */
+    public void onSelectiveAcknowledgement(byte roverId, RdtProtocol sack) {
+        for (int index = 0; index < sack.getHoleRangeCount(); index++) {
+            if (!this.events.addRange(sack.getHoleOffset(index), sack.getHoleLength(index))) break;
+        }
+        this.events.publish(EventRing.SACK, roverId, sack.getAcknowledgementNumber(), 0, sack.getReceiveWindow());
+    }
+
+    /**
+     * Method to apply a selective acknowledgement. It carries the cumulative acknowledgement and the ranges of
+     * holes above it, so every hole is queued in O(1) through its window slot.
+     * In a multicast session, a hole that was retransmitted less than a round trip ago is not queued again:
+     * the request crossed the repair that is already on its way to the whole group.
+     * @param roverId   byte receiver that sent the selective acknowledgement
+     * @param ack       int cumulative acknowledgement
+     * @param window    int receive window the receiver advertises
+     */
+    private void applySelectiveAcknowledgement(byte roverId, int ack, int window) {
+        if (!this.applyAcknowledgement(roverId, ack, 0, window)) return;
+        this.metrics.increment(TransferMetrics.Counter.NAKS_RECEIVED);
+        long holdOff = (this.multicast) ? this.rttEstimator.getSmoothedRtt() : 0;
+        long now = System.nanoTime();
+        for (int index = 0; index < this.events.getRangeCount(); index++) {
+            int start = Math.max(ack + this.events.getRangeStart(index), this.windowBase);
+            int end = Math.min(ack + this.events.getRangeStart(index) + this.events.getRangeLength(index), this.nextSeq);
+            for (int seq = start; seq < end; seq++) {
+                long repairedAt = this.repairSentAt[seq % RdtProtocol.WINDOW_SIZE];
+                if (repairedAt != 0 && now - repairedAt < holdOff) continue;
+                if (this.queueRetransmission(seq)) this.congestionController.onLoss(seq, this.nextSeq);
+            }
+        }
+        this.resend = this.retransmissionQueueSize > 0;
+    }
+
+    /**
+     * Method to queue a segment for retransmission unless it is already waiting
+     * @param seq   int
+     * @return      boolean true if the segment was queued
+     */
+    private boolean queueRetransmission(int seq) {
+        int slot = seq % RdtProtocol.WINDOW_SIZE;
+        if (this.queuedSeq[slot] == seq || this.retransmissionQueueSize == this.retransmissionQueue.length) return false;
+        this.queuedSeq[slot] = seq;
+        this.retransmissionQueue[(this.retransmissionQueueHead + this.retransmissionQueueSize++) % this.retransmissionQueue.length] = seq;
+        return true;
+    }
+
+    /**
+     * Method called by the event loop when a receiver acknowledges the FIN
+     * @param roverId   byte
+     */
+    public void onFinishAcknowledgement(byte roverId) {
+        this.events.publish(EventRing.FIN_ACK, roverId, 0, 0, 0);
+    }
+
+    /**
+     * Method to apply the acknowledgement of the FIN. A multicast session is finished once every member has acknowledged it.
+     * @param roverId   byte
+     */
+    private void applyFinishAcknowledgement(byte roverId) {
+        if (this.multicast) {
+            this.finishedMembers.set(roverId & 0xff);
+            for (int member = this.members.nextSetBit(0); member >= 0; member = this.members.nextSetBit(member + 1)) {
+                if (!this.finishedMembers.get(member)) return;
+            }
+        }
+        this.finishAcknowledged = true;
+    }
+
+    /**
+     * Method to resend only the segments reported missing by the receiver
+     */
+    private void resendMissingPackets() {
+        while (this.retransmissionQueueSize > 0) {
+            if (this.pace()) continue; // acknowledgements applied while waiting may have emptied the queue
+            int missingSequence = this.retransmissionQueue[this.retransmissionQueueHead];
+            this.retransmissionQueueHead = (this.retransmissionQueueHead + 1) % this.retransmissionQueue.length;
+            this.retransmissionQueueSize--;
+            int slot = missingSequence % RdtProtocol.WINDOW_SIZE;
+            if (this.queuedSeq[slot] != missingSequence) continue; // slot reused by a later sequence
+            this.queuedSeq[slot] = 0;
+            if (missingSequence < this.windowBase) continue; // acknowledged in the meantime
+            this.repairSentAt[slot] = System.nanoTime();
+            this.retransmissions++;
+            this.metrics.increment(TransferMetrics.Counter.RETRANSMISSIONS);
+            this.sendSegment(missingSequence);
+        }
+        this.resend = false;
+    }
+}
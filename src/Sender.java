@@ -3,32 +3,47 @@
  * @author Vinod Dalavai - vd1605
  */
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.InetAddress;
-import java.net.SocketException;
-import java.net.UnknownHostException;
-import java.util.ArrayList;
-import java.util.List;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32C;
 
-public class Sender extends Thread {
+public class Sender implements EventLoop.Handler {
+    public static final String CONGESTION_CONTROL  = System.getProperty("rdt.congestion", CongestionController.AIMD); // congestion control algorithm
+    public static final String FORWARD_ERROR_CORRECTION = System.getProperty("rdt.fec", ErasureCode.NONE); // erasure code of the repair segments
+    public static final int REPAIR_SEGMENTS        = Integer.getInteger("rdt.fec.repair", 2); // repair segments per block with "rs"
+    public static final String COMPRESSION         = System.getProperty("rdt.compression", BlockCompressor.NONE); // "deflate" to send files as block compressed wire images
+    public static final boolean CHECKSUMS          = Boolean.parseBoolean(System.getProperty("rdt.checksum", "true")); // false to send data and repair segments without a CRC32C
+    public static final int MULTICAST_MEMBERS      = Integer.getInteger("rdt.multicast.members", 0); // receivers that end the membership period of a multicast session early, 0 to wait one RTO
+    public static final int SEGMENT_SIZE           = Integer.getInteger("rdt.segment", 0); // bytes per segment of every transfer, 0 to discover it by probing the path
+    public static final long PACING_RATE           = Long.getLong("rdt.pacing.rate", 0L); // bytes per second every session is paced at, 0 to follow the congestion controller, -1 to send unpaced
+    public static final int PACING_BURST           = Integer.getInteger("rdt.pacing.burst", 4); // segments a session may send back to back
+    public static final boolean DROP_LAGGARDS      = "drop".equalsIgnoreCase(System.getProperty("rdt.multicast.laggard", "wait")); // drop the slowest member instead of waiting for it
     // Class fields
-    private DatagramSocket socket; // Socket on which the data will be sent
+    private DatagramChannel controlChannel; // Non-blocking channel on which commands, ACK, NAK and FIN are sent from the event loop
+    private Deque<ByteBuffer> pendingControl = new ArrayDeque<>(); // control datagrams waiting for the channel to become writable
+    private RdtProtocol control = new RdtProtocol(ByteBuffer.allocateDirect(RdtProtocol.MAXIMUM_SEGMENT_SIZE)); // segment reused by every control datagram built on the event loop
+    private SocketAddress controlTarget; // multicast group and port the control datagrams are sent to
+    private EventLoop eventLoop; // loop that runs the control channel and the retransmission timers
     private InetAddress address; // IP address of the rover that sends the data
-    private DatagramPacket packet;  // Packet of data that will be sent over the socket
-    private File file; // File to be sent
     private Rover rover; // Rover related to the sender
-    private List<RdtProtocol> segments; // list of segments to be sent over the socket
     private byte destinationRoverId = 0;
     private int receiverPort; // port of the receiver
-    private static int nextSeq = 0; //next expected sequence number
-    private static int sendersSeq = 0; // seq of the sender
-    private static boolean resend = false; // flag to resend packets
-    private static boolean sendFile = false; // flag to send file
-    private static byte commandFlag = 0; // command value
-    private List<Integer> missingSequenceNumbers = new ArrayList<>(); //sequences missing
+    private Map<Integer, SendSession> sessions = new ConcurrentHashMap<>(); // file transfers in progress, indexed by session ID
+    private SendSession lastSession = null; // session of the last acknowledgement, looked up without boxing its ID
+    private Random random = new Random(); // source of session IDs
+    private int maximumSegmentSize; // largest segment size whose datagrams leave the interface unfragmented
 
     /**
      * Constructor for the Sender
@@ -38,217 +53,464 @@ public class Sender extends Thread {
         this.rover = rover;
         this.receiverPort = receiverPort;
         try {
-            this.socket = new DatagramSocket();
-            System.out.println("Sending from: " + this.socket.getLocalPort());
-            this.segments = new ArrayList<>();
             this.address = InetAddress.getByName(rover.getMulticastIP());
             this.destinationRoverId = destinationRoverId;
-        } catch (SocketException | UnknownHostException e) {
+            this.controlTarget = new InetSocketAddress(this.address, this.receiverPort);
+            int mtu = EventLoop.maximumTransmissionUnit(rover.getMulticastIP(), this.receiverPort);
+            this.maximumSegmentSize = RdtProtocol.segmentSizeFor(Math.max(RdtProtocol.MINIMUM_MTU, Math.min(mtu, RdtProtocol.JUMBO_MTU)));
+            this.controlChannel = DatagramChannel.open(StandardProtocolFamily.INET);
+            this.controlChannel.bind(null);
+            this.controlChannel.configureBlocking(false);
+            this.eventLoop = EventLoop.fetchInstance();
+            this.eventLoop.register(this.controlChannel, this);
+            System.out.println("Sending from: " + ((InetSocketAddress) this.controlChannel.getLocalAddress()).getPort());
+        } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
     /**
-     * Setter for file
-     * @param file  File
+     * Getter for the event loop
+     * @return  EventLoop
      */
-    public void setFile(File file) {
-        this.file = file;
+    public EventLoop getEventLoop() {
+        return this.eventLoop;
     }
 
     /**
-     * Setter for send file flag
-     * @param flag  boolean
+     * Getter for the multicast address the data is sent to
+     * @return  InetAddress
      */
-    public void setSendFile(boolean flag) {
-        sendFile = flag;
+    public InetAddress getAddress() {
+        return this.address;
     }
 
-    public void setMissingSequenceNumbers(List<Integer> missingSequences) {
-        this.missingSequenceNumbers = missingSequences;
+    /**
+     * Getter for the port file segments are sent to
+     * @return  int
+     */
+    public int getDataPort() {
+        return this.rover.getPort();
     }
 
     /**
-     * Setter for resend flag
-     * @param value boolean
+     * Getter for the ID of the rover that owns this sender
+     * @return  byte
      */
-    public void setResendFlag(boolean value) {
-        resend = value;
+    public byte getRoverId() {
+        return this.rover.getRoverId();
     }
 
     /**
-     * Setter for command flag
-     * @param command
+     * Getter for the largest segment size whose datagrams leave the interface to the group unfragmented
+     * @return  int
      */
-    public void setCommandFlag(byte command) {
-        commandFlag = command;
+    public int getMaximumSegmentSize() {
+        return this.maximumSegmentSize;
     }
 
     /**
-     * Method to send data on the socket
+     * Method to start a new file transfer session to the destination rover
+     * @param file          File
+     * @param commandFlag   byte
+     * @return              SendSession
      */
-    public void run() {
-        try {
-            int sequence = 0;
-            if (!sendFile) {
-                RdtProtocol protocol = new RdtProtocol(null, rover.getRoverId(), destinationRoverId);
-                protocol.setSeq(++sequence);
-                protocol.setCommandFlag(commandFlag);
-                protocol.prepareSegment();
-                this.segments.add(protocol);
-                System.out.println(">> Sending COMMAND to: " + this.getIpAddressFromRoverId(destinationRoverId));
-                packet = new DatagramPacket(protocol.getByteStream(), protocol.getByteStream().length, this.address, this.receiverPort);
-                this.socket.send(packet);
-            } else {
-                FileInputStream fis = new FileInputStream(this.file);
-                byte[] tempBuffer = new byte[RdtProtocol.DATAGRAM_LENGTH];
-                boolean quit = false;
-                while (!quit) {
-                    for(int count = 0; count < Receiver.BUFFER_SIZE; count++) {
-                        if (fis.read(tempBuffer) == -1) quit = true;
-                        RdtProtocol protocol = new RdtProtocol(tempBuffer, rover.getRoverId(), destinationRoverId);
-                        protocol.setSeq(++sequence);
-                        protocol.setCommandFlag(commandFlag);
-                        nextSeq = sequence+1;
-                        protocol.prepareSegment();
-                        this.segments.add(protocol);
-                        // System.out.println("Byte stream length: " + protocol.getByteStream().length);
-                        packet = new DatagramPacket(
-                            protocol.getByteStream(),
-                            protocol.getByteStream().length,
-                            this.address,
-                            this.rover.getPort()
-                        );
-                        this.socket.send(packet);
-                        tempBuffer = new byte[RdtProtocol.DATAGRAM_LENGTH];
-                    }
-                    this.waitForAcknowledgement();
-                }
-                System.out.println(">> Data sent successfully: Closing socket");
-                this.sendFinishPacket();
-                socket.close();
-                fis.close();
-                this.interrupt();
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+    public SendSession sendFile(File file, byte commandFlag) {
+        return this.sendFile(file, commandFlag, SEGMENT_SIZE);
     }
 
     /**
-     * Method to wait for acknowledgement to be received from the receiver thread
+     * Method to start a new file transfer session to the destination rover with a given segment size
+     * @param file          File
+     * @param commandFlag   byte
+     * @param segmentSize   int bytes per segment, 0 to discover the largest one the path carries
+     * @return              SendSession
      */
-    private void waitForAcknowledgement() {
-        synchronized(this.rover) {
-            try {
-                this.rover.wait();
-                if (resend) {
-                    this.resendMissingPackets();
-                    this.waitForAcknowledgement();
-                }
-                System.out.println(">> Resume sending");
-                sleep(50);   
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
+    public SendSession sendFile(File file, byte commandFlag, int segmentSize) {
+        SendSession session = new SendSession(this, this.transferId(file), file, this.destinationRoverId, commandFlag, segmentSize);
+        this.sessions.put(session.getSessionId(), session);
+        System.out.println(">> Opening session " + Integer.toHexString(session.getSessionId()) + " for " + file.getName() + " (" + ThreadPoolManager.status() + ")");
+        ThreadPoolManager.execute(session);
+        return session;
+    }
+
+    /**
+     * Method to send a movement command to the destination rover
+     * @param commandFlag   byte
+     */
+    public void sendCommand(byte commandFlag) {
+        RdtProtocol protocol = this.controlSegment(this.destinationRoverId);
+        protocol.setSeq(1);
+        protocol.setCommandFlag(commandFlag);
+        protocol.setSessionId(this.newSessionId());
+        protocol.setTimestamp(RttEstimator.currentTimestamp());
+        System.out.println(">> Sending COMMAND to: " + this.getIpAddressFromRoverId(this.destinationRoverId));
+        this.transmit(protocol);
+    }
+
+    /**
+     * Method to remove a session once its transfer has ended
+     * @param session   SendSession
+     */
+    public void removeSession(SendSession session) {
+        this.sessions.remove(session.getSessionId());
+        this.eventLoop.execute(() -> {
+            if (this.lastSession == session) this.lastSession = null;
+        });
+    }
+
+    /**
+     * Method to derive the session ID of a file transfer from the path, length and modification time of the file,
+     * so that a restarted sender finds the checkpoint the receiver kept for the same file. A file that is already
+     * being sent gets a random ID instead.
+     * @param file  File
+     * @return      int
+     */
+    private int transferId(File file) {
+        CRC32C crc32c = new CRC32C();
+        crc32c.update(file.getAbsolutePath().getBytes(StandardCharsets.UTF_8));
+        crc32c.update(ByteBuffer.allocate(2 * Long.BYTES).putLong(file.length()).putLong(file.lastModified()).flip());
+        int sessionId = (int) crc32c.getValue();
+        return (sessionId == 0 || this.sessions.containsKey(sessionId)) ? this.newSessionId() : sessionId;
+    }
+
+    /**
+     * Method to pick an unused, non-zero session ID
+     * @return  int
+     */
+    private int newSessionId() {
+        int sessionId;
+        do {
+            sessionId = this.random.nextInt();
+        } while (sessionId == 0 || this.sessions.containsKey(sessionId));
+        return sessionId;
+    }
+
+    /**
+     * Method called by the event loop when a cumulative acknowledgement arrives for one of the sessions
+     * @param sessionId         int
+     * @param roverId           byte receiver that sent the acknowledgement
+     * @param ack               int
+     * @param timestampEcho     int
+     * @param window            int receive window the receiver advertises
+     */
+    public void onAcknowledgement(int sessionId, byte roverId, int ack, int timestampEcho, int window) {
+        SendSession session = this.lastSession;
+        if (session == null || session.getSessionId() != sessionId) {
+            session = this.sessions.get(sessionId);
+            this.lastSession = session;
         }
+        if (session != null) session.onAcknowledgement(roverId, ack, timestampEcho, window);
     }
 
     /**
-     * Method to resend missing packets
-     */
-    private void resendMissingPackets() {
-        System.out.println(">> Inside Resend Packet:");
-        for (RdtProtocol protocol : this.segments) {
-            for (int missingSequence : missingSequenceNumbers) {
-                System.out.println("Missing sequences: " + missingSequence);
-                if (missingSequence == 0) continue;
-                if (missingSequence == protocol.getSeq()) {
-                    packet = new DatagramPacket(
-                        protocol.getByteStream(),
-                        protocol.getByteStream().length,
-                        this.address,
-                        this.rover.getPort()
-                    );
-                    try {
-                        System.out.println(">> Re-sending missing packet: " + missingSequence);
-                        this.socket.send(packet);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-                } else {
-                    break;
-                }
+     * Method called by the event loop when a selective acknowledgement arrives for one of the sessions
+     * @param sessionId int
+     * @param roverId   byte receiver that sent the selective acknowledgement
+     * @param sack      RdtProtocol decoder positioned on the selective acknowledgement
+     */
+    public void onSelectiveAcknowledgement(int sessionId, byte roverId, RdtProtocol sack) {
+        SendSession session = this.sessions.get(sessionId);
+        if (session != null) session.onSelectiveAcknowledgement(roverId, sack);
+    }
+
+    /**
+     * Method called by the event loop when the receiver acknowledges the FIN of one of the sessions
+     * @param sessionId int
+     * @param roverId   byte receiver that acknowledged the FIN
+     */
+    public void onFinishAcknowledgement(int sessionId, byte roverId) {
+        SendSession session = this.sessions.get(sessionId);
+        if (session != null) session.onFinishAcknowledgement(roverId);
+    }
+
+    /**
+     * Method called by the event loop when a receiver answers a path MTU probe of one of the sessions
+     * @param sessionId         int
+     * @param roverId           byte receiver that answered
+     * @param segmentSize       int segment size of the probe
+     * @param timestampEcho     int
+     */
+    public void onProbeAcknowledgement(int sessionId, byte roverId, int segmentSize, int timestampEcho) {
+        SendSession session = this.sessions.get(sessionId);
+        if (session != null) session.onProbeAcknowledgement(roverId, segmentSize, timestampEcho);
+    }
+
+    /**
+     * Method called by the event loop when a receiver answers the OPEN of one of the sessions
+     * @param sessionId int
+     * @param roverId   byte
+     * @param answer    RdtProtocol decoder positioned on the answer
+     */
+    public void onOpenAcknowledgement(int sessionId, byte roverId, RdtProtocol answer) {
+        SendSession session = this.sessions.get(sessionId);
+        if (session != null) session.onOpenAcknowledgement(roverId, answer);
+    }
+
+    /**
+     * Method to open a session: the OPEN proposes the layout and parameters of the transfer and asks the
+     * receivers which segments they already hold
+     * @param sessionId             int
+     * @param segmentSize           int segment size of the session
+     * @param length                long bytes sent in the session
+     * @param window                int segments the sender keeps in flight at most
+     * @param features              int optional features, RdtProtocol.FEATURE_*
+     * @param extension             String extension of the file
+     * @param destinationRoverId    byte
+     */
+    public void sendOpen(int sessionId, int segmentSize, long length, int window, int features, String extension, byte destinationRoverId) {
+        RdtProtocol protocol = this.controlSegment(destinationRoverId);
+        protocol.setSessionId(sessionId);
+        protocol.setOpen(true);
+        protocol.setCommandFlag((byte) 5);
+        protocol.setSegmentSize(segmentSize);
+        protocol.setAcknowledgementNumber((int) length);
+        protocol.setTimestamp(RttEstimator.currentTimestamp());
+        protocol.setOpenParameters(window, features, extension);
+        this.transmit(protocol);
+    }
+
+    /**
+     * Method to answer an OPEN with the parameters the receiver accepts and the ranges of sequences that are still
+     * missing. When the ranges do not all fit, the last one is stretched to the end of the file, so the sender
+     * never skips a missing segment. A receiver that refuses the segment size answers with its own largest one
+     * and no ranges.
+     * @param sessionId             int
+     * @param segmentSize           int accepted segment size
+     * @param window                int accepted window
+     * @param features              int accepted features
+     * @param receivedSequences     SequenceWindow sequences on the disk of the receiver, null when the OPEN is refused
+     * @param lastSeq               int
+     * @param destinationRoverId    byte
+     * @param timestampEcho         int timestamp of the OPEN
+     */
+    public void sendOpenAcknowledgement(int sessionId, int segmentSize, int window, int features, SequenceWindow receivedSequences, int lastSeq, byte destinationRoverId, int timestampEcho) {
+        RdtProtocol protocol = this.controlSegment(destinationRoverId);
+        protocol.setSessionId(sessionId);
+        protocol.setOpen(true);
+        protocol.setAck(true);
+        protocol.setCommandFlag((byte) 5);
+        protocol.setSegmentSize(segmentSize);
+        protocol.setTimestamp(timestampEcho);
+        protocol.setOpenParameters(window, features, "");
+        int ranges = 0;
+        if (receivedSequences != null) {
+            protocol.setAcknowledgementNumber(receivedSequences.nextClearBit(1));
+            int start = receivedSequences.nextClearBit(1);
+            while (start <= lastSeq) {
+                int end = receivedSequences.nextSetBit(start, lastSeq + 1);
+                if (ranges == RdtProtocol.MAXIMUM_RESUME_RANGES - 1) end = lastSeq + 1;
+                protocol.setResumeRange(ranges++, start, end - start);
+                start = receivedSequences.nextClearBit(end);
             }
         }
-        resend = false;
+        protocol.setLength(RdtProtocol.OPEN_PARAMETERS_SIZE + ranges * RdtProtocol.RESUME_RANGE_SIZE);
+        System.out.println(">> Sending OPEN-ACK to: " + this.getIpAddressFromRoverId(destinationRoverId) + ", window " + window
+            + ", features " + features + ", " + ranges + " missing ranges");
+        this.transmit(protocol);
+    }
+
+    /**
+     * Method to send a path MTU probe: a datagram as large as the largest datagram of a session with the
+     * given segment size, a repair segment, so that the receiver only answers if the whole datagram arrived
+     * @param sessionId             int
+     * @param segmentSize           int segment size being probed
+     * @param destinationRoverId    byte
+     */
+    public void sendProbe(int sessionId, int segmentSize, byte destinationRoverId) {
+        RdtProtocol protocol = this.controlSegment(destinationRoverId);
+        protocol.setSessionId(sessionId);
+        protocol.setProbe(true);
+        protocol.setCommandFlag((byte) 5);
+        protocol.setSegmentSize(segmentSize);
+        protocol.setTimestamp(RttEstimator.currentTimestamp());
+        protocol.setLength(RdtProtocol.REPAIR_HEADER_SIZE + segmentSize);
+        this.transmit(protocol);
+    }
+
+    /**
+     * Method to answer a path MTU probe
+     * @param sessionId             int
+     * @param segmentSize           int segment size of the probe
+     * @param destinationRoverId    byte
+     * @param timestampEcho         int timestamp of the probe
+     */
+    public void sendProbeAcknowledgement(int sessionId, int segmentSize, byte destinationRoverId, int timestampEcho) {
+        RdtProtocol protocol = this.controlSegment(destinationRoverId);
+        protocol.setSessionId(sessionId);
+        protocol.setProbe(true);
+        protocol.setAck(true);
+        protocol.setCommandFlag((byte) 5);
+        protocol.setSegmentSize(segmentSize);
+        protocol.setTimestamp(timestampEcho);
+        this.transmit(protocol);
     }
 
     /**
      * Method to send acknowledgement
+     * @param sessionId             int
      * @param ack                   int
      * @param destinationRoverId    byte
+     * @param command               byte
+     * @param timestampEcho         int timestamp of the segment being acknowledged
+     * @param window                int receive window advertised to the sender
      */
-    public void sendAcknowledgement(int ack, byte destinationRoverId, byte command) {
-        RdtProtocol protocol = new RdtProtocol(null, this.rover.getRoverId(), destinationRoverId);
-        protocol.setSeq(sendersSeq + 1);
+    public void sendAcknowledgement(int sessionId, int ack, byte destinationRoverId, byte command, int timestampEcho, int window) {
+        RdtProtocol protocol = this.controlSegment(destinationRoverId);
+        protocol.setSessionId(sessionId);
         protocol.setAck(true);
         protocol.setAcknowledgementNumber(ack);
+        protocol.setReceiveWindow(window);
         protocol.setCommandFlag(command);
-        protocol.prepareSegment();
-        this.segments.add(protocol);
-        System.out.println(">> Sending ACK to: " + this.getIpAddressFromRoverId(destinationRoverId));
-        packet = new DatagramPacket(protocol.getByteStream(), protocol.getByteStream().length, this.address, this.receiverPort);
-        try {
-            this.socket.send(packet);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        protocol.setTimestamp(timestampEcho);
+        this.transmit(protocol);
     }
 
     /**
-     * Method to send negative acknowledgement
-     * @param missingSequences      List<Integer>
+     * Method to send a selective acknowledgement: the NAK flag is set, the acknowledgement number carries the
+     * cumulative acknowledgement and the data portion lists the ranges of missing sequences between from and to.
+     * A multicast receiver leaves out the holes that it or another receiver has requested already.
+     * @param sessionId             int
+     * @param ack                   int cumulative acknowledgement
+     * @param receivedSequences     SequenceWindow sequences received so far
+     * @param requestedSequences    SequenceWindow holes requested already, null to report every hole
+     * @param from                  int first sequence to report
+     * @param to                    int sequence after the last one to report
      * @param destinationRoverId    byte
+     * @param window                int receive window advertised to the sender
      */
-    public void sendNegativeAcknowledgement(List<Integer> missingSequences, byte destinationRoverId) {
-        RdtProtocol protocol = new RdtProtocol(this.convertIntegerListToByteArray(missingSequences), this.rover.getRoverId(), destinationRoverId);
-        protocol.setSeq(sendersSeq + 1);
+    public void sendSelectiveAcknowledgement(int sessionId, int ack, SequenceWindow receivedSequences, SequenceWindow requestedSequences, int from, int to, byte destinationRoverId, int window) {
+        RdtProtocol protocol = this.controlSegment(destinationRoverId);
+        protocol.setSessionId(sessionId);
         protocol.setNak(true);
-        protocol.prepareSegment();
-        this.segments.add(protocol);
-        System.out.println(">> Sending NAK to: " + this.getIpAddressFromRoverId(destinationRoverId));
-        packet = new DatagramPacket(protocol.getByteStream(), protocol.getByteStream().length, this.address, this.receiverPort);
-        try{
-            this.socket.send(packet);
-        } catch (IOException e) {
-            e.printStackTrace();
+        protocol.setAcknowledgementNumber(ack);
+        protocol.setReceiveWindow(window);
+        protocol.setCommandFlag((byte) 5);
+        int ranges = 0;
+        int start = receivedSequences.nextClearBit(from, requestedSequences);
+        while (start < to && ranges < RdtProtocol.MAXIMUM_SACK_RANGES) {
+            int end = receivedSequences.nextSetBit(start, to);
+            if (requestedSequences != null) end = requestedSequences.nextSetBit(start, end);
+            protocol.setHoleRange(ranges++, start - ack, end - start);
+            start = receivedSequences.nextClearBit(end, requestedSequences);
         }
+        protocol.setLength(ranges * RdtProtocol.SACK_RANGE_SIZE);
+        this.transmit(protocol);
     }
 
-    private void sendFinishPacket() {
-        RdtProtocol protocol = new RdtProtocol(null, this.rover.getRoverId(), this.destinationRoverId);
-        protocol.setSeq(sendersSeq + 1);
+    /**
+     * Method to send the FIN that closes a session
+     * @param sessionId             int
+     * @param destinationRoverId    byte
+     * @param commandFlag           byte
+     * @param digest                byte[] digest of the whole file, carried in the data portion
+     * @param wireLength            long length of the wire image of a compressed session, carried in the acknowledgement number; 0 otherwise
+     */
+    public void sendFinishPacket(int sessionId, byte destinationRoverId, byte commandFlag, byte[] digest, long wireLength) {
+        RdtProtocol protocol = this.controlSegment(destinationRoverId);
+        protocol.setSessionId(sessionId);
         protocol.setFin(true);
+        protocol.setAcknowledgementNumber((int) wireLength);
         protocol.setCommandFlag(commandFlag);
-        protocol.prepareSegment();
-        this.segments.add(protocol);
+        protocol.setPayload(digest);
         System.out.println(">> Sending FIN to: " + this.getIpAddressFromRoverId(destinationRoverId));
-        packet = new DatagramPacket(protocol.getByteStream(), protocol.getByteStream().length, this.address, this.receiverPort);
-        try{
-            this.socket.send(packet);
+        this.transmit(protocol);
+    }
+
+    /**
+     * Method to acknowledge the FIN of a session
+     * @param sessionId             int
+     * @param destinationRoverId    byte
+     * @param commandFlag           byte
+     */
+    public void sendFinishAcknowledgement(int sessionId, byte destinationRoverId, byte commandFlag) {
+        RdtProtocol protocol = this.controlSegment(destinationRoverId);
+        protocol.setSessionId(sessionId);
+        protocol.setAck(true);
+        protocol.setFin(true);
+        protocol.setCommandFlag(commandFlag);
+        System.out.println(">> Sending FIN-ACK to: " + this.getIpAddressFromRoverId(destinationRoverId));
+        this.transmit(protocol);
+    }
+
+    /**
+     * Method to get a segment for a control datagram. On the event loop the one reused segment is handed out,
+     * so acknowledgements do not allocate; other threads get a segment of their own.
+     * @param destinationRoverId    byte
+     * @return                      RdtProtocol
+     */
+    private RdtProtocol controlSegment(byte destinationRoverId) {
+        if (!this.eventLoop.inEventLoop()) return new RdtProtocol(null, this.rover.getRoverId(), destinationRoverId);
+        this.control.reset(this.rover.getRoverId(), destinationRoverId);
+        return this.control;
+    }
+
+    /**
+     * Method to send a control segment from the event loop, which sends it as soon as the channel is writable
+     * @param protocol  RdtProtocol
+     */
+    private void transmit(RdtProtocol protocol) {
+        ByteBuffer datagram = protocol.frame();
+        if (this.eventLoop.inEventLoop()) {
+            this.sendControl(datagram);
+            return;
+        }
+        this.eventLoop.execute(() -> this.sendControl(datagram));
+    }
+
+    /**
+     * Method to send a control datagram straight away, or queue it behind the datagrams already waiting.
+     * The reused segment is copied before it is queued. Runs on the event loop.
+     * @param datagram  ByteBuffer framed to the header and payload of the segment
+     */
+    private void sendControl(ByteBuffer datagram) {
+        try {
+            if (this.pendingControl.isEmpty() && this.controlChannel.send(datagram, this.controlTarget) != 0) return;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        if (datagram == this.control.getBuffer()) {
+            datagram = ByteBuffer.allocate(datagram.remaining()).put(datagram).flip();
+        }
+        this.pendingControl.add(datagram);
+        this.flushControl();
+    }
+
+    /**
+     * Method to send the queued control datagrams until the channel would block. Runs on the event loop.
+     */
+    private void flushControl() {
+        try {
+            while (!this.pendingControl.isEmpty()) {
+                if (this.controlChannel.send(this.pendingControl.peek(), this.controlTarget) == 0) {
+                    this.eventLoop.setWriteInterest(this.controlChannel, true);
+                    return;
+                }
+                this.pendingControl.poll();
+            }
+            this.eventLoop.setWriteInterest(this.controlChannel, false);
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
     /**
-     * Method to check if received acknowledgement is as expected
-     * @param ack   int
-     * @return      boolean
+     * Nothing is sent to the control channel, it is registered for send readiness only
+     * @param key   SelectionKey
      */
-    public boolean verifyAcknowledgement(int ack) {
-        return ack == nextSeq;
+    @Override
+    public void onReadable(SelectionKey key) throws IOException {
+        this.controlChannel.receive(ByteBuffer.allocate(RdtProtocol.FIXED_HEADER_SIZE));
+    }
+
+    /**
+     * Method called by the event loop when the control channel can send again
+     * @param key   SelectionKey
+     */
+    @Override
+    public void onWritable(SelectionKey key) {
+        this.flushControl();
     }
 
     /**
@@ -259,21 +521,4 @@ public class Sender extends Thread {
     private String getIpAddressFromRoverId(byte id) {
         return ("10.0.0." + id);
     }
-
-    /**
-     * Method to convert a list of integers to an array of bytes
-     * @param numbers
-     * @return
-     */
-    private byte[] convertIntegerListToByteArray(List<Integer> numbers) {
-        byte[] byteArray = new byte[numbers.size() * 4];
-        int index = 0;
-        for (int number : numbers) {
-           byteArray[index++] = (byte) (number >>> 24);
-           byteArray[index++] = (byte) (number >>> 16);
-           byteArray[index++] = (byte) (number >>> 8);
-           byteArray[index++] = (byte) (number);
-        }
-        return byteArray;
-    }
 }
@@ -0,0 +1,224 @@
+import java.util.Arrays;
+
+/**
+ * Set of sequence numbers kept for the receive window of a ReceiveSession. Every sequence below the base is in
+ * the set; the sequences from the base on are tracked in a ring of bits, sequence seq in bit seq & mask, and the
+ * ones past the ring are not in the set. The base slides with the cumulative acknowledgement, so the ring is
+ * never grown or copied whatever the length of the file, and scans go a word of 64 sequences at a time.
+ */
+public class SequenceWindow {
+    // Class fields
+    private long[] words; // bits of the ring
+    private int mask; // capacity - 1, the capacity being a power of two and a multiple of 64
+    private int base = 1; // sequences below this one are in the set
+
+    /**
+     * Constructor for this class
+     * @param window    int receive window in segments; the ring holds twice as many, so the blocks that repair
+     *                  segments rebuild past the window still fit
+     */
+    public SequenceWindow(int window) {
+        int capacity = Math.max(Long.SIZE, Integer.highestOneBit(Math.max(1, 2 * window) * 2 - 1));
+        this.words = new long[capacity / Long.SIZE];
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * Getter for the number of sequences the ring tracks from the base on
+     * @return  int
+     */
+    public int capacity() {
+        return this.mask + 1;
+    }
+
+    /**
+     * Getter for the lowest sequence the ring tracks
+     * @return  int
+     */
+    public int base() {
+        return this.base;
+    }
+
+    /**
+     * Method to check if a sequence is in the set
+     * @param seq   int
+     * @return      boolean
+     */
+    public boolean get(int seq) {
+        if (seq < this.base) return true;
+        if (seq - this.base > this.mask) return false;
+        return (this.words[(seq & this.mask) >>> 6] & (1L << seq)) != 0;
+    }
+
+    /**
+     * Method to add a sequence to the set. A sequence past the ring is ignored.
+     * @param seq   int
+     */
+    public void set(int seq) {
+        if (seq < this.base || seq - this.base > this.mask) return;
+        this.words[(seq & this.mask) >>> 6] |= 1L << seq;
+    }
+
+    /**
+     * Method to add a range of sequences to the set, as far as the ring reaches
+     * @param from  int first sequence
+     * @param to    int sequence after the last one
+     */
+    public void set(int from, int to) {
+        int end = Math.min(to, this.base + this.capacity());
+        for (int seq = Math.max(from, this.base); seq < end; seq++) {
+            this.words[(seq & this.mask) >>> 6] |= 1L << seq;
+        }
+    }
+
+    /**
+     * Method to return the first sequence from the given one on that is not in the set
+     * @param from  int
+     * @return      int
+     */
+    public int nextClearBit(int from) {
+        int start = Math.max(from, this.base);
+        int limit = this.base + this.capacity();
+        return (start < limit) ? this.scan(start, limit, false) : start;
+    }
+
+    /**
+     * Method to return the first sequence from the given one on that is in neither this set nor the other one
+     * @param from  int
+     * @param other SequenceWindow, may be null
+     * @return      int
+     */
+    public int nextClearBit(int from, SequenceWindow other) {
+        int seq = this.nextClearBit(from);
+        while (other != null && other.get(seq)) seq = this.nextClearBit(other.nextClearBit(seq));
+        return seq;
+    }
+
+    /**
+     * Method to return the first sequence of a range that is in the set
+     * @param from  int first sequence
+     * @param to    int sequence after the last one
+     * @return      int the sequence, or to when there is none
+     */
+    public int nextSetBit(int from, int to) {
+        if (from >= to || from < this.base) return Math.min(from, to);
+        int limit = Math.min(to, this.base + this.capacity());
+        int seq = this.scan(from, limit, true);
+        return (seq < limit) ? seq : to;
+    }
+
+    /**
+     * Method to scan the ring a word at a time for the first sequence of a range whose bit has the given value
+     * @param from  int first sequence, not below the base
+     * @param limit int sequence after the last one, not past the ring
+     * @param value boolean true to look for a set bit
+     * @return      int the sequence, or limit when there is none
+     */
+    private int scan(int from, int limit, boolean value) {
+        int seq = from;
+        while (seq < limit) {
+            int position = seq & this.mask;
+            long word = this.words[position >>> 6];
+            if (!value) word = ~word;
+            word >>>= position & 63;
+            if (word != 0) return Math.min(limit, seq + Long.numberOfTrailingZeros(word));
+            seq += 64 - (position & 63);
+        }
+        return limit;
+    }
+
+    /**
+     * Method to move the base up to the given sequence, dropping the bits of the sequences it passes so their
+     * slots can track the sequences coming into the ring
+     * @param to    int new base, every sequence below it being in the set
+     */
+    public void slide(int to) {
+        if (to <= this.base) return;
+        if (to - this.base > this.mask) {
+            Arrays.fill(this.words, 0L);
+        } else {
+            for (int seq = this.base; seq < to; seq++) {
+                this.words[(seq & this.mask) >>> 6] &= ~(1L << seq);
+            }
+        }
+        this.base = to;
+    }
+
+    /**
+     * Method to remove every sequence from the given one on, moving the base back to it if it is below
+     * @param from  int
+     */
+    public void truncate(int from) {
+        if (from <= this.base) {
+            Arrays.fill(this.words, 0L);
+            this.base = Math.max(1, from);
+            return;
+        }
+        int end = this.base + this.capacity();
+        for (int seq = from; seq < end; seq++) {
+            this.words[(seq & this.mask) >>> 6] &= ~(1L << seq);
+        }
+    }
+
+    /**
+     * Method to remove every sequence from the base on
+     */
+    public void clear() {
+        Arrays.fill(this.words, 0L);
+    }
+
+    /**
+     * Method to count the sequences in the set
+     * @return  int
+     */
+    public int cardinality() {
+        int count = this.base - 1;
+        for (long word : this.words) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    /**
+     * Method to return the highest sequence in the set
+     * @return  int
+     */
+    public int highest() {
+        for (int seq = this.base + this.mask; seq >= this.base; seq--) {
+            if (this.get(seq)) return seq;
+        }
+        return this.base - 1;
+    }
+
+    /**
+     * Method to copy the ring in the order of the sequences: bit j of the copy is the sequence base + j
+     * @return  long[] as many words as the ring
+     */
+    public long[] snapshot() {
+        long[] copy = new long[this.words.length];
+        int offset = this.base & this.mask;
+        int shift = offset & 63;
+        for (int index = 0; index < copy.length; index++) {
+            int word = ((offset >>> 6) + index) % this.words.length;
+            long low = this.words[word] >>> shift;
+            long high = (shift == 0) ? 0 : this.words[(word + 1) % this.words.length] << (64 - shift);
+            copy[index] = low | high;
+        }
+        return copy;
+    }
+
+    /**
+     * Method to replace the set by a copy taken with snapshot(), possibly by a ring of another capacity.
+     * The bits that do not fit this ring are dropped, and the sequences they stand for are received again.
+     * @param base  int base of the copy
+     * @param copy  long[]
+     */
+    public void restore(int base, long[] copy) {
+        Arrays.fill(this.words, 0L);
+        this.base = Math.max(1, base);
+        int bits = Math.min(this.capacity(), copy.length * Long.SIZE);
+        for (int bit = 0; bit < bits; bit++) {
+            if ((copy[bit >>> 6] & (1L << bit)) != 0) this.set(this.base + bit);
+        }
+    }
+}
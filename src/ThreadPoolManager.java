@@ -1,12 +1,158 @@
-import java.util.concurrent.Executor;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Process-wide execution layer of the rover. The two stages that run for the life of the process, the event loop
+ * and the disk stage, each get a dedicated platform thread, so they never wait for a pool thread and nothing else
+ * waits for them. A small fixed set of platform threads runs the other I/O tasks (the rover start-up), and every
+ * session and command handler runs as its own task on the session executor: a virtual thread per task when the
+ * JVM has them (Java 21+), a bounded pool of platform threads otherwise. Both executors are created once, their
+ * queue depths can be read at any time, and a shutdown hook lets running sessions finish within a grace period
+ * before the remaining threads are interrupted.
+ */
 public class ThreadPoolManager {
-    private static ExecutorService executorService;
+    public static final int IO_THREADS = Math.max(1, Integer.getInteger("rdt.threads.io", 1)); // platform threads for start-up tasks, the stages have their own
+    public static final int SESSION_THREADS = Integer.getInteger("rdt.threads.sessions", 4 * Runtime.getRuntime().availableProcessors()); // platform threads for sessions when there are no virtual threads
+    public static final boolean VIRTUAL_THREADS = Boolean.parseBoolean(System.getProperty("rdt.threads.virtual", "true")); // run sessions on virtual threads when the JVM supports them
+    public static final long SHUTDOWN_GRACE_MILLIS = Long.getLong("rdt.threads.grace", 1_000L); // time running sessions get to finish on shutdown
+    private static ThreadPoolExecutor ioExecutor; // platform threads for socket I/O
+    private static ExecutorService sessionExecutor; // virtual threads, or a pool of platform threads, for sessions and commands
+    private static boolean virtual = false; // set when the session executor runs virtual threads
+    private static AtomicInteger queuedTasks = new AtomicInteger(); // session tasks submitted that have not started yet
+    private static AtomicInteger runningTasks = new AtomicInteger(); // session tasks running
+    private static List<Thread> stages = new CopyOnWriteArrayList<>(); // dedicated threads of the long-running stages
 
-    public static ExecutorService getThread() {
-        executorService = Executors.newFixedThreadPool(12);
-        return executorService;
+    static {
+        ioExecutor = new ThreadPoolExecutor(IO_THREADS, IO_THREADS, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), threadFactory("rdt-io"));
+        sessionExecutor = newSessionExecutor();
+        Runtime.getRuntime().addShutdownHook(new Thread(ThreadPoolManager::shutdown, "rdt-shutdown"));
+    }
+
+    /**
+     * Method to create the session executor: one virtual thread per task where Executors offers it, looked up
+     * reflectively so the code still compiles and runs on Java 17, and a pool of SESSION_THREADS otherwise
+     * @return  ExecutorService
+     */
+    private static ExecutorService newSessionExecutor() {
+        if (VIRTUAL_THREADS) {
+            try {
+                ExecutorService executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+                virtual = true;
+                return executor;
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                System.out.println(">> Virtual threads are not available, sessions run on " + SESSION_THREADS + " platform threads");
+            }
+        }
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(SESSION_THREADS, SESSION_THREADS, 30L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), threadFactory("rdt-session"));
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * Method to create a factory of named platform threads
+     * @param prefix    String name of the threads, followed by their number
+     * @return          ThreadFactory
+     */
+    private static ThreadFactory threadFactory(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return task -> new Thread(task, prefix + "-" + count.incrementAndGet());
+    }
+
+    /**
+     * Method to run a task that owns socket I/O, such as the event loop, on a platform thread
+     * @param task  Runnable
+     */
+    public static void executeIo(Runnable task) {
+        ioExecutor.execute(task);
+    }
+
+    /**
+     * Method to start a stage that runs for the life of the process, such as the event loop or the disk stage, on
+     * a dedicated platform thread
+     * @param name  String name of the thread
+     * @param task  Runnable
+     */
+    public static void startStage(String name, Runnable task) {
+        Thread thread = new Thread(task, "rdt-" + name);
+        stages.add(thread);
+        thread.start();
+    }
+
+    /**
+     * Method to run a session or a command handler on the session executor
+     * @param task  Runnable
+     */
+    public static void execute(Runnable task) {
+        queuedTasks.incrementAndGet();
+        sessionExecutor.execute(() -> {
+            queuedTasks.decrementAndGet();
+            runningTasks.incrementAndGet();
+            try {
+                task.run();
+            } finally {
+                runningTasks.decrementAndGet();
+            }
+        });
+    }
+
+    /**
+     * Getter for the number of session tasks waiting for a thread
+     * @return  int
+     */
+    public static int getQueuedTasks() {
+        return queuedTasks.get();
+    }
+
+    /**
+     * Getter for the number of session tasks running
+     * @return  int
+     */
+    public static int getRunningTasks() {
+        return runningTasks.get();
+    }
+
+    /**
+     * Getter for the number of I/O tasks waiting for a platform thread
+     * @return  int
+     */
+    public static int getQueuedIoTasks() {
+        return ioExecutor.getQueue().size();
+    }
+
+    /**
+     * Method to describe the load of both executors
+     * @return  String
+     */
+    public static String status() {
+        return stages.size() + " stages, io " + ioExecutor.getActiveCount() + "/" + IO_THREADS + " busy, " + getQueuedIoTasks() + " queued; sessions "
+            + getRunningTasks() + " running, " + getQueuedTasks() + " queued on " + (virtual ? "virtual threads" : SESSION_THREADS + " platform threads");
+    }
+
+    /**
+     * Method to stop both executors: no new task is accepted, running sessions get SHUTDOWN_GRACE_MILLIS to
+     * finish, and whatever is still running after that, the stages included, is interrupted
+     */
+    public static void shutdown() {
+        sessionExecutor.shutdown();
+        ioExecutor.shutdown();
+        try {
+            if (!sessionExecutor.awaitTermination(SHUTDOWN_GRACE_MILLIS, TimeUnit.MILLISECONDS)) {
+                System.out.println("[!!!] Interrupting the tasks still running at shutdown: " + status());
+                sessionExecutor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            sessionExecutor.shutdownNow();
+        }
+        ioExecutor.shutdownNow();
+        for (Thread stage : stages) {
+            stage.interrupt();
+        }
     }
 }
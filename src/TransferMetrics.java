@@ -0,0 +1,450 @@
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters and latency histograms of one send or receive session, exported as a JMX MBean while the session runs.
+ * Every update is added to the aggregate of the process as well, which stays registered and keeps the totals of
+ * the sessions that have ended. Counters are LongAdders, striped so that the sessions, the event loop and the
+ * disk stage never contend on one cache line, and the histograms are lock-free, so recording costs a few
+ * uncontended atomic adds on the hot path. Snapshots copy everything at once and can be taken periodically,
+ * for a test or a graph; with -Drdt.metrics.period=<ms> the aggregate is printed at that period.
+ */
+public class TransferMetrics implements TransferMetricsMBean {
+    public static final boolean JMX = Boolean.parseBoolean(System.getProperty("rdt.metrics.jmx", "true")); // false to keep the metrics out of the platform MBean server
+    public static final long REPORT_PERIOD_MILLIS = Long.getLong("rdt.metrics.period", 0L); // period of the aggregate printed to the console, 0 for none
+    public static final String DOMAIN = "rdt"; // JMX domain of every MBean
+    public static final String SENDER = "sender";
+    public static final String RECEIVER = "receiver";
+    private static TransferMetrics aggregate = null; // totals of every session of the process
+    // Class fields
+    private TransferMetrics parent; // aggregate every update is added to as well, null for the aggregate itself
+    private LongAdder[] counters = new LongAdder[Counter.values().length]; // value of every counter, indexed by its ordinal
+    private LatencyHistogram rtt = new LatencyHistogram(); // round trip time samples
+    private LatencyHistogram blockLatency = new LatencyHistogram(); // time from the first segment of a block to its completion
+    private ObjectName name; // name the metrics are registered under, null when they are not
+
+    /**
+     * Events counted by the metrics
+     */
+    public enum Counter {
+        SEGMENTS_SENT, BYTES_SENT, SEGMENTS_RECEIVED, BYTES_RECEIVED, RETRANSMISSIONS, REPAIRS_SENT, SEGMENTS_REBUILT,
+        NAKS_SENT, NAKS_RECEIVED, DUPLICATES, TIMEOUTS, CORRUPT_DATAGRAMS, BLOCKS_COMPLETED
+    }
+
+    /**
+     * Constructor for this class
+     * @param parent    TransferMetrics aggregate, null for the aggregate itself
+     */
+    private TransferMetrics(TransferMetrics parent) {
+        this.parent = parent;
+        for (int index = 0; index < this.counters.length; index++) {
+            this.counters[index] = new LongAdder();
+        }
+    }
+
+    /**
+     * Method to return the aggregate of the process, registering it and starting its console report on first use
+     * @return  TransferMetrics
+     */
+    public static synchronized TransferMetrics aggregate() {
+        if (aggregate == null) {
+            aggregate = new TransferMetrics(null);
+            aggregate.register(DOMAIN + ":type=Aggregate");
+            if (REPORT_PERIOD_MILLIS > 0) aggregate.report(REPORT_PERIOD_MILLIS, new Consumer<Snapshot>() {
+                private Snapshot previous = null; // snapshot of the previous period
+
+                @Override
+                public void accept(Snapshot snapshot) {
+                    if (this.previous != null && snapshot.changedSince(this.previous)) System.out.println(">> Metrics: " + snapshot.describe(this.previous));
+                    this.previous = snapshot;
+                }
+            });
+        }
+        return aggregate;
+    }
+
+    /**
+     * Method to create the metrics of a session and register them until the session ends
+     * @param role      String SENDER or RECEIVER
+     * @param sessionId int
+     * @param peer      byte rover at the other end, 0 for every rover of a multicast session
+     * @return          TransferMetrics
+     */
+    public static TransferMetrics forSession(String role, int sessionId, byte peer) {
+        TransferMetrics metrics = new TransferMetrics(aggregate());
+        metrics.register(DOMAIN + ":type=Session,role=" + role + ",id=" + String.format("%08x", sessionId) + ",peer=" + (peer & 0xff));
+        return metrics;
+    }
+
+    /**
+     * Method to register the metrics with the platform MBean server, replacing metrics of the same name left by a
+     * session that was restarted
+     * @param objectName    String
+     */
+    private void register(String objectName) {
+        if (!JMX) return;
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(objectName);
+            synchronized(TransferMetrics.class) {
+                if (server.isRegistered(name)) server.unregisterMBean(name);
+                server.registerMBean(this, name);
+            }
+            this.name = name;
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Method to remove the metrics of a session from the MBean server once it has ended; its counts stay in the aggregate
+     */
+    public void unregister() {
+        if (this.name == null) return;
+        try {
+            synchronized(TransferMetrics.class) {
+                MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                if (server.isRegistered(this.name)) server.unregisterMBean(this.name);
+            }
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+        this.name = null;
+    }
+
+    /**
+     * Method to add one to a counter
+     * @param counter   Counter
+     */
+    public void increment(Counter counter) {
+        this.add(counter, 1);
+    }
+
+    /**
+     * Method to add to a counter
+     * @param counter   Counter
+     * @param value     long
+     */
+    public void add(Counter counter, long value) {
+        this.counters[counter.ordinal()].add(value);
+        if (this.parent != null) this.parent.add(counter, value);
+    }
+
+    /**
+     * Method to record a round trip time sample
+     * @param nanos long, ignored when not positive
+     */
+    public void recordRtt(long nanos) {
+        this.rtt.record(nanos);
+        if (this.parent != null) this.parent.recordRtt(nanos);
+    }
+
+    /**
+     * Method to record the completion of a block
+     * @param nanos long time from its first segment to its completion
+     */
+    public void recordBlock(long nanos) {
+        this.increment(Counter.BLOCKS_COMPLETED);
+        this.blockLatency.record(nanos);
+        if (this.parent != null) this.parent.blockLatency.record(nanos);
+    }
+
+    /**
+     * Getter for a counter
+     * @param counter   Counter
+     * @return          long
+     */
+    public long get(Counter counter) {
+        return this.counters[counter.ordinal()].sum();
+    }
+
+    /**
+     * Method to copy every counter and histogram
+     * @return  Snapshot
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    /**
+     * Method to take a snapshot at every period on the event loop and hand it to a listener, until the returned
+     * reporter is stopped. The listener runs on the event loop, so it has to return quickly.
+     * @param periodMillis  long
+     * @param listener      Consumer of Snapshot
+     * @return              Reporter
+     */
+    public Reporter report(long periodMillis, Consumer<Snapshot> listener) {
+        Reporter reporter = new Reporter(this, periodMillis * 1_000_000L, listener);
+        EventLoop eventLoop = EventLoop.fetchInstance();
+        eventLoop.execute(() -> eventLoop.schedule(System.nanoTime() + reporter.periodNanos, reporter));
+        return reporter;
+    }
+
+    @Override
+    public long getSegmentsSent() {
+        return this.get(Counter.SEGMENTS_SENT);
+    }
+
+    @Override
+    public long getBytesSent() {
+        return this.get(Counter.BYTES_SENT);
+    }
+
+    @Override
+    public long getSegmentsReceived() {
+        return this.get(Counter.SEGMENTS_RECEIVED);
+    }
+
+    @Override
+    public long getBytesReceived() {
+        return this.get(Counter.BYTES_RECEIVED);
+    }
+
+    @Override
+    public long getRetransmissions() {
+        return this.get(Counter.RETRANSMISSIONS);
+    }
+
+    @Override
+    public double getRetransmissionRate() {
+        long sent = this.get(Counter.SEGMENTS_SENT);
+        return (sent == 0) ? 0 : (double) this.get(Counter.RETRANSMISSIONS) / sent;
+    }
+
+    @Override
+    public long getRepairsSent() {
+        return this.get(Counter.REPAIRS_SENT);
+    }
+
+    @Override
+    public long getSegmentsRebuilt() {
+        return this.get(Counter.SEGMENTS_REBUILT);
+    }
+
+    @Override
+    public long getNaksSent() {
+        return this.get(Counter.NAKS_SENT);
+    }
+
+    @Override
+    public long getNaksReceived() {
+        return this.get(Counter.NAKS_RECEIVED);
+    }
+
+    @Override
+    public long getDuplicates() {
+        return this.get(Counter.DUPLICATES);
+    }
+
+    @Override
+    public long getTimeouts() {
+        return this.get(Counter.TIMEOUTS);
+    }
+
+    @Override
+    public long getCorruptDatagrams() {
+        return this.get(Counter.CORRUPT_DATAGRAMS);
+    }
+
+    @Override
+    public long getBlocksCompleted() {
+        return this.get(Counter.BLOCKS_COMPLETED);
+    }
+
+    @Override
+    public long getRttSamples() {
+        return this.rtt.getCount();
+    }
+
+    @Override
+    public long getRttMeanMicros() {
+        return this.rtt.getMean();
+    }
+
+    @Override
+    public long getRttP50Micros() {
+        return this.rtt.getPercentile(50);
+    }
+
+    @Override
+    public long getRttP99Micros() {
+        return this.rtt.getPercentile(99);
+    }
+
+    @Override
+    public long getRttMaxMicros() {
+        return this.rtt.getMaximum();
+    }
+
+    @Override
+    public long getBlockLatencyP50Micros() {
+        return this.blockLatency.getPercentile(50);
+    }
+
+    @Override
+    public long getBlockLatencyP99Micros() {
+        return this.blockLatency.getPercentile(99);
+    }
+
+    @Override
+    public long getBlockLatencyMaxMicros() {
+        return this.blockLatency.getMaximum();
+    }
+
+    /**
+     * Copy of the counters and histograms of a TransferMetrics at one point in time
+     */
+    public static class Snapshot {
+        private long takenAt = System.nanoTime(); // System.nanoTime() when the snapshot was taken
+        private long[] counts; // value of every counter, indexed by its ordinal
+        private long[] rttCounts; // buckets of the round trip time histogram
+        private long rttMaximum; // largest round trip time, in microseconds
+        private long[] blockCounts; // buckets of the block latency histogram
+        private long blockMaximum; // longest block latency, in microseconds
+
+        /**
+         * Constructor for this class
+         * @param metrics   TransferMetrics
+         */
+        private Snapshot(TransferMetrics metrics) {
+            this.counts = new long[metrics.counters.length];
+            for (int index = 0; index < this.counts.length; index++) {
+                this.counts[index] = metrics.counters[index].sum();
+            }
+            this.rttCounts = metrics.rtt.copyCounts();
+            this.rttMaximum = metrics.rtt.getMaximum();
+            this.blockCounts = metrics.blockLatency.copyCounts();
+            this.blockMaximum = metrics.blockLatency.getMaximum();
+        }
+
+        /**
+         * Getter for the time the snapshot was taken
+         * @return  long System.nanoTime()
+         */
+        public long getTakenAt() {
+            return this.takenAt;
+        }
+
+        /**
+         * Getter for a counter
+         * @param counter   Counter
+         * @return          long
+         */
+        public long get(Counter counter) {
+            return this.counts[counter.ordinal()];
+        }
+
+        /**
+         * Method to check if any counter moved since an earlier snapshot
+         * @param earlier   Snapshot
+         * @return          boolean
+         */
+        public boolean changedSince(Snapshot earlier) {
+            return !Arrays.equals(this.counts, earlier.counts);
+        }
+
+        /**
+         * Method to find how fast a counter grew since an earlier snapshot
+         * @param counter   Counter
+         * @param earlier   Snapshot
+         * @return          double per second
+         */
+        public double rateSince(Counter counter, Snapshot earlier) {
+            long elapsed = this.takenAt - earlier.takenAt;
+            return (elapsed <= 0) ? 0 : (this.get(counter) - earlier.get(counter)) * 1_000_000_000.0 / elapsed;
+        }
+
+        /**
+         * Getter for a percentile of the round trip time
+         * @param percentile    double between 0 and 100
+         * @return              long microseconds
+         */
+        public long getRttPercentile(double percentile) {
+            return LatencyHistogram.percentileOf(this.rttCounts, percentile);
+        }
+
+        /**
+         * Getter for the largest round trip time
+         * @return  long microseconds
+         */
+        public long getRttMaximum() {
+            return this.rttMaximum;
+        }
+
+        /**
+         * Getter for a percentile of the block latency
+         * @param percentile    double between 0 and 100
+         * @return              long microseconds
+         */
+        public long getBlockLatencyPercentile(double percentile) {
+            return LatencyHistogram.percentileOf(this.blockCounts, percentile);
+        }
+
+        /**
+         * Getter for the longest block latency
+         * @return  long microseconds
+         */
+        public long getBlockLatencyMaximum() {
+            return this.blockMaximum;
+        }
+
+        /**
+         * Method to describe the snapshot in one line, with the throughput since an earlier one
+         * @param earlier   Snapshot
+         * @return          String
+         */
+        public String describe(Snapshot earlier) {
+            return String.format("sent %d segments (%.2f Mbit/s), received %d (%.2f Mbit/s), %d retransmissions, %d timeouts, "
+                + "NAKs %d sent / %d received, %d duplicates, %d rebuilt, RTT p50 %d us p99 %d us, block p99 %d us",
+                this.get(Counter.SEGMENTS_SENT), this.rateSince(Counter.BYTES_SENT, earlier) * 8 / 1_000_000,
+                this.get(Counter.SEGMENTS_RECEIVED), this.rateSince(Counter.BYTES_RECEIVED, earlier) * 8 / 1_000_000,
+                this.get(Counter.RETRANSMISSIONS), this.get(Counter.TIMEOUTS), this.get(Counter.NAKS_SENT),
+                this.get(Counter.NAKS_RECEIVED), this.get(Counter.DUPLICATES), this.get(Counter.SEGMENTS_REBUILT),
+                this.getRttPercentile(50), this.getRttPercentile(99), this.getBlockLatencyPercentile(99));
+        }
+    }
+
+    /**
+     * Periodic task on the event loop that hands a snapshot to a listener
+     */
+    public static class Reporter implements Runnable {
+        private TransferMetrics metrics; // metrics the snapshots are taken of
+        private long periodNanos; // time between two snapshots
+        private Consumer<Snapshot> listener; // listener the snapshots are handed to
+        private volatile boolean stopped = false; // set once no more snapshots are wanted
+
+        /**
+         * Constructor for this class
+         * @param metrics       TransferMetrics
+         * @param periodNanos   long
+         * @param listener      Consumer of Snapshot
+         */
+        private Reporter(TransferMetrics metrics, long periodNanos, Consumer<Snapshot> listener) {
+            this.metrics = metrics;
+            this.periodNanos = Math.max(1_000_000L, periodNanos);
+            this.listener = listener;
+        }
+
+        /**
+         * Method to stop the reports; a snapshot already being handed over still arrives
+         */
+        public void stop() {
+            this.stopped = true;
+        }
+
+        /**
+         * Method to take a snapshot, hand it over and schedule the next one. Runs on the event loop.
+         */
+        @Override
+        public void run() {
+            if (this.stopped) return;
+            this.listener.accept(this.metrics.snapshot());
+            EventLoop.fetchInstance().schedule(System.nanoTime() + this.periodNanos, this);
+        }
+    }
+}
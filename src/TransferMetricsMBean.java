@@ -0,0 +1,137 @@
+/**
+ * Management interface of TransferMetrics: the counters and latency percentiles of one session, or of every
+ * session of the process, as JMX attributes
+ */
+public interface TransferMetricsMBean {
+    /**
+     * Getter for the data segments sent, retransmissions included
+     * @return  long
+     */
+    long getSegmentsSent();
+
+    /**
+     * Getter for the bytes of data and repair datagrams sent
+     * @return  long
+     */
+    long getBytesSent();
+
+    /**
+     * Getter for the data segments received, duplicates included
+     * @return  long
+     */
+    long getSegmentsReceived();
+
+    /**
+     * Getter for the bytes of data segments received
+     * @return  long
+     */
+    long getBytesReceived();
+
+    /**
+     * Getter for the data segments sent more than once
+     * @return  long
+     */
+    long getRetransmissions();
+
+    /**
+     * Getter for the share of the data segments sent that were retransmissions
+     * @return  double between 0 and 1
+     */
+    double getRetransmissionRate();
+
+    /**
+     * Getter for the repair segments sent
+     * @return  long
+     */
+    long getRepairsSent();
+
+    /**
+     * Getter for the lost segments rebuilt from repair segments
+     * @return  long
+     */
+    long getSegmentsRebuilt();
+
+    /**
+     * Getter for the selective acknowledgements sent
+     * @return  long
+     */
+    long getNaksSent();
+
+    /**
+     * Getter for the selective acknowledgements received
+     * @return  long
+     */
+    long getNaksReceived();
+
+    /**
+     * Getter for the data segments received that were already on disk
+     * @return  long
+     */
+    long getDuplicates();
+
+    /**
+     * Getter for the retransmission timeouts of the sender and the NAK deadlines that passed at the receiver
+     * @return  long
+     */
+    long getTimeouts();
+
+    /**
+     * Getter for the datagrams dropped because their checksum did not match, counted by the process only
+     * @return  long
+     */
+    long getCorruptDatagrams();
+
+    /**
+     * Getter for the blocks of Receiver.BUFFER_SIZE segments received completely
+     * @return  long
+     */
+    long getBlocksCompleted();
+
+    /**
+     * Getter for the round trip time samples
+     * @return  long
+     */
+    long getRttSamples();
+
+    /**
+     * Getter for the mean round trip time
+     * @return  long microseconds
+     */
+    long getRttMeanMicros();
+
+    /**
+     * Getter for the median round trip time
+     * @return  long microseconds
+     */
+    long getRttP50Micros();
+
+    /**
+     * Getter for the 99th percentile of the round trip time
+     * @return  long microseconds
+     */
+    long getRttP99Micros();
+
+    /**
+     * Getter for the largest round trip time
+     * @return  long microseconds
+     */
+    long getRttMaxMicros();
+
+    /**
+     * Getter for the median time from the first segment of a block to its completion
+     * @return  long microseconds
+     */
+    long getBlockLatencyP50Micros();
+
+    /**
+     * Getter for the 99th percentile of the time from the first segment of a block to its completion
+     * @return  long microseconds
+     */
+    long getBlockLatencyP99Micros();
+
+    /**
+     * Getter for the longest time from the first segment of a block to its completion
+     * @return  long microseconds
+     */
+    long getBlockLatencyMaxMicros();
+}
@@ -0,0 +1,329 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Disk stage of the Receiver. The event loop only decodes a segment and copies its payload into a pooled buffer;
+ * the buffer is queued here and written to its FileSink by a single platform thread, so a slow disk delays the
+ * writes instead of the socket reads. The pool bounds the writes in flight: when it runs dry the segment is
+ * refused and dropped, to be repaired like a lost one, and the receive window the sessions advertise closes.
+ * Reading files back, inflating compressed sessions and rebuilding lost segments run here too, as tasks.
+ * Tasks such as checkpoints and file closes queue behind the writes submitted before them, so they always see
+ * those writes on disk. The event loop never waits for the disk: a task that finds the queue full is held in an
+ * overflow list, writes are refused while it holds one, and the loop moves the list into the queue as soon as
+ * the disk stage makes room. How often the data is forced depends on the durability mode:
+ *  - none:     never, the operating system writes the pages back when it likes (checkpoints still force)
+ *  - block:    after every block of Receiver.BUFFER_SIZE segments of a file, and when it is closed
+ *  - fin:      when the file is closed at the FIN; files closed while the stage was busy are forced together
+ *              (group commit), and only then are their FINs acknowledged. The group is committed once the queue
+ *              is empty, or GROUP_COMMIT_ENTRIES entries or GROUP_COMMIT_NANOS after its first close, so that
+ *              sessions streaming at the same time cannot hold back a FIN-ACK until its sender gives up
+ */
+public class WriteBehind implements Runnable {
+    public static final String NONE     = "none";
+    public static final String BLOCK    = "block";
+    public static final String FIN      = "fin";
+    public static final String DURABILITY = System.getProperty("rdt.fsync", FIN); // when the written data is forced to the disk
+    public static final int POOL_SIZE = Integer.getInteger("rdt.writebehind", 2 * RdtProtocol.WINDOW_SIZE); // pooled segment buffers, 0 to write on the event loop
+    public static final int GROUP_COMMIT_ENTRIES = Math.max(1, POOL_SIZE); // entries processed behind a close before its group is committed anyway
+    public static final long GROUP_COMMIT_NANOS = 2_000_000L; // time after the first close of a group at which it is committed anyway
+    public static final int TASK_CAPACITY = 64; // tasks that may wait in the queue besides a full pool of writes
+    public static final int WINDOW_UPDATE_BUFFERS = Math.max(1, Math.min(POOL_SIZE, RdtProtocol.WINDOW_SIZE) / 4); // free buffers that reopen a closed receive window
+    private static WriteBehind writeBehind = null; // the shared disk stage
+    // Class fields
+    private BlockingQueue<Entry> free = new ArrayBlockingQueue<>(Math.max(1, POOL_SIZE)); // buffers ready to take a segment
+    private BlockingQueue<Entry> queue = new ArrayBlockingQueue<>(Math.max(1, POOL_SIZE) + TASK_CAPACITY); // writes and tasks in the order they were submitted, without a node per entry
+    private List<Entry> closing = new ArrayList<>(); // files waiting for the group commit
+    private long closingSince = 0; // time the first file of the group was closed
+    private int processedSinceClosing = 0; // entries processed since the first file of the group was closed
+    private long rejectedWrites = 0; // segments refused because the pool or the queue was full
+    private int openSinks = 0; // files open for writing through this stage, changed by the event loop only
+    private ConcurrentLinkedQueue<Runnable> waiting = new ConcurrentLinkedQueue<>(); // tasks run once enough buffers are free again
+    private ArrayDeque<Entry> overflow = new ArrayDeque<>(); // tasks that found the queue full, in order, event loop only
+    private volatile boolean overflowWaiting = false; // set while the overflow list waits for the disk stage to make room
+    private Runnable overflowMover = this::moveOverflow; // task the disk stage hands to the event loop once there is room
+
+    /**
+     * Work that runs on the disk stage after every write submitted before it
+     */
+    public interface Task {
+        /**
+         * Method to do the work
+         * @throws IOException
+         */
+        void run() throws IOException;
+    }
+
+    /**
+     * A pooled segment write, or a task
+     */
+    public static class Entry {
+        private FileSink sink; // file the entry belongs to
+        private int seq; // sequence of the segment in the buffer
+        private ByteBuffer buffer; // payload of the segment, null for a task
+        private Task task; // task to run, null for a write
+        private boolean close; // set when the task closes the file and waits for the group commit
+    }
+
+    /**
+     * Constructor for this class
+     */
+    private WriteBehind() {
+        for (int index = 0; index < POOL_SIZE; index++) {
+            Entry entry = new Entry();
+            entry.buffer = ByteBuffer.allocateDirect(RdtProtocol.DATAGRAM_LENGTH);
+            this.free.add(entry);
+        }
+    }
+
+    /**
+     * Method to return the shared disk stage, starting it on first use
+     * @return  WriteBehind, null when the stage is disabled
+     */
+    public static synchronized WriteBehind fetchInstance() {
+        if (POOL_SIZE <= 0) return null;
+        if (writeBehind == null) {
+            writeBehind = new WriteBehind();
+            System.out.println(">> Disk stage started: " + POOL_SIZE + " buffers, durability " + DURABILITY);
+            ThreadPoolManager.startStage("disk-stage", writeBehind);
+        }
+        return writeBehind;
+    }
+
+    /**
+     * Method to copy a segment into a pooled buffer and queue its write
+     * @param sink      FileSink
+     * @param seq       int
+     * @param payload   ByteBuffer whose remaining bytes are written, consumed
+     * @return          Entry queued, null when the pool is empty and the segment has to be dropped
+     */
+    public Entry write(FileSink sink, int seq, ByteBuffer payload) {
+        if (!this.overflow.isEmpty() && !this.moveOverflow()) { // the write would overtake the tasks held there
+            this.rejectedWrites++;
+            return null;
+        }
+        Entry entry = this.free.poll();
+        if (entry == null) {
+            this.rejectedWrites++;
+            return null;
+        }
+        entry.sink = sink;
+        entry.seq = seq;
+        entry.buffer.clear();
+        entry.buffer.put(payload).flip();
+        if (!this.queue.offer(entry)) { // the tasks have taken the room of the pool
+            entry.sink = null;
+            this.free.add(entry);
+            this.rejectedWrites++;
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Method to queue a task behind the writes submitted so far. The queue has room for TASK_CAPACITY tasks
+     * besides a full pool of writes; a task that finds it full is held in the overflow list until the disk stage
+     * makes room, since dropping a close or a checkpoint is not an option and the caller is the event loop.
+     * @param sink  FileSink the task works on
+     * @param task  Task
+     * @param close boolean set when the task closes the file, so it waits for the group commit in the fin mode
+     */
+    public void execute(FileSink sink, Task task, boolean close) {
+        Entry entry = new Entry();
+        entry.sink = sink;
+        entry.task = task;
+        entry.close = close;
+        this.overflow.add(entry);
+        this.moveOverflow();
+    }
+
+    /**
+     * Method to move the overflow list into the queue, in order, as far as there is room. When some of it is
+     * left, the disk stage is asked to call back once it has made room; the request is made before the queue is
+     * tried, so the disk stage cannot empty the queue unnoticed in between. Called on the event loop only.
+     * @return  boolean true when the overflow list is empty
+     */
+    private boolean moveOverflow() {
+        this.overflowWaiting = true;
+        while (!this.overflow.isEmpty() && this.queue.offer(this.overflow.peek())) {
+            this.overflow.poll();
+        }
+        if (this.overflow.isEmpty()) this.overflowWaiting = false;
+        return !this.overflowWaiting;
+    }
+
+    /**
+     * Getter for the number of writes and tasks waiting for the disk
+     * @return  int
+     */
+    public int getQueuedEntries() {
+        return this.queue.size() + this.overflow.size();
+    }
+
+    /**
+     * Getter for the number of pooled buffers ready to take a segment
+     * @return  int
+     */
+    public int getFreeBuffers() {
+        return this.free.size();
+    }
+
+    /**
+     * Getter for the share of the free buffers one file may count on: the pool is shared by every session of
+     * the process, so a receive window built on all of it would be promised to each of them at once
+     * @return  int
+     */
+    public int getFreeBuffersPerSink() {
+        return this.free.size() / Math.max(1, this.openSinks);
+    }
+
+    /**
+     * Method to count a file that starts writing through this stage
+     */
+    public void attach() {
+        this.openSinks++;
+    }
+
+    /**
+     * Method to stop counting a file that is being closed
+     */
+    public void detach() {
+        this.openSinks = Math.max(0, this.openSinks - 1);
+    }
+
+    /**
+     * Method to run a task on the disk stage once WINDOW_UPDATE_BUFFERS buffers are free, so that a receiver that
+     * advertised a closed window can tell its sender when it opens again
+     * @param task  Runnable
+     */
+    public void notifyWhenFree(Runnable task) {
+        this.waiting.add(task);
+    }
+
+    /**
+     * Getter for the number of segments refused because the pool or the queue was full
+     * @return  long
+     */
+    public long getRejectedWrites() {
+        return this.rejectedWrites;
+    }
+
+    /**
+     * Method to copy part of the payload of a queued write, while it is still waiting for the disk
+     * @param entry     Entry
+     * @param offset    int first byte of the payload
+     * @param target    ByteBuffer
+     * @param index     int position in the target the bytes are copied to
+     * @param length    int
+     */
+    public static void copy(Entry entry, int offset, ByteBuffer target, int index, int length) {
+        target.put(index, entry.buffer, offset, Math.max(0, Math.min(length, entry.buffer.limit() - offset)));
+    }
+
+    /**
+     * Getter for the payload of a queued write, positioned at its start. Only the disk stage moves the position,
+     * as it writes the payload; copies of it use absolute indexes, so no view has to be allocated per segment.
+     * @param entry Entry
+     * @return      ByteBuffer
+     */
+    public static ByteBuffer payloadOf(Entry entry) {
+        return entry.buffer.rewind();
+    }
+
+    /**
+     * Getter for the sequence of a queued write
+     * @param entry Entry
+     * @return      int
+     */
+    public static int seqOf(Entry entry) {
+        return entry.seq;
+    }
+
+    /**
+     * Method to write and run the queued entries in order, until the thread is interrupted
+     */
+    @Override
+    public void run() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                Entry entry = this.queue.poll();
+                if (entry == null) {
+                    this.commit();
+                    entry = this.queue.take();
+                }
+                this.process(entry);
+                if (this.overflowWaiting) { // the entry made room for the tasks held by the event loop
+                    this.overflowWaiting = false;
+                    EventLoop.fetchInstance().execute(this.overflowMover);
+                }
+                if (!this.closing.isEmpty() && (++this.processedSinceClosing >= GROUP_COMMIT_ENTRIES
+                    || System.nanoTime() - this.closingSince >= GROUP_COMMIT_NANOS)) {
+                    this.commit();
+                }
+            }
+        } catch (InterruptedException e) {
+            this.commit();
+        }
+    }
+
+    /**
+     * Method to write one queued segment and hand its buffer back, or run one task. A close in the fin mode
+     * waits for the next group commit.
+     * @param entry Entry
+     */
+    private void process(Entry entry) {
+        try {
+            if (entry.task == null) {
+                entry.sink.complete(entry);
+            } else if (entry.close && FIN.equals(DURABILITY)) {
+                if (this.closing.isEmpty()) {
+                    this.closingSince = System.nanoTime();
+                    this.processedSinceClosing = 0;
+                }
+                this.closing.add(entry);
+            } else {
+                entry.task.run();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (entry.task == null) {
+            entry.sink = null;
+            this.free.add(entry);
+            if (!this.waiting.isEmpty() && this.free.size() >= WINDOW_UPDATE_BUFFERS) {
+                for (Runnable task = this.waiting.poll(); task != null; task = this.waiting.poll()) {
+                    task.run();
+                }
+            }
+        }
+    }
+
+    /**
+     * Method to force every file that was closed since the last group commit, and then run their close tasks.
+     * Called when the queue is empty, and while it is not once the group is large or old enough.
+     */
+    private void commit() {
+        if (this.closing.isEmpty()) return;
+        for (Entry entry : this.closing) {
+            try {
+                entry.sink.forceIfDurable();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        if (this.closing.size() > 1) System.out.println(">> Group commit of " + this.closing.size() + " files");
+        for (Entry entry : this.closing) {
+            try {
+                entry.task.run();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        this.closing.clear();
+    }
+}
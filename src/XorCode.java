@@ -0,0 +1,66 @@
+/**
+ * Single parity erasure code: the repair shard is the XOR of the k data shards, so any one lost data segment
+ * of a block can be rebuilt from the other k - 1 and the parity
+ */
+public class XorCode implements ErasureCode {
+    // Class fields
+    private int dataSegments; // k
+
+    /**
+     * Constructor for this class
+     * @param dataSegments  int data segments per block
+     */
+    public XorCode(int dataSegments) {
+        this.dataSegments = dataSegments;
+    }
+
+    @Override
+    public byte getType() {
+        return XOR_TYPE;
+    }
+
+    @Override
+    public int getDataSegments() {
+        return this.dataSegments;
+    }
+
+    @Override
+    public int getRepairSegments() {
+        return 1;
+    }
+
+    @Override
+    public void encode(byte[][] data, byte[][] repairs, int length) {
+        byte[] parity = repairs[0];
+        System.arraycopy(data[0], 0, parity, 0, length);
+        for (int shard = 1; shard < this.dataSegments; shard++) {
+            byte[] source = data[shard];
+            for (int index = 0; index < length; index++) {
+                parity[index] ^= source[index];
+            }
+        }
+    }
+
+    @Override
+    public boolean decode(byte[][] shards, boolean[] present, int length) {
+        int missing = -1;
+        for (int shard = 0; shard < this.dataSegments; shard++) {
+            if (present[shard]) continue;
+            if (missing >= 0) return false;
+            missing = shard;
+        }
+        if (missing < 0) return true;
+        if (!present[this.dataSegments]) return false;
+        byte[] rebuilt = shards[missing];
+        System.arraycopy(shards[this.dataSegments], 0, rebuilt, 0, length);
+        for (int shard = 0; shard < this.dataSegments; shard++) {
+            if (shard == missing) continue;
+            byte[] source = shards[shard];
+            for (int index = 0; index < length; index++) {
+                rebuilt[index] ^= source[index];
+            }
+        }
+        present[missing] = true;
+        return true;
+    }
+}